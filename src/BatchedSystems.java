@@ -0,0 +1,296 @@
+/**
+ * This class advances many small, independent systems of bodies
+ * together, step for step, such as the variants of a sweep.  With
+ * only a couple of dozen bodies a system is too small to split
+ * between threads or to fill the vector units of the processor,
+ * so the work is laid out across systems instead.
+ *
+ * The systems are split into blocks of up to BLOCK_SIZE, and
+ * every quantity of a block is held as a row per body with a
+ * column per system.  The force loop runs over the pairs of
+ * bodies on the outside and over the columns of the rows on the
+ * inside, so the innermost loops walk whole arrays with the same
+ * arithmetic and no branches, which the compiler turns into
+ * vector instructions.  The work for a pair is split over three
+ * short loops through scratch rows, since the compiler gives up
+ * on a loop with too much in it, and a pair is skipped by a mask
+ * worked out with Math.abs rather than by a comparison, which it
+ * will not vectorize.  Systems with fewer bodies than the others
+ * are padded out with bodies without mass, which pull on nothing.
+ *
+ * The pair law and the step are the same as those of the direct
+ * force engine and Simulation.step, and each pull is summed in the
+ * same order, so a system gives the same numbers run here as on
+ * its own.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class BatchedSystems {
+
+	// Most systems in a block, handed to a thread at a time
+	private final int BLOCK_SIZE = 256;
+
+	private int systems;
+	private int bodies;
+
+	// Number of real bodies in every system
+	private int[] counts;
+
+	private Block[] blocks;
+
+	private long steps;
+
+	/**
+	 * Constructor: a batch of empty systems with room for a custom
+	 * number of bodies in each.
+	 *
+	 * @param the number of systems
+	 * @param the most bodies in any system
+	 */
+	public BatchedSystems(int systems, int bodies){
+		this.systems = systems;
+		this.bodies = bodies;
+		counts = new int[systems];
+		blocks = new Block[(systems + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		for (int b = 0; b < blocks.length; b++){
+			blocks[b] = new Block(bodies,
+					Math.min(BLOCK_SIZE, systems - b * BLOCK_SIZE));
+		}
+		steps = 0;
+	}
+
+	/** Return the number of systems.*/
+	public int getSystemCount(){
+		return systems;
+	}
+
+	/** Return the most bodies there is room for in a system.*/
+	public int getBodyCount(){
+		return bodies;
+	}
+
+	/** Return the number of bodies in a system.*/
+	public int getCount(int system){
+		return counts[system];
+	}
+
+	/** Return the number of steps taken so far.*/
+	public long getSteps(){
+		return steps;
+	}
+
+	/** Return the x coordinate of a body of a system.*/
+	public double getX(int system, int i){
+		return blocks[system / BLOCK_SIZE].x[i][system % BLOCK_SIZE];
+	}
+
+	/** Return the y coordinate of a body of a system.*/
+	public double getY(int system, int i){
+		return blocks[system / BLOCK_SIZE].y[i][system % BLOCK_SIZE];
+	}
+
+	/**
+	 * Copy the bodies of a store into a system, in the order they
+	 * are in the store, replacing whatever was there.
+	 *
+	 * @param the index of the system
+	 * @param the store holding the bodies
+	 * @throws IllegalArgumentException if the store holds more
+	 *   bodies than there is room for
+	 */
+	public void load(int system, BodyStore store){
+		int n = store.size();
+		if (n > bodies){
+			throw new IllegalArgumentException("System of " + n
+					+ " bodies, room for " + bodies);
+		}
+		counts[system] = n;
+		Block block = blocks[system / BLOCK_SIZE];
+		int s = system % BLOCK_SIZE;
+		for (int i = 0; i < bodies; i++){
+			boolean isReal = i < n;
+			block.x[i][s] = isReal ? store.getX(i) : 0;
+			block.y[i][s] = isReal ? store.getY(i) : 0;
+			block.vx[i][s] = isReal ? store.getVX(i) : 0;
+			block.vy[i][s] = isReal ? store.getVY(i) : 0;
+			block.ax[i][s] = isReal ? store.getAX(i) : 0;
+			block.ay[i][s] = isReal ? store.getAY(i) : 0;
+			block.potential[i][s] = isReal ? store.getPotential(i) : 0;
+			block.mass[i][s] = isReal ? store.getMass(i) : 0;
+			block.halfRadius[i][s] = isReal ? store.getRadius(i) / 2 : 0;
+		}
+	}
+
+	/**
+	 * Copy the bodies of a system back into the store it was
+	 * loaded from.
+	 *
+	 * @param the index of the system
+	 * @param the store to copy into, holding as many bodies
+	 */
+	public void save(int system, BodyStore store){
+		Block block = blocks[system / BLOCK_SIZE];
+		int s = system % BLOCK_SIZE;
+		for (int i = 0; i < counts[system]; i++){
+			store.setPosition(i, block.x[i][s], block.y[i][s]);
+			store.setVelocity(i, block.vx[i][s], block.vy[i][s]);
+			store.setAcceleration(i, block.ax[i][s], block.ay[i][s]);
+			store.setPotential(i, block.potential[i][s]);
+		}
+	}
+
+	/**
+	 * Advance every system by a number of steps.
+	 *
+	 * @param the number of steps
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 */
+	public void step(long count, double deltaTime){
+		IntStream indices = IntStream.range(0, blocks.length);
+		if (blocks.length > 1){
+			indices = indices.parallel();
+		}
+		// Every block is independent, so each runs all of the steps
+		indices.forEach(b -> {
+			for (long step = 0; step < count; step++){
+				blocks[b].computeAccelerations();
+				blocks[b].move(deltaTime);
+			}
+		});
+		steps += count;
+	}
+
+	/**
+	 * Work out the acceleration and potential of every body of
+	 * every system.
+	 */
+	public void computeAccelerations(){
+		IntStream indices = IntStream.range(0, blocks.length);
+		if (blocks.length > 1){
+			indices = indices.parallel();
+		}
+		indices.forEach(b -> blocks[b].computeAccelerations());
+	}
+
+	/**
+	 * The quantities of a block of systems, a row per body and a
+	 * column per system, with scratch rows for the force loop.
+	 */
+	private static class Block {
+
+		private int width;
+		private double[][] x, y;
+		private double[][] vx, vy;
+		private double[][] ax, ay;
+		private double[][] potential;
+		private double[][] mass;
+
+		// Half the radius of every body, rounded down as the
+		// engines do
+		private double[][] halfRadius;
+
+		// Differences, distances and pulls of a pair of bodies
+		private double[] dxs, dys, pulls;
+
+		/**
+		 * Constructor: an empty block.
+		 *
+		 * @param the most bodies in any system
+		 * @param the number of systems
+		 */
+		private Block(int bodies, int width){
+			this.width = width;
+			x = new double[bodies][width];
+			y = new double[bodies][width];
+			vx = new double[bodies][width];
+			vy = new double[bodies][width];
+			ax = new double[bodies][width];
+			ay = new double[bodies][width];
+			potential = new double[bodies][width];
+			mass = new double[bodies][width];
+			halfRadius = new double[bodies][width];
+			dxs = new double[width];
+			dys = new double[width];
+			pulls = new double[width];
+		}
+
+		/**
+		 * Work out the acceleration and potential of every body of
+		 * every system of the block.
+		 */
+		private void computeAccelerations(){
+			double g = Simulator.GRAVITATIONAL_CONSTANT;
+			for (int i = 0; i < x.length; i++){
+				double[] xI = x[i], yI = y[i], halfRadiusI = halfRadius[i];
+				double[] axI = ax[i], ayI = ay[i], potentialI = potential[i];
+				Arrays.fill(axI, 0);
+				Arrays.fill(ayI, 0);
+				Arrays.fill(potentialI, 0);
+				for (int j = 0; j < x.length; j++){
+					double[] xJ = x[j], yJ = y[j];
+					double[] halfRadiusJ = halfRadius[j], massJ = mass[j];
+					for (int s = 0; s < width; s++){
+						double dx = xJ[s] - xI[s];
+						double dy = yJ[s] - yI[s];
+						dxs[s] = dx;
+						dys[s] = dy;
+						pulls[s] = Math.sqrt(dx * dx + dy * dy);
+					}
+					for (int s = 0; s < width; s++){
+						double distance = pulls[s];
+						/*
+						 * Skip this body and any body it has collided
+						 * with, which includes j == i, by a mask of 1
+						 * when the gap is positive and 0 otherwise.  A
+						 * masked pair divides by one instead of by
+						 * zero.
+						 */
+						double gap = distance
+								- (halfRadiusJ[s] + halfRadiusI[s]);
+						double size = Math.abs(gap);
+						double mask = (gap + size) / (size + size + 1e-300);
+						double safe = distance + (1 - mask);
+						double pull = g * massJ[s] * mask / safe;
+						double magnitude = pull / (safe * safe);
+						pulls[s] = pull;
+						dxs[s] *= magnitude;
+						dys[s] *= magnitude;
+					}
+					for (int s = 0; s < width; s++){
+						axI[s] += dxs[s];
+						ayI[s] += dys[s];
+						potentialI[s] -= pulls[s];
+					}
+				}
+			}
+		}
+
+		/**
+		 * Add the acceleration of every body of the block to its
+		 * velocity, and then the velocity to its position.
+		 *
+		 * @param the ratio of time elapsed to the expected time
+		 *   it takes to elapse
+		 */
+		private void move(double deltaTime){
+			for (int i = 0; i < x.length; i++){
+				double[] xI = x[i], yI = y[i], vxI = vx[i], vyI = vy[i];
+				double[] axI = ax[i], ayI = ay[i];
+				for (int s = 0; s < width; s++){
+					vxI[s] += axI[s] * deltaTime;
+					vyI[s] += ayI[s] * deltaTime;
+					xI[s] += vxI[s] * deltaTime;
+					yI[s] += vyI[s] * deltaTime;
+				}
+			}
+		}
+	}
+}
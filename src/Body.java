@@ -3,7 +3,7 @@
  * celestial body.
  * 
  * Author: Tomas L. Dougan
- * Date of last modification: 23 June 2020
+ * Date of last modification: 18 October 2026
  */
 
 package nbodysim;
@@ -105,6 +105,24 @@ public class Body {
 		return velocity;
 	}
 	
+	/**
+	 * Change the net force exerted on this body.
+	 * 
+	 * @param the new net force
+	 */
+	public void setNetForce(Force netForce){
+		this.netForce = netForce;
+	}
+	
+	/**
+	 * Set the velocity.
+	 * 
+	 * @param the new velocity
+	 */
+	public void setVelocity(Vector velocity){
+		this.velocity = velocity;
+	}
+	
 	/** Return the acceleration.*/
 	public Vector getAcceleration(){
 		return acceleration;
@@ -128,66 +146,227 @@ public class Body {
 	/** 
 	 * Add the velocity vector's, adjusted with delta time, x
 	 * and y components to the x and y coordinates of the 
-	 * position respectively.  Do not update the coordinate 
-	 * position of the body if movement in that direction is 
-	 * impeded by another body.
+	 * position respectively.  Leave out any part of the move
+	 * that would take the body closer to a body it has collided
+	 * with.
 	 */
 	public void updatePosition(double deltaTime){
-		// Calculate the updated positions based on the velocities
-		double x = position.x + velocity.getXComponent() 
-				* deltaTime;
-		double y = position.y + velocity.getYComponent() 
-				* deltaTime * -1;
-		// Check to see that the body has collided with another
-		if (collidedBodies.size() > 0){
-			for (Body body : collidedBodies){
-				// If the body is not impeded in the x direction
-				if (position.x > body.position.x){
-					/* 
-					 * If the body would move away from the
-					 * collided body
-					 */
-					if (position.x < x){
-						position.x = x;
+		double[] move = displacement(deltaTime);
+		position.x += move[0];
+		position.y += move[1];
+	}
+	
+	/**
+	 * Return how far updatePosition would move the body in the x
+	 * and y directions.  A body may not move any closer to a body
+	 * it has collided with, so this is the nearest move to the
+	 * one the velocity gives that heads towards none of them:
+	 * that move itself, that move with the part heading towards
+	 * one of them taken out so the body slides past it, or no
+	 * move at all.
+	 * 
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 * @return the distances moved in the x and y directions
+	 */
+	private double[] displacement(double deltaTime){
+		// Calculate the movement based on the velocities
+		double dx = velocity.getXComponent() * deltaTime;
+		double dy = velocity.getYComponent() * deltaTime * -1;
+		if (!isImpeded(dx, dy)){
+			return new double[]{dx, dy};
+		}
+		double slideX = 0;
+		double slideY = 0;
+		double lost = Double.POSITIVE_INFINITY;
+		for (Body body : collidedBodies){
+			double x = position.x - body.position.x;
+			double y = position.y - body.position.y;
+			double closing = x * dx + y * dy;
+			double separation = x * x + y * y;
+			if (closing >= 0 || separation == 0){
+				continue;
+			}
+			// Take out the part of the move towards this body
+			double x1 = dx - closing / separation * x;
+			double y1 = dy - closing / separation * y;
+			if (closing * closing / separation < lost
+					&& !isImpeded(x1, y1)){
+				slideX = x1;
+				slideY = y1;
+				lost = closing * closing / separation;
+			}
+		}
+		return new double[]{slideX, slideY};
+	}
+	
+	/**
+	 * Return whether a move would take the body closer to any
+	 * body it has collided with, allowing for rounding in a move
+	 * that only slides past one.
+	 * 
+	 * @param the distance moved in the x direction
+	 * @param the distance moved in the y direction
+	 */
+	private boolean isImpeded(double dx, double dy){
+		for (Body body : collidedBodies){
+			double x = position.x - body.position.x;
+			double y = position.y - body.position.y;
+			if (x * dx + y * dy < -1e-9 * Math.hypot(x, y) 
+					* Math.hypot(dx, dy)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Move every body like updatePosition, but sweep every pair of
+	 * bodies along their paths together and stop them all where
+	 * the first pair touches, which is then in collision, before
+	 * moving them on through the rest of the frame.  Every path is
+	 * worked out before any body moves, so two bodies whose paths
+	 * cross within a frame cannot pass through each other, and
+	 * the result does not depend on the order of the bodies.
+	 * 
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 * @param the list of all bodies in the simulation
+	 */
+	public static void updatePositions(double deltaTime,
+			ArrayList<Body> bodies){
+		int n = bodies.size();
+		double[] dx = new double[n];
+		double[] dy = new double[n];
+		// The pairs that touch first in the current move
+		ArrayList<Body[]> impacts = new ArrayList<Body[]>();
+		// The fraction of the frame left to move through
+		double remaining = 1;
+		/*
+		 * Every impact puts at least one more pair in collision,
+		 * so this ends after at most as many impacts as pairs.
+		 */
+		while (remaining > 0){
+			for (int i = 0; i < n; i++){
+				double[] move = bodies.get(i).displacement(
+						deltaTime * remaining);
+				dx[i] = move[0];
+				dy[i] = move[1];
+			}
+			/*
+			 * Find the pairs that touch first before anything
+			 * moves, as once they have moved their time of impact
+			 * need not come out the same again.
+			 */
+			double earliest = 1;
+			impacts.clear();
+			for (int i = 0; i < n; i++){
+				for (int j = i + 1; j < n; j++){
+					double time = timeOfImpact(bodies, i, j, dx, dy);
+					if (time < earliest){
+						earliest = time;
+						impacts.clear();
 					}
-					// If the body is impeded in the x direction
-				} else {
-					/* 
-					 * If the body would move away from the
-					 * collided body
-					 */
-					if (position.x > x){
-						position.x = x;
+					if (time == earliest && time < 1){
+						impacts.add(new Body[]{bodies.get(i), 
+								bodies.get(j)});
 					}
 				}
-				// If the body is not impeded in the y direction
-				if (position.y > body.position.y){
-					/* 
-					 * If the body would move away from the
-					 * collided body
-					 */
-					if (position.y < y){
-						position.y = y;
-					}
-					// If the body is impeded in the y direction
-				} else {
-					/* 
-					 * If the body would move away from the
-					 * collided body
-					 */
-					if (position.y > y){
-						position.y = y;
-					}
-				}	
 			}
 			/*
-			 * Update position as normal provided the body has
-			 * not collided with another.
-			 */ 
-		} else {
-			position.x = x;
-			position.y = y;
+			 * Move by the displacements found above rather than
+			 * working them out again, as a body sliding past
+			 * another would otherwise slide differently once
+			 * the other has moved.
+			 */
+			for (int i = 0; i < n; i++){
+				bodies.get(i).position.x += dx[i] * earliest;
+				bodies.get(i).position.y += dy[i] * earliest;
+			}
+			if (earliest == 1){
+				return;
+			}
+			// Put every pair touching at this moment in collision
+			for (Body[] pair : impacts){
+				if (!pair[0].collidedBodies.contains(pair[1])){
+					pair[0].collidedBodies.add(pair[1]);
+				}
+				if (!pair[1].collidedBodies.contains(pair[0])){
+					pair[1].collidedBodies.add(pair[0]);
+				}
+			}
+			remaining *= 1 - earliest;
+		}
+	}
+	
+	/**
+	 * Return the fraction of a move after which two bodies that
+	 * are not yet in collision first touch, or 1 if they do not.
+	 * A pair in collision is left out, as neither body's move
+	 * takes it any closer to the other, so together they only
+	 * slide past or move apart.
+	 * 
+	 * @param the list of all bodies in the simulation
+	 * @param the index of the first body
+	 * @param the index of the second body
+	 * @param the distance every body moves in the x direction
+	 * @param the distance every body moves in the y direction
+	 */
+	private static double timeOfImpact(ArrayList<Body> bodies, int i,
+			int j, double[] dx, double[] dy){
+		Body body = bodies.get(i);
+		Body otherBody = bodies.get(j);
+		if (body.collidedBodies.contains(otherBody)
+				&& otherBody.collidedBodies.contains(body)){
+			return 1;
+		}
+		return body.timeOfImpact(otherBody, dx[i] - dx[j], 
+				dy[i] - dy[j]);
+	}
+	
+	/**
+	 * Return the fraction of a move after which this body first
+	 * touches another body, or 1 if it does not touch it at all,
+	 * given how far this body moves relative to the other.  A
+	 * body already touching the other cannot move any closer to
+	 * it.
+	 * 
+	 * @param the other body
+	 * @param the distance moved in the x direction relative to
+	 *   the other body
+	 * @param the distance moved in the y direction relative to
+	 *   the other body
+	 */
+	private double timeOfImpact(Body otherBody, double dx, double dy){
+		double contact = otherBody.radius/2 + radius/2;
+		double x = position.x - otherBody.position.x;
+		double y = position.y - otherBody.position.y;
+		// Only bodies near the box swept by the move can be hit
+		if (Math.min(x, x + dx) > contact
+				|| Math.max(x, x + dx) < -contact
+				|| Math.min(y, y + dy) > contact
+				|| Math.max(y, y + dy) < -contact){
+			return 1;
+		}
+		/*
+		 * Solve for the earliest fraction at which the distance
+		 * between the centres is the contact distance, given
+		 * that the body is moving towards the other.
+		 */
+		double closing = x * dx + y * dy;
+		if (closing >= 0){
+			return 1;
+		}
+		double gap = x * x + y * y - contact * contact;
+		if (gap <= 0){
+			return 0;
+		}
+		double length = dx * dx + dy * dy;
+		double discriminant = closing * closing - length * gap;
+		if (discriminant < 0){
+			return 1;
 		}
+		return Math.min(1, gap / (Math.sqrt(discriminant) - closing));
 	}
 	
 	/** 
@@ -2,210 +2,475 @@
  * This class contains all of the qualities of a path as well
  * as the logic when adding to, interpolating, and tapering that
  * path.
- * 
+ *
+ * Rather than every position it is given, a path only keeps the
+ * corners of the trail: a position is dropped whenever the trail
+ * would pass within a small tolerance of it anyway, so a body
+ * moving in a straight line costs two positions however fast it
+ * goes, and the memory of a path follows how much it bends.  The
+ * points drawn along the path are worked out from the corners
+ * only when the path is drawn.
+ *
  * Author: Tomas L. Dougan
- * Date of last modification: 23 June 2020
+ * Date of last modification: 18 October 2026
  */
 
 package nbodysim;
 
 import java.awt.Color;
-import java.util.ArrayList;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 
 public class BodyPath {
-	
-	private final double PI = Math.PI;
-	private final int SPACING = 1;
-	
-	private static int taperedLength;
-	
-	public ArrayList<Position> list;
-	
+
+	public static final int DEFAULT_TAPERED_LENGTH = 50;
+
+	private final int DEFAULT_CAPACITY = 16;
+
+	// Furthest a dropped position may be from the trail
+	private final double TOLERANCE = 0.25;
+
+	private int taperedLength;
+
+	/*
+	 * Corners of the trail, from index first up to but not
+	 * including index end.  The last corner is the tip of the
+	 * trail, which moves along with the body until the trail
+	 * bends away from the corner before it.
+	 */
+	private double[] xs, ys;
+	private double[] lengths;
+	private long[] steps;
+	private int first;
+	private int end;
+
+	// Number of positions ever added
+	private long step;
+
+	/*
+	 * Range of directions, as angles from the reference direction,
+	 * from the corner before the tip that still passes within the
+	 * tolerance of every position dropped since that corner.
+	 */
+	private boolean hasReference;
+	private double referenceX, referenceY;
+	private double coneLow, coneHigh;
+
 	private Color color;
 	private boolean isInterpolated;
 	private boolean isTapered;
-	
-	/** 
+
+	/**
 	 * Constructor: a path with a custom color.
-	 * 
+	 *
 	 * @param the color of the path
 	 */
 	public BodyPath(Color color){
 		this.color = color;
-		taperedLength = 50;
-		list = new ArrayList<>();
+		taperedLength = DEFAULT_TAPERED_LENGTH;
+		xs = new double[DEFAULT_CAPACITY];
+		ys = new double[DEFAULT_CAPACITY];
+		lengths = new double[DEFAULT_CAPACITY];
+		steps = new long[DEFAULT_CAPACITY];
+		first = 0;
+		end = 0;
+		step = 0;
 		isInterpolated = false;
 		isTapered = false;
 	}
-	
+
 	/** Return the color.*/
 	public Color getColor(){
 		return color;
 	}
-	/** Return the tapered length of all paths.*/
-	public static int getTaperedLength(){
+	/** Return the tapered length.*/
+	public int getTaperedLength(){
 		return taperedLength;
 	}
-	
+
 	/** Return whether the path is interpolated or not.*/
 	public boolean isInterpolated(){
 		return isInterpolated;
 	}
-	
+
 	/** Return whether the path is tapered or not.*/
 	public boolean isTapered(){
 		return isTapered;
 	}
-	
+
+	/** Return whether the path has no positions.*/
+	public synchronized boolean isEmpty(){
+		return end == first;
+	}
+
+	/** Return the number of corners the path keeps.*/
+	public synchronized int getCornerCount(){
+		return end - first;
+	}
+
 	/**
 	 * Change whether the path is interpolated or not.
-	 * 
+	 *
 	 * @param the new state of interpolation
 	 */
 	public void setInterpolated(boolean isInterpolated){
 		this.isInterpolated = isInterpolated;
 	}
-	/** 
-	 * Set the tapered length for all paths.
+	/**
+	 * Set the tapered length.
 	 *
 	 * @param the new tapered length
 	 */
-	public static void setTaperedLength(int taperedLengthInput){
-		taperedLength = taperedLengthInput;
+	public void setTaperedLength(int taperedLength){
+		this.taperedLength = taperedLength;
 	}
-	
+
 	/**
 	 * Change whether the path is tapered or not.
-	 * 
+	 *
 	 * @param the new state of tapering
 	 */
 	public void setTapered(boolean isTapered){
 		this.isTapered = isTapered;
 	}
-	
-	/** Clear the list.*/
-	public void clear(){
-		list.clear();
+
+	/** Clear the path.*/
+	public synchronized void clear(){
+		first = 0;
+		end = 0;
+		step = 0;
+		hasReference = false;
 	}
-	
+
 	/**
-	 * Depending on whether the path is interpolated or tapered,
-	 * either add the target position to the path, interpolate to
-	 * that target position, and/or remove the first position of
-	 * the path until the size of the path is correctly tapered.
-	 * 
-	 * @param the target position to add or interpolate to in
-	 *   the path
-	 */
-	public void add(Position target){
+	 * Add the next position of the body to the path.  The tip of
+	 * the path moves to the new position when every position
+	 * dropped since the last corner stays within the tolerance of
+	 * the trail, and otherwise the tip is kept as a corner.
+	 * Depending on whether the path is tapered, corners are then
+	 * removed from the start until the path is correctly tapered.
+	 *
+	 * @param the target position to add to the path
+	 */
+	public synchronized void add(Position target){
+		step++;
+		if (end - first < 2){
+			append(target.x, target.y);
+		} else if (canReplaceTip(target.x, target.y)){
+			int tip = end - 1;
+			xs[tip] = target.x;
+			ys[tip] = target.y;
+			lengths[tip] = lengths[tip - 1] + Math.hypot(
+					target.x - xs[tip - 1], target.y - ys[tip - 1]);
+			steps[tip] = step;
+		} else {
+			hasReference = false;
+			append(target.x, target.y);
+		}
 		// Taper the path when needed
-		while (isTapered && list.size() > taperedLength){
-			list.remove(0);
+		if (isTapered){
+			double cut = getStartKey();
+			while (end - first > 1 && key(first + 1) <= cut){
+				first++;
+			}
 		}
-		// For all positions other than the first
-		if (list.size() > 1){
-			Position source = list.get(list.size() -1);
-			Vector distanceVector = Vector.customVector(source, 
-					target);
-			if (isInterpolated){
-				/* 
-				 * If the distance between positions is large
-				 * enough to warrant interpolation
-				 */
-				if ((int)distanceVector.getMagnitude() 
-						> SPACING){
-					for (Position position : interpolate(
-							distanceVector, source, target)){
-						/* 
-						 * Add all of the approximated points
-						 * between the source and target.
-						 */
-						list.add(position);
-					}
-				} else if((int)distanceVector.getMagnitude() 
-						== SPACING){
-					list.add(target);
-				}
-				list.add(target);
-			} else {
-				list.add(target);
+	}
+
+	/**
+	 * Return whether the tip can move to a new position and be
+	 * dropped, which narrows the range of directions left to the
+	 * ones that also pass by the old tip.  A body turning back on
+	 * itself always keeps the old tip.
+	 *
+	 * @param the x coordinate of the new position
+	 * @param the y coordinate of the new position
+	 */
+	private boolean canReplaceTip(double x, double y){
+		int corner = end - 2;
+		double cornerX = xs[corner];
+		double cornerY = ys[corner];
+		double tipX = xs[end - 1] - cornerX;
+		double tipY = ys[end - 1] - cornerY;
+		double newX = x - cornerX;
+		double newY = y - cornerY;
+		double tipDistance = Math.hypot(tipX, tipY);
+		double newDistance = Math.hypot(newX, newY);
+		if (newDistance < tipDistance - TOLERANCE){
+			return false;
+		}
+		double low = coneLow;
+		double high = coneHigh;
+		if (tipDistance > TOLERANCE){
+			if (!hasReference){
+				hasReference = true;
+				referenceX = tipX / tipDistance;
+				referenceY = tipY / tipDistance;
+				low = -Math.PI;
+				high = Math.PI;
 			}
-		} else {
-			list.add(target);
+			double spread = Math.asin(TOLERANCE / tipDistance);
+			double angle = angleOf(tipX, tipY);
+			low = Math.max(low, angle - spread);
+			high = Math.min(high, angle + spread);
+		}
+		if (hasReference && newDistance > TOLERANCE){
+			double angle = angleOf(newX, newY);
+			if (angle < low || angle > high){
+				return false;
+			}
+		}
+		coneLow = low;
+		coneHigh = high;
+		return true;
+	}
+
+	/** Return the angle of a direction from the reference.*/
+	private double angleOf(double x, double y){
+		return Math.atan2(referenceX * y - referenceY * x,
+				referenceX * x + referenceY * y);
+	}
+
+	/**
+	 * Add a corner to the end of the path, making room for it
+	 * first if need be.  Corners dropped from the start by
+	 * tapering are let go of whenever room is made.
+	 *
+	 * @param the x coordinate of the corner
+	 * @param the y coordinate of the corner
+	 */
+	private void append(double x, double y){
+		if (end == xs.length){
+			int count = end - first;
+			int capacity = count * 2 > xs.length
+					? xs.length * 2 : xs.length;
+			xs = Arrays.copyOfRange(xs, first, first + capacity);
+			ys = Arrays.copyOfRange(ys, first, first + capacity);
+			lengths = Arrays.copyOfRange(lengths, first,
+					first + capacity);
+			steps = Arrays.copyOfRange(steps, first, first + capacity);
+			first = 0;
+			end = count;
 		}
+		xs[end] = x;
+		ys[end] = y;
+		lengths[end] = end == first ? 0 : lengths[end - 1]
+				+ Math.hypot(x - xs[end - 1], y - ys[end - 1]);
+		steps[end] = step;
+		end++;
+	}
+
+	/**
+	 * Return how far along the path a corner is, by length when
+	 * the path is interpolated and by the number of positions
+	 * added otherwise.
+	 *
+	 * @param the index of the corner
+	 */
+	private double key(int corner){
+		return isInterpolated ? lengths[corner] : steps[corner];
 	}
 
 	/**
-	 * Algebraically derive a linear equation from two points
-	 * and use that to approximate new points in between in order
-	 * to keep the spacing in between each point in the path
-	 * constant despite changing speed.
-	 * 
-	 * Whenever the distanceVector is closer to the horizontal, 
-	 * solve for y to interpolate, and when its closer to 
-	 * vertical, solve for x to interpolate.  This ensures no
-	 * undefined slopes are used when approximating new points.
-	 * 
-	 * @param distance vector between the source and target
-	 *   positions
-	 * @param the source position to interpolate from
-	 * @param the target position to interpolate to
-	 * @return a list of positions in between the source and
-	 *   target positions to add to the path
-	 */
-	private ArrayList<Position> interpolate(Vector distanceVector, 
-			Position source, Position target){
-		ArrayList<Position> interpolated = new ArrayList<>();
-		double theta = distanceVector.getTheta();
-		// Make sure theta is less than 2*pi
-		while (theta > 2*PI){
-			theta = theta - 2*PI;
+	 * Return how far along the path it starts being drawn, which
+	 * is the tapered length back from the tip when the path is
+	 * tapered, and the first corner otherwise.
+	 */
+	private double getStartKey(){
+		double start = key(first);
+		if (isTapered){
+			start = Math.max(start, key(end - 1) - taperedLength);
 		}
-		// Slope
-		double m = (target.y - source.y) / (target.x - source.x);
-		// Y - intercept
-		double b = target.y - (m * target.x);
-		/*
-		 *  If the angle of the distance vector is closer to
-		 *  the horizontal
-		 */
-		if (theta > (3*PI)/4 &&  theta < (5*PI)/4
-				|| theta < PI/4 && theta > 0 
-				|| theta > (7*PI)/4
-				|| theta < -(7*PI)/4 
-				|| theta > -PI/4 && theta < 0 
-				|| theta < -(3*PI)/4 && theta > -(5*PI)/4){
-			/* 
-			 * For every interval of spacing between the source and
-			 * target positions
-			 */
-			for (int i = 0; 
-					i < (int)distanceVector.getMagnitude()/SPACING; 
-					i++){
-				/* 
-				 * Use the slope and intercept to find the approximate
-				 * position for that interval.
-				 */
-				double x = target.x + (SPACING * i);
-				double y = (x * m) + b;
-				// Add the position
-				interpolated.add(new Position(x, y));
+		return start;
+	}
+
+	/**
+	 * Return the distance between the points drawn along the
+	 * path, which is the spacing asked for when the path is
+	 * interpolated, and one position added otherwise.
+	 *
+	 * @param the spacing of an interpolated path
+	 */
+	private double getStride(double spacing){
+		return isInterpolated ? spacing : 1;
+	}
+
+	/**
+	 * Return the number of points drawn along the part of the
+	 * path that can be seen.  An interpolated path is drawn as
+	 * points a constant distance apart, and otherwise as a point
+	 * for every position added, spread out evenly between the
+	 * corners.  Only the points on the stretches between corners
+	 * that cross the view are counted, so however far the view
+	 * is zoomed in, a stretch gives no more points than fit
+	 * across the view.
+	 *
+	 * @param the spacing of an interpolated path
+	 * @param the part of the world that can be seen
+	 */
+	public synchronized int getPointCount(double spacing,
+			Rectangle2D view){
+		return walk(spacing, view, 1, 0, 0, null, null, 0,
+				Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Write the points drawn along the part of the path that can
+	 * be seen into a pair of arrays, from the start of the path to
+	 * its tip, as worked out by getPointCount.  Each stretch
+	 * between two corners is stepped along by its fraction of the
+	 * way, so a path goes the same way the body did whichever way
+	 * that is, and the points are put through a scale and a shift
+	 * on the way out so they can go straight to the screen.  No
+	 * more points are written than there is room for between the
+	 * offset and the limit.
+	 *
+	 * @param the spacing of an interpolated path
+	 * @param the part of the world that can be seen
+	 * @param the scale to multiply every coordinate by
+	 * @param the shift to add to every x coordinate
+	 * @param the shift to add to every y coordinate
+	 * @param the array to put the x coordinates into
+	 * @param the array to put the y coordinates into
+	 * @param the index to put the first point at
+	 * @param the index after the last point there is room for
+	 * @return the number of points written
+	 */
+	public synchronized int interpolate(double spacing,
+			Rectangle2D view, double scale, double shiftX,
+			double shiftY, float[] pointsX, float[] pointsY,
+			int offset, int limit){
+		return walk(spacing, view, scale, shiftX, shiftY, pointsX,
+				pointsY, offset, limit);
+	}
+
+	/**
+	 * Step along the path, counting the points that fall in the
+	 * view, and writing them out as well unless there are no
+	 * arrays to write them to.  The points sit at a fixed stride
+	 * from the start of the path, and every stretch between two
+	 * corners is first clipped to the view, so only the strides
+	 * that land in the clipped part are visited.  A point is left
+	 * on the tip for the last bit of the path shorter than a
+	 * stride.  The arguments are those of interpolate, with no
+	 * arrays when the points are only counted.
+	 *
+	 * @return the number of points counted
+	 */
+	private int walk(double spacing, Rectangle2D view, double scale,
+			double shiftX, double shiftY, float[] pointsX,
+			float[] pointsY, int offset, int limit){
+		if (isEmpty() || limit <= offset){
+			return 0;
+		}
+		double stride = getStride(spacing);
+		double start = getStartKey();
+		double length = key(end - 1) - start;
+		long total = (long)Math.floor(length / stride) + 1;
+		if (start + (total - 1) * stride < key(end - 1)){
+			total++;
+		}
+		double[] range = new double[2];
+		int count = 0;
+		long k = 0;
+		for (int corner = first; corner < end - 1 && k < total;
+				corner++){
+			double from = key(corner);
+			double to = key(corner + 1);
+			double span = to - from;
+			if (span <= 0){
+				continue;
+			}
+			// Strides from k up to here fall on this stretch
+			long stretchEnd = Math.min(total,
+					(long)Math.floor((to - start) / stride) + 1);
+			if (stretchEnd <= k){
+				continue;
+			}
+			double x = xs[corner];
+			double y = ys[corner];
+			double dx = xs[corner + 1] - x;
+			double dy = ys[corner + 1] - y;
+			if (clip(x, y, dx, dy, view, range)){
+				long low = Math.max(k, (long)Math.ceil(
+						(from + range[0] * span - start) / stride));
+				long high = Math.min(stretchEnd, (long)Math.floor(
+						(from + range[1] * span - start) / stride) + 1);
+				for (long j = low; j < high; j++){
+					if (offset + count == limit){
+						return count;
+					}
+					if (pointsX != null){
+						double along = Math.max(
+								start + j * stride - from, 0) / span;
+						pointsX[offset + count] = (float)((x
+								+ dx * along) * scale + shiftX);
+						pointsY[offset + count] = (float)((y
+								+ dy * along) * scale + shiftY);
+					}
+					count++;
+				}
+			}
+			k = stretchEnd;
+		}
+		// Whatever is left falls on the tip
+		double tipX = xs[end - 1];
+		double tipY = ys[end - 1];
+		if (k < total && offset + count < limit
+				&& clip(tipX, tipY, 0, 0, view, range)){
+			if (pointsX != null){
+				pointsX[offset + count] = (float)(tipX * scale
+						+ shiftX);
+				pointsY[offset + count] = (float)(tipY * scale
+						+ shiftY);
 			}
-			return interpolated;
+			count++;
 		}
-		// If the angle of the distance vector is closer to the vertical
-		for (int i = 0; 
-				i < (int)distanceVector.getMagnitude()/SPACING; 
-				i++){
-			/*
-			 * Calculate the position using the inverse of the
-			 * equation used before.
-			 */
-			double y = target.y + (SPACING * i);
-			double x = (y - b)/m;
-			// Add the position
-			interpolated.add(new Position(x, y));
+		return count;
+	}
+
+	/**
+	 * Clip a stretch to a view, as the fractions of the way along
+	 * it between which it is inside the view.
+	 *
+	 * @param the x coordinate of the start of the stretch
+	 * @param the y coordinate of the start of the stretch
+	 * @param the x distance to the end of the stretch
+	 * @param the y distance to the end of the stretch
+	 * @param the view to clip to
+	 * @param the fractions the stretch is inside between, filled
+	 *   in by the clip
+	 * @return whether any of the stretch is inside the view
+	 */
+	private static boolean clip(double x, double y, double dx,
+			double dy, Rectangle2D view, double[] range){
+		range[0] = 0;
+		range[1] = 1;
+		return clipSide(-dx, x - view.getMinX(), range)
+				&& clipSide(dx, view.getMaxX() - x, range)
+				&& clipSide(-dy, y - view.getMinY(), range)
+				&& clipSide(dy, view.getMaxY() - y, range);
+	}
+
+	/**
+	 * Narrow the fractions of a stretch inside a view to the side
+	 * of one edge of the view.
+	 *
+	 * @param the rate the stretch moves out through the edge
+	 * @param the distance from the start of the stretch to the edge
+	 * @param the fractions the stretch is inside between
+	 * @return whether any of the stretch is left inside
+	 */
+	private static boolean clipSide(double rate, double distance,
+			double[] range){
+		if (rate == 0){
+			return distance >= 0;
+		}
+		double t = distance / rate;
+		if (rate < 0){
+			range[0] = Math.max(range[0], t);
+		} else {
+			range[1] = Math.min(range[1], t);
 		}
-		return interpolated;
+		return range[0] <= range[1];
 	}
 }
@@ -0,0 +1,105 @@
+/**
+ * This class rearranges a body store so that bodies which are
+ * close together in space sit close together in memory.  Every
+ * body is given a key along a space-filling curve through the
+ * square bounding all of the bodies, and the store is sorted by
+ * that key.  The ids of the bodies move along with them, so
+ * anything that keeps track of a body by its id is unaffected.
+ * 
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.stream.IntStream;
+
+public class BodyReorder {
+	
+	// Number of cells along each side of the bounding square
+	private final int LEVELS = QuadTree.MAX_DEPTH;
+	
+	/** The curves bodies can be ordered along.*/
+	public enum Curve {MORTON, HILBERT}
+	
+	private Curve curve;
+	
+	/** Constructor: a reorder along the Hilbert curve.*/
+	public BodyReorder(){
+		curve = Curve.HILBERT;
+	}
+	
+	/**
+	 * Constructor: a reorder along a custom curve.
+	 * 
+	 * @param the curve to order the bodies along
+	 */
+	public BodyReorder(Curve curve){
+		this.curve = curve;
+	}
+	
+	/** Return the curve.*/
+	public Curve getCurve(){
+		return curve;
+	}
+	
+	/**
+	 * Sort the bodies of a store along the curve.
+	 * 
+	 * @param the store holding the bodies
+	 */
+	public void reorder(BodyStore store){
+		int n = store.size();
+		if (n < 2){
+			return;
+		}
+		double[] bounds = store.getBounds();
+		double size = Math.max(bounds[2] - bounds[0],
+				bounds[3] - bounds[1]);
+		double scale = size > 0 ? (1 << LEVELS) / (size * (1 + 1e-9))
+				: 0;
+		long[] keys = new long[n];
+		int[] order = new int[n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			int cellX = (int)((store.getX(i) - bounds[0]) * scale);
+			int cellY = (int)((store.getY(i) - bounds[1]) * scale);
+			keys[i] = curve == Curve.HILBERT 
+					? hilbertKey(cellX, cellY)
+					: MortonOrder.encode(cellX, cellY);
+			order[i] = i;
+		});
+		MortonOrder.sort(keys, order, n, 2 * LEVELS);
+		store.permute(order);
+	}
+	
+	/**
+	 * Return the distance along the Hilbert curve of a cell.  At
+	 * each level the quadrant of the cell adds to the distance,
+	 * and the cell is then rotated and flipped into the frame of
+	 * the curve inside that quadrant.
+	 * 
+	 * @param the x cell coordinate
+	 * @param the y cell coordinate
+	 * @return the Hilbert key of the cell
+	 */
+	private long hilbertKey(int x, int y){
+		int n = 1 << LEVELS;
+		long key = 0;
+		for (int s = n >> 1; s > 0; s >>= 1){
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			key += (long)s * s * ((3 * rx) ^ ry);
+			// Rotate the quadrant
+			if (ry == 0){
+				if (rx == 1){
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int buffer = x;
+				x = y;
+				y = buffer;
+			}
+		}
+		return key;
+	}
+}
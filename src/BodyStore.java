@@ -0,0 +1,463 @@
+/**
+ * This class stores the state of every body in a simulation as
+ * parallel primitive arrays rather than as individual body
+ * objects, so that the force engines can sweep over large
+ * numbers of bodies without chasing references.
+ *
+ * How the numbers are held is left to subclasses, so that a
+ * simulation can trade precision for memory: a double store keeps
+ * every quantity in double precision, while a float store halves
+ * the memory each body takes up.  Every quantity is handed in and
+ * out as a double either way, and the force engines add up their
+ * sums in double precision whatever the store.
+ *
+ * Positions are in screen coordinates, and so unlike the
+ * velocity vector of a body object, a positive y velocity or
+ * acceleration points down the screen.
+ *
+ * The index of a body can change whenever the store is
+ * rearranged, so every body is also given an id when it is added
+ * which never changes, and which anything outside of the engines
+ * should use to keep track of a body.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public abstract class BodyStore {
+
+	protected static final int DEFAULT_CAPACITY = 32;
+
+	protected int size;
+	private int nextId;
+
+	// Bumped every time bodies are added, removed or moved around
+	private long layoutVersion;
+
+	// Lookup from id to index, rebuilt when the layout changes
+	private int[] indexOfId;
+	private long indexOfIdVersion;
+
+	// Body state held the same way whatever the precision
+	private int[] radius;
+	private int[] id;
+
+	/**
+	 * Constructor: an empty store with a custom capacity.
+	 *
+	 * @param the number of bodies to make room for
+	 */
+	protected BodyStore(int capacity){
+		capacity = Math.max(capacity, 1);
+		radius = new int[capacity];
+		id = new int[capacity];
+		indexOfId = new int[0];
+		indexOfIdVersion = -1;
+	}
+
+	/** Return the number of bodies.*/
+	public int size(){
+		return size;
+	}
+
+	/** Return the number of bodies there is room for.*/
+	public int getCapacity(){
+		return id.length;
+	}
+
+	/** Return the layout version, which changes with the order.*/
+	public long getLayoutVersion(){
+		return layoutVersion;
+	}
+
+	/** Return the id of a body.*/
+	public int getId(int i){
+		return id[i];
+	}
+
+	/**
+	 * Return the current index of the body with the given id,
+	 * or -1 if there is no such body.
+	 *
+	 * @param the id of the body
+	 * @return the index of the body
+	 */
+	public int indexOf(int bodyId){
+		if (indexOfIdVersion != layoutVersion){
+			if (indexOfId.length < nextId){
+				indexOfId = new int[nextId];
+			}
+			Arrays.fill(indexOfId, 0, nextId, -1);
+			IntStream.range(0, size).parallel().forEach(
+					i -> indexOfId[id[i]] = i);
+			indexOfIdVersion = layoutVersion;
+		}
+		if (bodyId < 0 || bodyId >= nextId){
+			return -1;
+		}
+		return indexOfId[bodyId];
+	}
+
+	/** Return the x coordinate of a body.*/
+	public abstract double getX(int i);
+
+	/** Return the y coordinate of a body.*/
+	public abstract double getY(int i);
+
+	/** Return the x velocity of a body.*/
+	public abstract double getVX(int i);
+
+	/** Return the y velocity of a body.*/
+	public abstract double getVY(int i);
+
+	/** Return the x acceleration of a body.*/
+	public abstract double getAX(int i);
+
+	/** Return the y acceleration of a body.*/
+	public abstract double getAY(int i);
+
+	/**
+	 * Return the gravitational potential at a body, as worked out
+	 * by the force engine along with its acceleration.
+	 */
+	public abstract double getPotential(int i);
+
+	/** Return the mass of a body.*/
+	public abstract double getMass(int i);
+
+	/** Return the radius of a body.*/
+	public int getRadius(int i){
+		return radius[i];
+	}
+
+	/**
+	 * Change the position of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x coordinate
+	 * @param the new y coordinate
+	 */
+	public abstract void setPosition(int i, double x, double y);
+
+	/**
+	 * Change the velocity of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x velocity
+	 * @param the new y velocity
+	 */
+	public abstract void setVelocity(int i, double vx, double vy);
+
+	/**
+	 * Change the acceleration of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x acceleration
+	 * @param the new y acceleration
+	 */
+	public abstract void setAcceleration(int i, double ax, double ay);
+
+	/**
+	 * Change the gravitational potential at a body.
+	 *
+	 * @param the index of the body
+	 * @param the new potential
+	 */
+	public abstract void setPotential(int i, double potential);
+
+	/**
+	 * Change the mass and radius of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new mass
+	 * @param the new radius
+	 */
+	public void setMass(int i, double mass, int radius){
+		setMass(i, mass);
+		this.radius[i] = radius;
+	}
+
+	/**
+	 * Change the mass of a body, leaving its radius alone.
+	 *
+	 * @param the index of the body
+	 * @param the new mass
+	 */
+	protected abstract void setMass(int i, double mass);
+
+	/**
+	 * Add a body whose mass follows from its radius the same way
+	 * it does for a body object.
+	 *
+	 * @param the x coordinate
+	 * @param the y coordinate
+	 * @param the x velocity
+	 * @param the y velocity
+	 * @param the radius
+	 * @return the index of the new body
+	 */
+	public int add(double x, double y, double vx, double vy,
+			int radius){
+		return add(x, y, vx, vy, Math.pow((double)radius, 2),
+				radius);
+	}
+
+	/**
+	 * Add a body with a custom mass.
+	 *
+	 * @param the x coordinate
+	 * @param the y coordinate
+	 * @param the x velocity
+	 * @param the y velocity
+	 * @param the mass
+	 * @param the radius
+	 * @return the index of the new body
+	 */
+	public int add(double x, double y, double vx, double vy,
+			double mass, int radius){
+		int i = addBodies(1);
+		setPosition(i, x, y);
+		setVelocity(i, vx, vy);
+		setMass(i, mass, radius);
+		return i;
+	}
+
+	/**
+	 * Add a number of bodies at once, all of them at rest at the
+	 * origin and without mass, so that their state can be filled
+	 * in afterwards, in parallel if need be.
+	 *
+	 * @param the number of bodies to add
+	 * @return the index of the first new body
+	 */
+	public int addBodies(int count){
+		ensureCapacity(size + count);
+		int first = size;
+		int to = size + count;
+		clearState(first, to);
+		Arrays.fill(radius, first, to, 0);
+		for (int i = first; i < to; i++){
+			id[i] = nextId++;
+		}
+		size = to;
+		layoutVersion++;
+		return first;
+	}
+
+	/**
+	 * Add a copy of a body object, flipping its velocity into
+	 * screen coordinates.
+	 *
+	 * @param the body to copy
+	 * @return the index of the new body
+	 */
+	public int add(Body body){
+		return add(body.getPosition().x, body.getPosition().y,
+				body.getVelocity().getXComponent(),
+				body.getVelocity().getYComponent() * -1,
+				body.getMass(), body.getRadius());
+	}
+
+	/** Remove every body.*/
+	public void clear(){
+		size = 0;
+		nextId = 0;
+		layoutVersion++;
+	}
+
+	/**
+	 * Grow the arrays so that they can hold at least the given
+	 * number of bodies.
+	 *
+	 * @param the number of bodies to make room for
+	 */
+	public void ensureCapacity(int capacity){
+		if (capacity <= id.length){
+			return;
+		}
+		int length = Math.max(capacity, id.length * 2);
+		growState(length);
+		radius = Arrays.copyOf(radius, length);
+		id = Arrays.copyOf(id, length);
+	}
+
+	/**
+	 * Rearrange the bodies so that the body at index order[i]
+	 * moves to index i.  The arrays are gathered in parallel
+	 * into fresh copies.
+	 *
+	 * @param the new order of the bodies
+	 */
+	public void permute(int[] order){
+		gatherState(order);
+		radius = gather(radius, order);
+		id = gather(id, order);
+		layoutVersion++;
+	}
+
+	/**
+	 * Rearrange a range of bodies so that the body at index
+	 * order[k] moves to index from + k.  Every index in the order
+	 * must fall inside the range being rearranged.
+	 *
+	 * @param the new order of the bodies in the range
+	 * @param the index of the first body in the range
+	 */
+	public void permute(int[] order, int from){
+		int n = order.length;
+		gatherState(order, from);
+		int[] intBuffer = new int[n];
+		for (int[] array : new int[][]{radius, id}){
+			for (int k = 0; k < n; k++){
+				intBuffer[k] = array[order[k]];
+			}
+			System.arraycopy(intBuffer, 0, array, from, n);
+		}
+		layoutVersion++;
+	}
+
+	/**
+	 * Set every quantity of a range of bodies to zero.
+	 *
+	 * @param the index of the first body
+	 * @param the index after the last body
+	 */
+	protected abstract void clearState(int from, int to);
+
+	/**
+	 * Grow the storage of every quantity to a new length, keeping
+	 * what is already there.
+	 *
+	 * @param the new length
+	 */
+	protected abstract void growState(int length);
+
+	/**
+	 * Rearrange every quantity so that the body at index order[i]
+	 * moves to index i.
+	 *
+	 * @param the new order of the bodies
+	 */
+	protected abstract void gatherState(int[] order);
+
+	/**
+	 * Rearrange every quantity of a range of bodies so that the
+	 * body at index order[k] moves to index from + k.
+	 *
+	 * @param the new order of the bodies in the range
+	 * @param the index of the first body in the range
+	 */
+	protected abstract void gatherState(int[] order, int from);
+
+	/**
+	 * Return a copy of an array whose first size elements are
+	 * taken from the source in the given order.
+	 *
+	 * @param the source array
+	 * @param the order to gather the elements in
+	 * @return the gathered array
+	 */
+	protected double[] gather(double[] source, int[] order){
+		double[] buffer = new double[source.length];
+		IntStream.range(0, size).parallel().forEach(
+				i -> buffer[i] = source[order[i]]);
+		return buffer;
+	}
+
+	/**
+	 * Return a copy of an array whose first size elements are
+	 * taken from the source in the given order.
+	 *
+	 * @param the source array
+	 * @param the order to gather the elements in
+	 * @return the gathered array
+	 */
+	protected float[] gather(float[] source, int[] order){
+		float[] buffer = new float[source.length];
+		IntStream.range(0, size).parallel().forEach(
+				i -> buffer[i] = source[order[i]]);
+		return buffer;
+	}
+
+	/**
+	 * Return a copy of an array whose first size elements are
+	 * taken from the source in the given order.
+	 *
+	 * @param the source array
+	 * @param the order to gather the elements in
+	 * @return the gathered array
+	 */
+	protected int[] gather(int[] source, int[] order){
+		int[] buffer = new int[source.length];
+		IntStream.range(0, size).parallel().forEach(
+				i -> buffer[i] = source[order[i]]);
+		return buffer;
+	}
+
+	/**
+	 * Bring anything holding the bodies outside of the heap up to
+	 * date.  Stores on the heap have nothing to do.
+	 */
+	public void snapshot(){
+	}
+
+	/**
+	 * Return a new empty store of a given kind: double, float,
+	 * direct for direct memory outside of the heap, or mapped:
+	 * followed by the name of a file to map.
+	 *
+	 * @param the kind of store
+	 * @param the number of bodies to make room for
+	 * @return the store
+	 * @throws IllegalArgumentException if the kind is unknown
+	 */
+	public static BodyStore create(String kind, int capacity){
+		if (kind.equals("double")){
+			return new DoubleBodyStore(capacity);
+		}
+		if (kind.equals("float")){
+			return new FloatBodyStore(capacity);
+		}
+		if (kind.equals("direct")){
+			return new OffHeapBodyStore(capacity);
+		}
+		if (kind.startsWith("mapped:")){
+			return new OffHeapBodyStore(new File(kind.substring(
+					"mapped:".length())), capacity);
+		}
+		throw new IllegalArgumentException("Unknown store: " + kind);
+	}
+
+	/**
+	 * Return the box bounding every body as an array holding the
+	 * smallest x, smallest y, largest x and largest y in that
+	 * order.
+	 */
+	public double[] getBounds(){
+		return IntStream.range(0, size).parallel().collect(
+				() -> new double[]{Double.POSITIVE_INFINITY,
+						Double.POSITIVE_INFINITY,
+						Double.NEGATIVE_INFINITY,
+						Double.NEGATIVE_INFINITY},
+				(b, i) -> {
+					double x = getX(i);
+					double y = getY(i);
+					b[0] = Math.min(b[0], x);
+					b[1] = Math.min(b[1], y);
+					b[2] = Math.max(b[2], x);
+					b[3] = Math.max(b[3], y);
+				},
+				(b, c) -> {
+					b[0] = Math.min(b[0], c[0]);
+					b[1] = Math.min(b[1], c[1]);
+					b[2] = Math.max(b[2], c[2]);
+					b[3] = Math.max(b[3], c[3]);
+				});
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * This class is used to hold the view of the simulation-- which
+ * point of the world sits at the centre of the screen, and how
+ * many pixels each unit of the world takes up.  The camera can be
+ * panned, zoomed about any point on the screen, and set to follow
+ * the centre of mass of the bodies.
+ *
+ * The transform from the world to the screen is worked out once
+ * whenever the camera changes, so drawing a frame only has to
+ * scale and shift the coordinates of each body.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class Camera {
+
+	private final double MIN_ZOOM = 1e-6;
+	private final double MAX_ZOOM = 1e6;
+
+	// World point at the centre of the screen
+	private double centreX;
+	private double centreY;
+	private double zoom;
+
+	// Size of the screen in pixels
+	private int width;
+	private int height;
+
+	private boolean isFollowing;
+
+	// Cached transform: screen = world * zoom + offset
+	private double offsetX;
+	private double offsetY;
+	private AffineTransform transform;
+
+	/**
+	 * Constructor: a camera showing the world one unit to a pixel,
+	 * with the origin of the world at the top-left of the screen.
+	 *
+	 * @param the width of the screen
+	 * @param the height of the screen
+	 */
+	public Camera(int width, int height){
+		this.width = width;
+		this.height = height;
+		reset();
+	}
+
+	/** Return the world x coordinate at the centre of the screen.*/
+	public synchronized double getCentreX(){
+		return centreX;
+	}
+
+	/** Return the world y coordinate at the centre of the screen.*/
+	public synchronized double getCentreY(){
+		return centreY;
+	}
+
+	/** Return the number of pixels to a unit of the world.*/
+	public synchronized double getZoom(){
+		return zoom;
+	}
+
+	/** Return the x shift of the cached transform.*/
+	public synchronized double getOffsetX(){
+		return offsetX;
+	}
+
+	/** Return the y shift of the cached transform.*/
+	public synchronized double getOffsetY(){
+		return offsetY;
+	}
+
+	/** Return the cached transform from the world to the screen.*/
+	public synchronized AffineTransform getTransform(){
+		return transform;
+	}
+
+	/** Return the part of the world that is on the screen.*/
+	public synchronized Rectangle2D getView(){
+		return new Rectangle2D.Double(-offsetX / zoom, -offsetY / zoom,
+				width / zoom, height / zoom);
+	}
+
+	/** Return whether the camera follows the centre of mass.*/
+	public synchronized boolean isFollowing(){
+		return isFollowing;
+	}
+
+	/**
+	 * Start or stop following the centre of mass.
+	 *
+	 * @param whether to follow the centre of mass
+	 */
+	public synchronized void setFollowing(boolean isFollowing){
+		this.isFollowing = isFollowing;
+	}
+
+	/**
+	 * Go back to one unit to a pixel with the origin of the world
+	 * at the top-left of the screen, and stop following.
+	 */
+	public synchronized void reset(){
+		centreX = width / 2.0;
+		centreY = height / 2.0;
+		zoom = 1;
+		isFollowing = false;
+		updateTransform();
+	}
+
+	/**
+	 * Change the size of the screen, keeping the same world point
+	 * at its centre.
+	 *
+	 * @param the new width of the screen
+	 * @param the new height of the screen
+	 */
+	public synchronized void setViewSize(int width, int height){
+		if (width == this.width && height == this.height){
+			return;
+		}
+		this.width = width;
+		this.height = height;
+		updateTransform();
+	}
+
+	/**
+	 * Move the view by a number of pixels, which stops the
+	 * camera from following the centre of mass.
+	 *
+	 * @param the number of pixels to move right
+	 * @param the number of pixels to move down
+	 */
+	public synchronized void pan(double dx, double dy){
+		centreX -= dx / zoom;
+		centreY -= dy / zoom;
+		isFollowing = false;
+		updateTransform();
+	}
+
+	/**
+	 * Zoom in or out about a point on the screen, so that the
+	 * world point under it stays put.
+	 *
+	 * @param the factor to multiply the zoom by
+	 * @param the x coordinate of the point on the screen
+	 * @param the y coordinate of the point on the screen
+	 */
+	public synchronized void zoom(double factor, double screenX,
+			double screenY){
+		double worldX = toWorldX(screenX);
+		double worldY = toWorldY(screenY);
+		zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+		// Move the centre so the world point is back under the cursor
+		centreX = worldX - (screenX - width / 2.0) / zoom;
+		centreY = worldY - (screenY - height / 2.0) / zoom;
+		updateTransform();
+	}
+
+	/**
+	 * Centre the view on the centre of mass of the bodies in a
+	 * store, if the camera is following.
+	 *
+	 * @param the store holding the bodies
+	 */
+	public void follow(BodyStore store){
+		if (!isFollowing() || store.size() == 0){
+			return;
+		}
+		double[] sums = IntStream.range(0, store.size()).parallel()
+				.collect(() -> new double[3],
+				(s, i) -> {
+					double mass = store.getMass(i);
+					s[0] += mass * store.getX(i);
+					s[1] += mass * store.getY(i);
+					s[2] += mass;
+				},
+				(s, t) -> {
+					s[0] += t[0];
+					s[1] += t[1];
+					s[2] += t[2];
+				});
+		centreOn(sums[0], sums[1], sums[2]);
+	}
+
+	/**
+	 * Centre the view on the centre of mass of a list of bodies,
+	 * if the camera is following.
+	 *
+	 * @param the list of bodies
+	 */
+	public void follow(List<Body> bodies){
+		if (!isFollowing() || bodies.isEmpty()){
+			return;
+		}
+		double sumX = 0;
+		double sumY = 0;
+		double sumMass = 0;
+		for (Body body : bodies){
+			sumX += body.getMass() * body.getPosition().x;
+			sumY += body.getMass() * body.getPosition().y;
+			sumMass += body.getMass();
+		}
+		centreOn(sumX, sumY, sumMass);
+	}
+
+	/**
+	 * Centre the view on a centre of mass given by its sums.
+	 *
+	 * @param the sum of the mass times x of every body
+	 * @param the sum of the mass times y of every body
+	 * @param the sum of the mass of every body
+	 */
+	private synchronized void centreOn(double sumX, double sumY,
+			double sumMass){
+		if (sumMass <= 0 || !isFollowing){
+			return;
+		}
+		centreX = sumX / sumMass;
+		centreY = sumY / sumMass;
+		updateTransform();
+	}
+
+	/** Return the screen x coordinate of a world x coordinate.*/
+	public synchronized double toScreenX(double x){
+		return x * zoom + offsetX;
+	}
+
+	/** Return the screen y coordinate of a world y coordinate.*/
+	public synchronized double toScreenY(double y){
+		return y * zoom + offsetY;
+	}
+
+	/** Return the world x coordinate of a screen x coordinate.*/
+	public synchronized double toWorldX(double screenX){
+		return (screenX - offsetX) / zoom;
+	}
+
+	/** Return the world y coordinate of a screen y coordinate.*/
+	public synchronized double toWorldY(double screenY){
+		return (screenY - offsetY) / zoom;
+	}
+
+	/**
+	 * Work out the screen coordinates of every body in a store in
+	 * one parallel pass, using the transform as it is at the
+	 * start.
+	 *
+	 * @param the store holding the bodies
+	 * @param the array to put the screen x coordinates into
+	 * @param the array to put the screen y coordinates into
+	 */
+	public void project(BodyStore store, float[] screenX,
+			float[] screenY){
+		double scale, shiftX, shiftY;
+		synchronized (this){
+			scale = zoom;
+			shiftX = offsetX;
+			shiftY = offsetY;
+		}
+		IntStream.range(0, store.size()).parallel().forEach(i -> {
+			screenX[i] = (float)(store.getX(i) * scale + shiftX);
+			screenY[i] = (float)(store.getY(i) * scale + shiftY);
+		});
+	}
+
+	/** Work out the cached transform again after a change.*/
+	private void updateTransform(){
+		offsetX = width / 2.0 - centreX * zoom;
+		offsetY = height / 2.0 - centreY * zoom;
+		transform = new AffineTransform(zoom, 0, 0, zoom, offsetX,
+				offsetY);
+	}
+}
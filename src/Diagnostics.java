@@ -0,0 +1,239 @@
+/**
+ * This class keeps track of the quantities that a correct
+ * simulation conserves-- energy, linear momentum, and angular
+ * momentum-- so that a faster engine or a larger time step can be
+ * checked against them.
+ *
+ * The potential energy is not summed over every pair of bodies
+ * again, but is taken from the potential the force engine leaves
+ * at every body, so each measurement only costs a single pass
+ * over the bodies.  The first measurement is kept as the
+ * reference that later ones drift from.
+ *
+ * The sums are gathered over fixed blocks of bodies, each summed
+ * in order into a slot of its own, and the slots are then added
+ * up in order, so a measurement comes out the same to the last
+ * bit however many threads take part.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class Diagnostics {
+
+	// Indices of the sums gathered in a single pass
+	private static final int KINETIC = 0;
+	private static final int POTENTIAL = 1;
+	private static final int MOMENTUM_X = 2;
+	private static final int MOMENTUM_Y = 3;
+	private static final int ANGULAR = 4;
+	private static final int MOMENTUM_SCALE = 5;
+	private static final int ANGULAR_SCALE = 6;
+	private static final int SUMS = 7;
+
+	// Bodies summed into a single slot
+	private static final int BLOCK_SIZE = 1024;
+
+	private int interval;
+	private PrintStream log;
+
+	private long lastStep;
+	private boolean hasReference;
+
+	// Latest and reference sums
+	private double[] current;
+	private double[] reference;
+
+	// Sums of every block, kept between measurements
+	private double[][] partials;
+
+	/**
+	 * Constructor: diagnostics measured once every so many steps
+	 * and written to a custom stream.
+	 *
+	 * @param the number of steps in between measurements
+	 * @param the stream to write every measurement to, or null
+	 *   to keep quiet
+	 */
+	public Diagnostics(int interval, PrintStream log){
+		this.interval = Math.max(interval, 1);
+		this.log = log;
+		current = new double[SUMS];
+		reference = new double[SUMS];
+		partials = new double[0][];
+		hasReference = false;
+		lastStep = -1;
+	}
+
+	/** Return the number of steps in between measurements.*/
+	public int getInterval(){
+		return interval;
+	}
+
+	/** Return the step of the latest measurement.*/
+	public long getLastStep(){
+		return lastStep;
+	}
+
+	/** Return the latest kinetic energy.*/
+	public double getKineticEnergy(){
+		return current[KINETIC];
+	}
+
+	/** Return the latest potential energy.*/
+	public double getPotentialEnergy(){
+		return current[POTENTIAL];
+	}
+
+	/** Return the latest total energy.*/
+	public double getEnergy(){
+		return current[KINETIC] + current[POTENTIAL];
+	}
+
+	/** Return the latest x component of the linear momentum.*/
+	public double getMomentumX(){
+		return current[MOMENTUM_X];
+	}
+
+	/** Return the latest y component of the linear momentum.*/
+	public double getMomentumY(){
+		return current[MOMENTUM_Y];
+	}
+
+	/** Return the latest angular momentum about the origin.*/
+	public double getAngularMomentum(){
+		return current[ANGULAR];
+	}
+
+	/**
+	 * Return how far the energy has drifted from the reference,
+	 * relative to the reference energy.
+	 */
+	public double getEnergyDrift(){
+		double energy = reference[KINETIC] + reference[POTENTIAL];
+		return relative(getEnergy() - energy, energy);
+	}
+
+	/**
+	 * Return how far the linear momentum has drifted from the
+	 * reference, relative to the sum of the size of the momentum
+	 * of every body, since the total is often close to zero.
+	 */
+	public double getMomentumDrift(){
+		double dx = current[MOMENTUM_X] - reference[MOMENTUM_X];
+		double dy = current[MOMENTUM_Y] - reference[MOMENTUM_Y];
+		return relative(Math.sqrt(dx * dx + dy * dy),
+				reference[MOMENTUM_SCALE]);
+	}
+
+	/**
+	 * Return how far the angular momentum has drifted from the
+	 * reference, relative to the sum of the size of the angular
+	 * momentum of every body.
+	 */
+	public double getAngularMomentumDrift(){
+		return relative(current[ANGULAR] - reference[ANGULAR],
+				reference[ANGULAR_SCALE]);
+	}
+
+	/**
+	 * Return the size of a difference relative to a scale, or
+	 * zero when there is nothing to compare against.
+	 */
+	private double relative(double difference, double scale){
+		if (scale == 0){
+			return 0;
+		}
+		return Math.abs(difference / scale);
+	}
+
+	/** Forget the reference, so the next measurement becomes it.*/
+	public void resetReference(){
+		hasReference = false;
+	}
+
+	/** Return whether a step is one that gets measured.*/
+	public boolean isDue(long step){
+		return step % interval == 0;
+	}
+
+	/**
+	 * Measure the store, which must hold the accelerations and
+	 * potentials worked out for its current positions, and write
+	 * the result to the log.
+	 *
+	 * @param the store holding the bodies
+	 * @param the number of the step being measured
+	 */
+	public void measure(BodyStore store, long step){
+		int n = store.size();
+		int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		if (partials.length < blocks){
+			partials = new double[blocks][SUMS];
+		}
+		IntStream indices = IntStream.range(0, blocks);
+		if (n >= Simulation.PARALLEL_THRESHOLD){
+			indices = indices.parallel();
+		}
+		indices.forEach(b -> {
+			double[] partial = partials[b];
+			Arrays.fill(partial, 0);
+			int end = Math.min(n, (b + 1) * BLOCK_SIZE);
+			for (int i = b * BLOCK_SIZE; i < end; i++){
+				add(partial, store, i);
+			}
+		});
+		double[] sums = new double[SUMS];
+		for (int b = 0; b < blocks; b++){
+			for (int k = 0; k < SUMS; k++){
+				sums[k] += partials[b][k];
+			}
+		}
+		current = sums;
+		lastStep = step;
+		if (!hasReference){
+			reference = sums.clone();
+			hasReference = true;
+		}
+		if (log != null){
+			log.printf("step %d: energy %.6e (drift %.3e), "
+					+ "momentum (%.6e, %.6e) (drift %.3e), "
+					+ "angular momentum %.6e (drift %.3e)%n",
+					step, getEnergy(), getEnergyDrift(),
+					getMomentumX(), getMomentumY(),
+					getMomentumDrift(), getAngularMomentum(),
+					getAngularMomentumDrift());
+		}
+	}
+
+	/**
+	 * Add the share of a single body to the sums.  The potential
+	 * energy of every pair is shared between its two bodies,
+	 * hence the half.
+	 *
+	 * @param the sums
+	 * @param the store holding the bodies
+	 * @param the index of the body
+	 */
+	private void add(double[] sums, BodyStore store, int i){
+		double mass = store.getMass(i);
+		double x = store.getX(i);
+		double y = store.getY(i);
+		double vx = store.getVX(i);
+		double vy = store.getVY(i);
+		double angular = mass * (x * vy - y * vx);
+		sums[KINETIC] += 0.5 * mass * (vx * vx + vy * vy);
+		sums[POTENTIAL] += 0.5 * mass * store.getPotential(i);
+		sums[MOMENTUM_X] += mass * vx;
+		sums[MOMENTUM_Y] += mass * vy;
+		sums[ANGULAR] += angular;
+		sums[MOMENTUM_SCALE] += mass * Math.sqrt(vx * vx + vy * vy);
+		sums[ANGULAR_SCALE] += Math.abs(angular);
+	}
+}
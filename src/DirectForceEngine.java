@@ -0,0 +1,51 @@
+/**
+ * This class works out the acceleration of every body by
+ * summing the pull of every other body directly.  Its cost grows
+ * with the square of the number of bodies, but it is exact, and
+ * so it is the engine the others are measured against.
+ * 
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+public class DirectForceEngine implements ForceEngine{
+	
+	/**
+	 * Sum the pull of every other body on each body, with the
+	 * bodies split between threads when there are enough of them.
+	 * 
+	 * @param the store holding the bodies
+	 */
+	@Override
+	public void computeAccelerations(BodyStore store){
+		int n = store.size();
+		Simulation.indices(n).forEach(i -> {
+			double x = store.getX(i);
+			double y = store.getY(i);
+			int radius = store.getRadius(i);
+			double accelerationX = 0;
+			double accelerationY = 0;
+			double potential = 0;
+			for (int j = 0; j < n; j++){
+				double dx = store.getX(j) - x;
+				double dy = store.getY(j) - y;
+				double distance = Math.sqrt(dx * dx + dy * dy);
+				// Skip this body and any body it has collided with
+				if (j == i || store.getRadius(j)/2 + radius/2 
+						>= distance){
+					continue;
+				}
+				double pull = Simulator.GRAVITATIONAL_CONSTANT
+						* store.getMass(j) / distance;
+				double magnitude = pull / (distance * distance);
+				accelerationX += magnitude * dx;
+				accelerationY += magnitude * dy;
+				potential -= pull;
+			}
+			store.setAcceleration(i, accelerationX, accelerationY);
+			store.setPotential(i, potential);
+		});
+	}
+}
@@ -0,0 +1,566 @@
+/**
+ * This class runs a simulation split across several domain
+ * workers, each its own process on this machine or another, so
+ * that no single heap has to hold every body.
+ *
+ * The plane is split by orthogonal recursive bisection: the
+ * workers are split into two groups, the plane is cut across its
+ * longer side so that each group gets a share of the work in
+ * proportion to its size, and each half is split again the same
+ * way until every worker has a box of its own.  Every worker
+ * generates or loads its own share of the bodies of a scenario,
+ * and the final state is written straight from the workers into
+ * the file, so the coordinator never holds the bodies itself,
+ * only a sample of positions from every worker, each weighted by
+ * the time its worker spent per body since the last balance.
+ * Domains that were slow are then made smaller, so the cuts
+ * follow the load rather than just the number of bodies.
+ *
+ * Workers exchange the bodies that move between boxes and the
+ * ghosts of their locally essential trees between themselves, as
+ * described in DomainWorker, so the coordinator only ever sends
+ * and receives a handful of bytes a step.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class DomainCoordinator implements Closeable {
+
+	// Most positions every worker sends when balancing
+	private final int SAMPLES_PER_WORKER = 4096;
+
+	// Bodies sent to a worker in a single message
+	private final int CHUNK_SIZE = 1 << 16;
+
+	// Bytes of a single body in the format of Simulation.writeState
+	private final int STATE_SIZE = 4 * 8;
+
+	private Socket[] sockets;
+	private DataInputStream[] ins;
+	private DataOutputStream[] outs;
+
+	// Workers started by the coordinator, if any
+	private ArrayList<Process> processes;
+
+	private double theta;
+	private long steps;
+
+	// Box of every worker, and the cost of its last step
+	private double[][] boxes;
+	private long[] costs;
+	private int[] counts;
+
+	/**
+	 * Constructor: a coordinator of workers that are already
+	 * listening.
+	 *
+	 * @param the host of every worker
+	 * @param the port of every worker
+	 * @throws IOException if a worker cannot be reached
+	 */
+	public DomainCoordinator(String[] hosts, int[] ports)
+			throws IOException{
+		processes = new ArrayList<>();
+		connect(hosts, ports);
+	}
+
+	/**
+	 * Constructor: a coordinator of a custom number of workers,
+	 * each started as a process of its own on this machine.
+	 *
+	 * @param the number of workers
+	 * @throws IOException if a worker cannot be started
+	 */
+	public DomainCoordinator(int workers) throws IOException{
+		processes = new ArrayList<>();
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		String[] hosts = new String[workers];
+		int[] ports = new int[workers];
+		for (int r = 0; r < workers; r++){
+			Process process = new ProcessBuilder(java, "-cp",
+					System.getProperty("java.class.path"),
+					DomainWorker.class.getName())
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			processes.add(process);
+			// The worker prints the port it listens on first
+			String line = new BufferedReader(new InputStreamReader(
+					process.getInputStream())).readLine();
+			if (line == null || !line.startsWith("port ")){
+				close();
+				throw new IOException("Worker " + r + " did not start");
+			}
+			hosts[r] = "localhost";
+			ports[r] = Integer.parseInt(line.substring(5).trim());
+		}
+		connect(hosts, ports);
+	}
+
+	/**
+	 * Connect to every worker and tell each of them where the
+	 * others are.
+	 *
+	 * @param the host of every worker
+	 * @param the port of every worker
+	 * @throws IOException if a worker cannot be reached
+	 */
+	private void connect(String[] hosts, int[] ports)
+			throws IOException{
+		int workers = hosts.length;
+		sockets = new Socket[workers];
+		ins = new DataInputStream[workers];
+		outs = new DataOutputStream[workers];
+		for (int r = 0; r < workers; r++){
+			sockets[r] = new Socket(hosts[r], ports[r]);
+			sockets[r].setTcpNoDelay(true);
+			ins[r] = new DataInputStream(new BufferedInputStream(
+					sockets[r].getInputStream()));
+			outs[r] = new DataOutputStream(new BufferedOutputStream(
+					sockets[r].getOutputStream()));
+		}
+		for (int r = 0; r < workers; r++){
+			outs[r].writeByte(DomainProtocol.PEERS);
+			outs[r].writeInt(r);
+			outs[r].writeInt(workers);
+			for (int k = 0; k < workers; k++){
+				outs[r].writeUTF(hosts[k]);
+				outs[r].writeInt(ports[k]);
+			}
+			outs[r].flush();
+		}
+		theta = TreeForceEngine.DEFAULT_THETA;
+		steps = 0;
+		boxes = new double[workers][];
+		costs = new long[workers];
+		counts = new int[workers];
+	}
+
+	/** Return the number of workers.*/
+	public int getWorkerCount(){
+		return sockets.length;
+	}
+
+	/** Return the number of steps taken so far.*/
+	public long getSteps(){
+		return steps;
+	}
+
+	/** Return the opening angle.*/
+	public double getTheta(){
+		return theta;
+	}
+
+	/** Return the nanoseconds every worker spent on the last step.*/
+	public long[] getCosts(){
+		return costs.clone();
+	}
+
+	/** Return the number of bodies of every worker.*/
+	public int[] getCounts(){
+		return counts.clone();
+	}
+
+	/**
+	 * Return how much longer the slowest worker took over the
+	 * last step than the average, 1 when perfectly balanced.
+	 */
+	public double getImbalance(){
+		long most = 0;
+		long total = 0;
+		for (long cost : costs){
+			most = Math.max(most, cost);
+			total += cost;
+		}
+		return total == 0 ? 1 : most * costs.length / (double)total;
+	}
+
+	/**
+	 * Change the opening angle used by every worker.
+	 *
+	 * @param the new opening angle
+	 */
+	public void setTheta(double theta){
+		this.theta = theta;
+	}
+
+	/**
+	 * Have every worker generate or load its own equal run of the
+	 * bodies of a scenario, with their indices in the whole
+	 * scenario as their ids, so that no single process holds every
+	 * body.  A scenario file has to be at the same path for every
+	 * worker.  Call balance afterwards to sort them into boxes.
+	 *
+	 * @param the name of a generator or the path of a file
+	 * @param the number of bodies to generate
+	 * @param the seed of the generator
+	 * @param the width of the screen to lay the bodies out on
+	 * @param the height of the screen to lay the bodies out on
+	 * @param the mass of all of the bodies together
+	 * @throws IOException if a worker cannot be reached
+	 */
+	public void load(String name, int count, long seed, double width,
+			double height, double totalMass) throws IOException{
+		for (DataOutputStream out : outs){
+			out.writeByte(DomainProtocol.SCENARIO);
+			out.writeLong(seed);
+			out.writeUTF(name);
+			out.writeInt(count);
+			out.writeDouble(width);
+			out.writeDouble(height);
+			out.writeDouble(totalMass);
+			out.flush();
+		}
+		for (int r = 0; r < ins.length; r++){
+			counts[r] = ins[r].readInt();
+		}
+	}
+
+	/**
+	 * Hand the bodies of a store out between the workers in equal
+	 * runs, with their indices as their ids, for bodies that are
+	 * already held in this process.  Call balance afterwards to
+	 * sort them into boxes.
+	 *
+	 * @param the store holding the bodies
+	 * @throws IOException if a worker cannot be reached
+	 */
+	public void distribute(BodyStore store) throws IOException{
+		int n = store.size();
+		int workers = getWorkerCount();
+		for (int r = 0; r < workers; r++){
+			int end = (int)((long)(r + 1) * n / workers);
+			for (int from = (int)((long)r * n / workers); from < end;
+					from += CHUNK_SIZE){
+				int to = Math.min(end, from + CHUNK_SIZE);
+				outs[r].writeByte(DomainProtocol.BODIES);
+				outs[r].writeInt(to - from);
+				for (int i = from; i < to; i++){
+					DomainProtocol.writeBody(outs[r], i, store, i);
+				}
+			}
+			outs[r].flush();
+			counts[r] = end - (int)((long)r * n / workers);
+		}
+	}
+
+	/**
+	 * Advance every body by one step.
+	 *
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 * @throws IOException if a worker cannot be reached
+	 */
+	public void step(double deltaTime) throws IOException{
+		for (DataOutputStream out : outs){
+			out.writeByte(DomainProtocol.STEP);
+			out.writeDouble(deltaTime);
+			out.writeDouble(theta);
+			out.flush();
+		}
+		for (int r = 0; r < ins.length; r++){
+			costs[r] = ins[r].readLong();
+			counts[r] = ins[r].readInt();
+		}
+		steps++;
+	}
+
+	/**
+	 * Cut the plane into a box for every worker from a weighted
+	 * sample of the bodies, and have the workers swap bodies until
+	 * every body is with the worker of its box.
+	 *
+	 * @throws IOException if a worker cannot be reached
+	 */
+	public void balance() throws IOException{
+		int workers = getWorkerCount();
+		for (DataOutputStream out : outs){
+			out.writeByte(DomainProtocol.BALANCE);
+			out.writeInt(SAMPLES_PER_WORKER);
+			out.flush();
+		}
+		double[][] xs = new double[workers][];
+		double[][] ys = new double[workers][];
+		double[] weights = new double[workers];
+		int total = 0;
+		for (int r = 0; r < workers; r++){
+			int n = ins[r].readInt();
+			long cost = ins[r].readLong();
+			int count = ins[r].readInt();
+			xs[r] = new double[count];
+			ys[r] = new double[count];
+			for (int k = 0; k < count; k++){
+				xs[r][k] = ins[r].readDouble();
+				ys[r][k] = ins[r].readDouble();
+			}
+			/*
+			 * Every sample stands for n / count bodies, each of
+			 * which cost cost / n, or just itself before any step
+			 * has been timed.
+			 */
+			weights[r] = count == 0 ? 0
+					: cost > 0 ? cost / (double)count : n / (double)count;
+			total += count;
+		}
+		double[] sampleX = new double[total];
+		double[] sampleY = new double[total];
+		double[] sampleWeight = new double[total];
+		int k = 0;
+		for (int r = 0; r < workers; r++){
+			for (int s = 0; s < xs[r].length; s++, k++){
+				sampleX[k] = xs[r][s];
+				sampleY[k] = ys[r][s];
+				sampleWeight[k] = weights[r];
+			}
+		}
+		Integer[] order = new Integer[total];
+		for (int s = 0; s < total; s++){
+			order[s] = s;
+		}
+		double infinity = Double.POSITIVE_INFINITY;
+		bisect(order, 0, total, new double[]{-infinity, -infinity,
+				infinity, infinity}, 0, workers, sampleX, sampleY,
+				sampleWeight);
+		for (DataOutputStream out : outs){
+			out.writeByte(DomainProtocol.DOMAINS);
+			for (double[] box : boxes){
+				DomainProtocol.writeBox(out, box);
+			}
+			out.flush();
+		}
+		for (int r = 0; r < workers; r++){
+			counts[r] = ins[r].readInt();
+		}
+	}
+
+	/**
+	 * Split a box between a range of workers by cutting it across
+	 * the longer side of its samples, at the point where the
+	 * weight on one side matches the share of the workers on that
+	 * side, and then split each half the same way.
+	 *
+	 * @param the indices of the samples, rearranged as it goes
+	 * @param the first sample in the box
+	 * @param the sample after the last in the box
+	 * @param the box
+	 * @param the first worker
+	 * @param the number of workers
+	 * @param the x coordinate of every sample
+	 * @param the y coordinate of every sample
+	 * @param the weight of every sample
+	 */
+	private void bisect(Integer[] order, int from, int to,
+			double[] box, int first, int workers, double[] sampleX,
+			double[] sampleY, double[] sampleWeight){
+		if (workers == 1){
+			boxes[first] = box;
+			return;
+		}
+		double x0 = Double.POSITIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+		double weight = 0;
+		for (int s = from; s < to; s++){
+			x0 = Math.min(x0, sampleX[order[s]]);
+			y0 = Math.min(y0, sampleY[order[s]]);
+			x1 = Math.max(x1, sampleX[order[s]]);
+			y1 = Math.max(y1, sampleY[order[s]]);
+			weight += sampleWeight[order[s]];
+		}
+		boolean isAlongX = x1 - x0 >= y1 - y0;
+		double[] coordinates = isAlongX ? sampleX : sampleY;
+		Arrays.sort(order, from, to, (a, b) -> Double.compare(
+				coordinates[a], coordinates[b]));
+		int left = workers / 2;
+		double target = weight * left / workers;
+		// Find the first sample past the share of the left half
+		int cut = from;
+		double sum = 0;
+		while (cut < to && sum + sampleWeight[order[cut]] <= target){
+			sum += sampleWeight[order[cut]];
+			cut++;
+		}
+		double at;
+		if (from == to){
+			at = isAlongX ? (box[0] + box[2]) / 2
+					: (box[1] + box[3]) / 2;
+			if (Double.isNaN(at) || Double.isInfinite(at)){
+				at = 0;
+			}
+		} else if (cut == from){
+			at = coordinates[order[from]];
+		} else if (cut == to){
+			at = Math.nextUp(coordinates[order[to - 1]]);
+		} else {
+			at = (coordinates[order[cut - 1]]
+					+ coordinates[order[cut]]) / 2;
+		}
+		double[] low = box.clone();
+		double[] high = box.clone();
+		low[isAlongX ? 2 : 3] = at;
+		high[isAlongX ? 0 : 1] = at;
+		bisect(order, from, cut, low, first, left, sampleX, sampleY,
+				sampleWeight);
+		bisect(order, cut, to, high, first + left, workers - left,
+				sampleX, sampleY, sampleWeight);
+	}
+
+	/**
+	 * Collect every body from the workers straight into a file in
+	 * the format of Simulation.writeState, writing each body at
+	 * the place of its id as it arrives, so that the bodies are
+	 * never all held at once.
+	 *
+	 * @param the file to write
+	 * @throws IOException if a worker cannot be reached or the
+	 *   file cannot be written
+	 */
+	public void gather(File file) throws IOException{
+		for (DataOutputStream out : outs){
+			out.writeByte(DomainProtocol.GATHER);
+			out.flush();
+		}
+		BodyStore scratch = new DoubleBodyStore(1);
+		ByteBuffer state = ByteBuffer.allocate(STATE_SIZE);
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)){
+			for (DataInputStream in : ins){
+				int count = in.readInt();
+				for (int k = 0; k < count; k++){
+					scratch.clear();
+					int id = DomainProtocol.readBody(in, scratch);
+					state.clear();
+					state.putDouble(scratch.getX(0));
+					state.putDouble(scratch.getY(0));
+					state.putDouble(scratch.getVX(0));
+					state.putDouble(scratch.getVY(0));
+					state.flip();
+					long position = (long)id * STATE_SIZE;
+					while (state.hasRemaining()){
+						position += channel.write(state, position);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tell every worker to stop, close every connection, and wait
+	 * for any worker started by the coordinator to end.
+	 *
+	 * @throws IOException if a connection cannot be closed
+	 */
+	@Override
+	public void close() throws IOException{
+		if (outs != null){
+			for (DataOutputStream out : outs){
+				try {
+					out.writeByte(DomainProtocol.STOP);
+					out.flush();
+				} catch (IOException e){
+					// The worker has gone already
+				}
+			}
+			for (Socket socket : sockets){
+				socket.close();
+			}
+		}
+		for (Process process : processes){
+			try {
+				process.waitFor();
+			} catch (InterruptedException e){
+				process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Run a scenario across several workers and write its final
+	 * state to a file in the format of Simulation.writeState,
+	 * with every worker generating or loading its own share of the
+	 * bodies.  The arguments are the name of a scenario or a file
+	 * to load, the number of bodies, the number of steps, the file
+	 * to write, the number of steps in between balances, and then
+	 * either the number of workers to start on this machine or the
+	 * host:port of every worker already listening.
+	 *
+	 * @param the arguments
+	 * @throws IOException if the scenario cannot be loaded, a
+	 *   worker cannot be reached or the state cannot be written
+	 */
+	public static void main(String[] args) throws IOException{
+		if (args.length < 6){
+			System.err.println("Usage: DomainCoordinator"
+					+ " <scenario|file> <bodies> <steps> <file>"
+					+ " <balance interval> <workers|host:port...>");
+			System.exit(1);
+		}
+		int count = Integer.parseInt(args[1]);
+		long steps = Long.parseLong(args[2]);
+		int interval = Math.max(1, Integer.parseInt(args[4]));
+		if (!new File(args[0]).isFile() && !Arrays.stream(
+				Scenario.NAMES).anyMatch(args[0]::equalsIgnoreCase)){
+			System.err.println("Unknown scenario: " + args[0]);
+			System.exit(1);
+		}
+		DomainCoordinator coordinator;
+		if (args[5].contains(":")){
+			String[] hosts = new String[args.length - 5];
+			int[] ports = new int[hosts.length];
+			for (int r = 0; r < hosts.length; r++){
+				String[] parts = args[5 + r].split(":");
+				hosts[r] = parts[0];
+				ports[r] = Integer.parseInt(parts[1]);
+			}
+			coordinator = new DomainCoordinator(hosts, ports);
+		} else {
+			coordinator = new DomainCoordinator(
+					Integer.parseInt(args[5]));
+		}
+		try {
+			long start = System.nanoTime();
+			coordinator.load(args[0], count, 42, 1200, 600, 1000);
+			coordinator.balance();
+			for (long step = 0; step < steps; step++){
+				if (step > 0 && step % interval == 0){
+					System.out.printf("step %d: bodies %s, "
+							+ "imbalance %.2f%n", step,
+							Arrays.toString(coordinator.getCounts()),
+							coordinator.getImbalance());
+					coordinator.balance();
+				}
+				coordinator.step(1);
+			}
+			System.out.printf("step %d: bodies %s, imbalance %.2f, "
+					+ "%.1f s%n", steps,
+					Arrays.toString(coordinator.getCounts()),
+					coordinator.getImbalance(),
+					(System.nanoTime() - start) / 1e9);
+			coordinator.gather(new File(args[3]));
+		} finally {
+			coordinator.close();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * This class holds the protocol spoken between the coordinator of
+ * a distributed simulation and its domain workers, and between
+ * the workers themselves, along with the logic for writing and
+ * reading the pieces its messages are made of.
+ *
+ * Every message from the coordinator is a byte giving its type
+ * followed by its contents, all in network byte order:
+ *
+ *   PEERS      the rank of the worker, the number of workers, and
+ *              the host as modified UTF-8 and port as an int of
+ *              every worker
+ *   BODIES     the number of bodies, then every body
+ *   SCENARIO   the seed as a long, the name of a generator or the
+ *              path of a scenario file as modified UTF-8, the
+ *              number of bodies as an int, and the width, height
+ *              and total mass as doubles
+ *   STEP       the time step and the opening angle as doubles
+ *   BALANCE    the most samples to send back as an int
+ *   DOMAINS    the box of every worker
+ *   GATHER     nothing
+ *   STOP       nothing
+ *
+ * A worker answers SCENARIO with its number of bodies, STEP with
+ * the nanoseconds it spent working and its number of bodies,
+ * BALANCE with its number of bodies, the
+ * nanoseconds spent since the last balance, the number of samples
+ * and the x and y of every sample, DOMAINS with its new number of
+ * bodies, and GATHER with the number of bodies and every body.
+ *
+ * A body is its id as an int, its x, y, x velocity, y velocity
+ * and mass as doubles, and its radius as an int.  A box is the
+ * smallest x, smallest y, largest x and largest y as doubles.
+ * Workers send each other boxes, bodies, and the ghosts of the
+ * locally essential tree: a count and then the x, y, mass and the
+ * xx, xy and yy parts of the quadrupole moment as doubles and the
+ * radius as an int of every ghost.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class DomainProtocol {
+
+	// Messages from the coordinator
+	public static final byte PEERS = 1;
+	public static final byte BODIES = 2;
+	public static final byte STEP = 3;
+	public static final byte BALANCE = 4;
+	public static final byte DOMAINS = 5;
+	public static final byte GATHER = 6;
+	public static final byte STOP = 7;
+	public static final byte SCENARIO = 8;
+
+	// Bytes of a single body and a single ghost
+	public static final int BODY_SIZE = 4 + 5 * 8 + 4;
+	public static final int GHOST_SIZE = 6 * 8 + 4;
+
+	/** Do not create instances of the protocol.*/
+	private DomainProtocol(){
+	}
+
+	/**
+	 * Write a body of a store.
+	 *
+	 * @param the stream to write to
+	 * @param the id of the body across every domain
+	 * @param the store holding the body
+	 * @param the index of the body
+	 * @throws IOException if the stream cannot be written
+	 */
+	public static void writeBody(DataOutputStream out, int id,
+			BodyStore store, int i) throws IOException{
+		out.writeInt(id);
+		out.writeDouble(store.getX(i));
+		out.writeDouble(store.getY(i));
+		out.writeDouble(store.getVX(i));
+		out.writeDouble(store.getVY(i));
+		out.writeDouble(store.getMass(i));
+		out.writeInt(store.getRadius(i));
+	}
+
+	/**
+	 * Read a body written by writeBody and add it to a store.
+	 *
+	 * @param the stream to read from
+	 * @param the store to add the body to
+	 * @return the id of the body across every domain
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static int readBody(DataInputStream in, BodyStore store)
+			throws IOException{
+		int id = in.readInt();
+		double x = in.readDouble();
+		double y = in.readDouble();
+		double vx = in.readDouble();
+		double vy = in.readDouble();
+		double mass = in.readDouble();
+		store.add(x, y, vx, vy, mass, in.readInt());
+		return id;
+	}
+
+	/**
+	 * Write a box.
+	 *
+	 * @param the stream to write to
+	 * @param the smallest x, smallest y, largest x and largest y
+	 * @throws IOException if the stream cannot be written
+	 */
+	public static void writeBox(DataOutputStream out, double[] box)
+			throws IOException{
+		for (int k = 0; k < 4; k++){
+			out.writeDouble(box[k]);
+		}
+	}
+
+	/**
+	 * Read a box written by writeBox.
+	 *
+	 * @param the stream to read from
+	 * @return the smallest x, smallest y, largest x and largest y
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static double[] readBox(DataInputStream in)
+			throws IOException{
+		double[] box = new double[4];
+		for (int k = 0; k < 4; k++){
+			box[k] = in.readDouble();
+		}
+		return box;
+	}
+
+	/**
+	 * Return the square of the distance from a point to the
+	 * nearest point of a box, which is zero inside the box.
+	 *
+	 * @param the x coordinate
+	 * @param the y coordinate
+	 * @param the smallest x, smallest y, largest x and largest y
+	 */
+	public static double distanceSquared(double x, double y,
+			double[] box){
+		double dx = Math.max(0, Math.max(box[0] - x, x - box[2]));
+		double dy = Math.max(0, Math.max(box[1] - y, y - box[3]));
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Return whether a point lies in a box, counting the smallest
+	 * edges as inside and the largest as outside, so that boxes
+	 * which share an edge never both hold a point.
+	 *
+	 * @param the x coordinate
+	 * @param the y coordinate
+	 * @param the smallest x, smallest y, largest x and largest y
+	 */
+	public static boolean contains(double[] box, double x, double y){
+		return x >= box[0] && x < box[2] && y >= box[1] && y < box[3];
+	}
+}
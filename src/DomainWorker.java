@@ -0,0 +1,623 @@
+/**
+ * This class holds a single domain of a distributed simulation:
+ * the bodies inside one box of the decomposition, in a process
+ * of its own, so that a run can hold more bodies than fit in the
+ * heap of a single machine.  Workers are driven by a domain
+ * coordinator and talk to each other directly over sockets, as
+ * laid out in DomainProtocol.
+ *
+ * At every step a worker sends the box bounding its bodies to
+ * every other worker, builds a tree over its own bodies, and for
+ * every other box sends back its locally essential tree: every
+ * node far enough from the whole box is sent as a single ghost at
+ * its centre of mass, with its quadrupole moment, and the bodies
+ * of every leaf that is not are sent as they are.  The ghosts of
+ * every other domain are then added to its own bodies, the tree
+ * force engine works out the accelerations of the lot, and only
+ * its own bodies are moved.  The engine only knows bodies, so
+ * every ghost is added as four bodies sharing its mass, placed
+ * in pairs along the axes of the ghost so that together they
+ * have the same centre of mass and quadrupole moment.
+ *
+ * Sending happens on a thread for every other worker while the
+ * worker reads, so two workers sending each other a lot at once
+ * never both wait for the other to read.  Only the time spent
+ * working, not waiting, counts towards the cost the coordinator
+ * balances the domains by.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DomainWorker {
+
+	private ServerSocket server;
+	private DataInputStream in;
+	private DataOutputStream out;
+
+	private int rank;
+	private Peer[] peers;
+
+	// Bodies of this domain, and their ids across every domain
+	// indexed by their ids in the store
+	private BodyStore store;
+	private int[] globalIds;
+
+	// Bodies of this domain followed by the ghosts of the others
+	private BodyStore work;
+	private TreeForceEngine engine;
+	private QuadTree tree;
+
+	// Nanoseconds spent working since the last balance
+	private long cost;
+
+	/**
+	 * Constructor: a worker listening on a custom port of every
+	 * address of the machine, for its coordinator first and then
+	 * for the workers ranked before it.
+	 *
+	 * @param the port to listen on, or 0 for any free port
+	 * @throws IOException if the port cannot be listened on
+	 */
+	public DomainWorker(int port) throws IOException{
+		server = new ServerSocket(port);
+		store = new DoubleBodyStore();
+		globalIds = new int[0];
+		work = new DoubleBodyStore();
+		engine = new TreeForceEngine();
+		tree = new QuadTree();
+		peers = new Peer[0];
+	}
+
+	/** Return the port listened on.*/
+	public int getPort(){
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Wait for the coordinator and carry out its messages until
+	 * it says to stop.
+	 *
+	 * @throws IOException if a connection fails
+	 */
+	public void run() throws IOException{
+		Socket socket = server.accept();
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(
+				socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(
+				socket.getOutputStream()));
+		try {
+			while (true){
+				byte type = in.readByte();
+				if (type == DomainProtocol.PEERS){
+					connect();
+				} else if (type == DomainProtocol.BODIES){
+					int count = in.readInt();
+					for (int k = 0; k < count; k++){
+						addBody(DomainProtocol.readBody(in, store));
+					}
+				} else if (type == DomainProtocol.SCENARIO){
+					load();
+				} else if (type == DomainProtocol.STEP){
+					step(in.readDouble(), in.readDouble());
+				} else if (type == DomainProtocol.BALANCE){
+					sample(in.readInt());
+				} else if (type == DomainProtocol.DOMAINS){
+					migrate();
+				} else if (type == DomainProtocol.GATHER){
+					out.writeInt(store.size());
+					for (int i = 0; i < store.size(); i++){
+						DomainProtocol.writeBody(out,
+								globalIds[store.getId(i)], store, i);
+					}
+				} else if (type == DomainProtocol.STOP){
+					break;
+				} else {
+					throw new IOException("Unknown message " + type);
+				}
+				out.flush();
+			}
+		} finally {
+			for (Peer peer : peers){
+				if (peer != null){
+					peer.close();
+				}
+			}
+			socket.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Read the address of every worker, connect to those ranked
+	 * after this one and wait for those ranked before it, so that
+	 * every pair of workers shares a single connection.
+	 *
+	 * @throws IOException if a connection fails
+	 */
+	private void connect() throws IOException{
+		rank = in.readInt();
+		int count = in.readInt();
+		String[] hosts = new String[count];
+		int[] ports = new int[count];
+		for (int r = 0; r < count; r++){
+			hosts[r] = in.readUTF();
+			ports[r] = in.readInt();
+		}
+		peers = new Peer[count];
+		for (int r = rank + 1; r < count; r++){
+			peers[r] = new Peer(new Socket(hosts[r], ports[r]));
+			peers[r].out.writeInt(rank);
+			peers[r].out.flush();
+		}
+		for (int k = 0; k < rank; k++){
+			Peer peer = new Peer(server.accept());
+			peers[peer.in.readInt()] = peer;
+		}
+	}
+
+	/**
+	 * Remember the id across every domain of the body just added
+	 * to the store.
+	 *
+	 * @param the id across every domain
+	 */
+	private void addBody(int globalId){
+		setGlobalId(store.getId(store.size() - 1), globalId);
+	}
+
+	/**
+	 * Remember the id across every domain of a body of the store.
+	 *
+	 * @param the id of the body in the store
+	 * @param the id across every domain
+	 */
+	private void setGlobalId(int id, int globalId){
+		if (globalIds.length <= id){
+			int[] grown = new int[Math.max(16, 2 * (id + 1))];
+			System.arraycopy(globalIds, 0, grown, 0,
+					globalIds.length);
+			globalIds = grown;
+		}
+		globalIds[id] = globalId;
+	}
+
+	/**
+	 * Generate or load this worker's share of a scenario: the run
+	 * of its bodies, in the order they are generated or listed in
+	 * the file, that falls to its rank when they are split evenly
+	 * between the workers.  The index of every body in the whole
+	 * scenario becomes its id across every domain, and the number
+	 * of bodies is sent back.
+	 *
+	 * @throws IOException if the file cannot be read or the
+	 *   connection fails
+	 */
+	private void load() throws IOException{
+		long seed = in.readLong();
+		String name = in.readUTF();
+		int count = in.readInt();
+		double width = in.readDouble();
+		double height = in.readDouble();
+		double totalMass = in.readDouble();
+		File file = new File(name);
+		int total = file.isFile() ? ScenarioFile.count(file) : count;
+		int workers = Math.max(1, peers.length);
+		int from = (int)((long)rank * total / workers);
+		// Generators may add a few bodies more than asked for
+		int to = rank == workers - 1 ? Integer.MAX_VALUE
+				: (int)((long)(rank + 1) * total / workers);
+		int before = store.size();
+		if (file.isFile()){
+			ScenarioFile.load(file, store, from, to);
+		} else {
+			Scenario scenario = new Scenario(seed);
+			scenario.setSlice(from, to);
+			scenario.generate(store, name, count, width, height,
+					totalMass);
+		}
+		for (int i = before; i < store.size(); i++){
+			setGlobalId(store.getId(i), from + i - before);
+		}
+		out.writeInt(store.size());
+	}
+
+	/**
+	 * Advance the bodies of this domain by one step, with the
+	 * ghosts of every other domain pulling on them, and report how
+	 * long the work took.
+	 *
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 * @param the opening angle of the trees
+	 * @throws IOException if a connection fails
+	 */
+	private void step(double deltaTime, double theta)
+			throws IOException{
+		long start = System.nanoTime();
+		int n = store.size();
+		double[] bounds = store.getBounds();
+		ArrayList<Future<?>> sends = new ArrayList<>();
+		for (Peer peer : peers){
+			if (peer != null){
+				sends.add(peer.send(box(bounds)));
+			}
+		}
+		long working = System.nanoTime() - start;
+		double[][] boxes = new double[peers.length][];
+		for (int r = 0; r < peers.length; r++){
+			if (peers[r] != null){
+				boxes[r] = DomainProtocol.readBox(peers[r].in);
+			}
+		}
+		start = System.nanoTime();
+		if (n > 0){
+			tree.build(store);
+		}
+		for (int r = 0; r < peers.length; r++){
+			if (peers[r] != null){
+				sends.add(peers[r].send(essentials(boxes[r], theta)));
+			}
+		}
+		// Own bodies first, so their ids in both stores agree
+		work.clear();
+		work.ensureCapacity(n);
+		for (int i = 0; i < n; i++){
+			work.add(store.getX(i), store.getY(i), 0, 0,
+					store.getMass(i), store.getRadius(i));
+		}
+		working += System.nanoTime() - start;
+		for (Peer peer : peers){
+			if (peer == null){
+				continue;
+			}
+			int count = peer.in.readInt();
+			for (int k = 0; k < count; k++){
+				double x = peer.in.readDouble();
+				double y = peer.in.readDouble();
+				double mass = peer.in.readDouble();
+				double xx = peer.in.readDouble();
+				double xy = peer.in.readDouble();
+				double yy = peer.in.readDouble();
+				addGhost(x, y, mass, xx, xy, yy, peer.in.readInt());
+			}
+		}
+		start = System.nanoTime();
+		engine.setTheta(theta);
+		engine.computeAccelerations(work);
+		// Look up the indices by id once, before threads share it
+		work.indexOf(0);
+		Simulation.indices(n).forEach(i -> {
+			int j = work.indexOf(i);
+			double ax = work.getAX(j);
+			double ay = work.getAY(j);
+			store.setAcceleration(i, ax, ay);
+			store.setPotential(i, work.getPotential(j));
+			double vx = store.getVX(i) + ax * deltaTime;
+			double vy = store.getVY(i) + ay * deltaTime;
+			store.setVelocity(i, vx, vy);
+			store.setPosition(i, store.getX(i) + vx * deltaTime,
+					store.getY(i) + vy * deltaTime);
+		});
+		working += System.nanoTime() - start;
+		finish(sends);
+		cost += working;
+		out.writeLong(working);
+		out.writeInt(n);
+	}
+
+	/**
+	 * Return the locally essential tree of this domain for a box
+	 * as a message of ghosts.  A node is sent as a single ghost
+	 * when it would be treated as a single mass from every point
+	 * of the box, and is opened otherwise.
+	 *
+	 * @param the box of the other domain
+	 * @param the opening angle
+	 * @throws IOException if the message cannot be written
+	 */
+	private byte[] essentials(double[] box, double theta)
+			throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream message = new DataOutputStream(bytes);
+		message.writeInt(0);
+		int count = 0;
+		if (store.size() > 0 && box[0] <= box[2]){
+			double thetaSquared = theta * theta;
+			int[] stack = new int[4 * (QuadTree.MAX_DEPTH + 1)];
+			int top = 0;
+			stack[top++] = tree.getRoot();
+			while (top > 0){
+				int node = stack[--top];
+				double extent = tree.getExtent(node);
+				if (extent * extent
+						< thetaSquared * DomainProtocol.distanceSquared(
+						tree.getComX(node), tree.getComY(node), box)){
+					writeGhost(message, tree.getComX(node),
+							tree.getComY(node), tree.getMass(node),
+							tree.getQuadXX(node), tree.getQuadXY(node),
+							tree.getQuadYY(node), 0);
+					count++;
+				} else if (tree.isLeaf(node)){
+					for (int i = tree.getStart(node);
+							i < tree.getEnd(node); i++){
+						writeGhost(message, store.getX(i), store.getY(i),
+								store.getMass(i), 0, 0, 0,
+								store.getRadius(i));
+						count++;
+					}
+				} else {
+					for (int k = tree.getChildCount(node) - 1; k >= 0;
+							k--){
+						stack[top++] = tree.getChild(node, k);
+					}
+				}
+			}
+		}
+		byte[] result = bytes.toByteArray();
+		result[0] = (byte)(count >>> 24);
+		result[1] = (byte)(count >>> 16);
+		result[2] = (byte)(count >>> 8);
+		result[3] = (byte)count;
+		return result;
+	}
+
+	/** Write a single ghost.*/
+	private void writeGhost(DataOutputStream message, double x,
+			double y, double mass, double xx, double xy, double yy,
+			int radius) throws IOException{
+		message.writeDouble(x);
+		message.writeDouble(y);
+		message.writeDouble(mass);
+		message.writeDouble(xx);
+		message.writeDouble(xy);
+		message.writeDouble(yy);
+		message.writeInt(radius);
+	}
+
+	/**
+	 * Add a ghost to the bodies the forces are worked out for.  A
+	 * ghost without a quadrupole moment, such as a body sent as it
+	 * is, is added as a single body.  Any other is added as four
+	 * bodies of a quarter of its mass, two on either side of its
+	 * centre of mass along each axis of its spread, at distances
+	 * giving them the spread of the ghost.
+	 *
+	 * @param the x coordinate of its centre of mass
+	 * @param the y coordinate of its centre of mass
+	 * @param its mass
+	 * @param the xx, xy and yy parts of its quadrupole moment
+	 * @param its radius
+	 */
+	private void addGhost(double x, double y, double mass, double xx,
+			double xy, double yy, int radius){
+		if (xx == 0 && xy == 0 && yy == 0){
+			work.add(x, y, 0, 0, mass, radius);
+			return;
+		}
+		// The spread, the sums of m dx dx, m dx dy and m dy dy
+		double spreadXX = (2 * xx + yy) / 3;
+		double spreadXY = xy / 3;
+		double spreadYY = (2 * yy + xx) / 3;
+		double half = (spreadXX + spreadYY) / 2;
+		double root = Math.hypot((spreadXX - spreadYY) / 2, spreadXY);
+		double angle = Math.atan2(2 * spreadXY, spreadXX - spreadYY) / 2;
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		// A pair of masses m/4 at a distance a spreads by m a^2 / 2
+		double major = Math.sqrt(Math.max(0, 2 * (half + root) / mass));
+		double minor = Math.sqrt(Math.max(0, 2 * (half - root) / mass));
+		double quarter = mass / 4;
+		work.add(x + major * cos, y + major * sin, 0, 0, quarter, 0);
+		work.add(x - major * cos, y - major * sin, 0, 0, quarter, 0);
+		work.add(x - minor * sin, y + minor * cos, 0, 0, quarter, 0);
+		work.add(x + minor * sin, y - minor * cos, 0, 0, quarter, 0);
+	}
+
+	/**
+	 * Send the coordinator a sample of the positions of the bodies
+	 * of this domain, spread evenly through the store, along with
+	 * the time spent working since the last balance.
+	 *
+	 * @param the most samples to send
+	 * @throws IOException if the connection fails
+	 */
+	private void sample(int most) throws IOException{
+		int n = store.size();
+		int count = Math.min(n, most);
+		out.writeInt(n);
+		out.writeLong(cost);
+		out.writeInt(count);
+		for (int k = 0; k < count; k++){
+			int i = (int)((long)k * n / count);
+			out.writeDouble(store.getX(i));
+			out.writeDouble(store.getY(i));
+		}
+		cost = 0;
+	}
+
+	/**
+	 * Read the box of every domain, send every body that has left
+	 * the box of this one to the worker whose box it is in, and
+	 * take in the bodies the others send.
+	 *
+	 * @throws IOException if a connection fails
+	 */
+	private void migrate() throws IOException{
+		double[][] boxes = new double[peers.length][];
+		for (int r = 0; r < boxes.length; r++){
+			boxes[r] = DomainProtocol.readBox(in);
+		}
+		int n = store.size();
+		int[] owners = new int[n];
+		int[] counts = new int[peers.length];
+		for (int i = 0; i < n; i++){
+			owners[i] = rank;
+			for (int r = 0; r < boxes.length; r++){
+				if (DomainProtocol.contains(boxes[r], store.getX(i),
+						store.getY(i))){
+					owners[i] = r;
+					break;
+				}
+			}
+			counts[owners[i]]++;
+		}
+		ArrayList<Future<?>> sends = new ArrayList<>();
+		for (int r = 0; r < peers.length; r++){
+			if (peers[r] == null){
+				continue;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+					4 + counts[r] * DomainProtocol.BODY_SIZE);
+			DataOutputStream message = new DataOutputStream(bytes);
+			message.writeInt(counts[r]);
+			for (int i = 0; i < n; i++){
+				if (owners[i] == r){
+					DomainProtocol.writeBody(message,
+							globalIds[store.getId(i)], store, i);
+				}
+			}
+			sends.add(peers[r].send(bytes.toByteArray()));
+		}
+		// Keep the bodies still inside, then add the newcomers
+		BodyStore kept = new DoubleBodyStore(counts[rank]);
+		int[] keptIds = new int[Math.max(16, counts[rank])];
+		for (int i = 0; i < n; i++){
+			if (owners[i] == rank){
+				keptIds[kept.add(store.getX(i), store.getY(i),
+						store.getVX(i), store.getVY(i), store.getMass(i),
+						store.getRadius(i))] = globalIds[store.getId(i)];
+			}
+		}
+		store = kept;
+		globalIds = keptIds;
+		for (Peer peer : peers){
+			if (peer == null){
+				continue;
+			}
+			int count = peer.in.readInt();
+			for (int k = 0; k < count; k++){
+				addBody(DomainProtocol.readBody(peer.in, store));
+			}
+		}
+		finish(sends);
+		out.writeInt(store.size());
+	}
+
+	/**
+	 * Wait for messages to the other workers to be sent.
+	 *
+	 * @param the messages being sent
+	 * @throws IOException if any of them could not be sent
+	 */
+	private void finish(ArrayList<Future<?>> sends) throws IOException{
+		for (Future<?> send : sends){
+			try {
+				send.get();
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while sending", e);
+			} catch (ExecutionException e){
+				throw new IOException("Could not send to a worker",
+						e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Return a box as a message.
+	 *
+	 * @param the smallest x, smallest y, largest x and largest y
+	 * @throws IOException if the message cannot be written
+	 */
+	private byte[] box(double[] box) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		DomainProtocol.writeBox(new DataOutputStream(bytes), box);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Listen for a coordinator and work for it until told to stop.
+	 * The only argument is the port to listen on, 0 or none for
+	 * any free port, which is printed once listening.
+	 *
+	 * @param the arguments
+	 * @throws IOException if a connection fails
+	 */
+	public static void main(String[] args) throws IOException{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		DomainWorker worker = new DomainWorker(port);
+		System.out.println("port " + worker.getPort());
+		System.out.flush();
+		worker.run();
+	}
+
+	/** The connection to another worker.*/
+	private static class Peer {
+
+		private Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+
+		// Sends messages one at a time, in the order given
+		private ExecutorService sender;
+
+		/**
+		 * Constructor: a worker that has just connected.
+		 *
+		 * @param the socket to the worker
+		 * @throws IOException if the socket cannot be used
+		 */
+		private Peer(Socket socket) throws IOException{
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(
+					socket.getOutputStream()));
+			sender = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "peer sender");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		/**
+		 * Send a message on the thread of this worker.
+		 *
+		 * @param the bytes of the message
+		 * @return the send, done once the message has been written
+		 */
+		private Future<?> send(byte[] message){
+			return sender.submit(() -> {
+				out.write(message);
+				out.flush();
+				return null;
+			});
+		}
+
+		/** Stop sending and close the connection.*/
+		private void close() throws IOException{
+			sender.shutdownNow();
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * This class is a body store that keeps every quantity in double
+ * precision, the same as body objects do.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.Arrays;
+
+public class DoubleBodyStore extends BodyStore {
+
+	// Body state
+	private double[] x, y;
+	private double[] vx, vy;
+	private double[] ax, ay;
+	private double[] potential;
+	private double[] mass;
+
+	/** Constructor: an empty store with the default capacity.*/
+	public DoubleBodyStore(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor: an empty store with a custom capacity.
+	 *
+	 * @param the number of bodies to make room for
+	 */
+	public DoubleBodyStore(int capacity){
+		super(capacity);
+		growState(getCapacity());
+	}
+
+	/** Return the x coordinate of a body.*/
+	public double getX(int i){
+		return x[i];
+	}
+
+	/** Return the y coordinate of a body.*/
+	public double getY(int i){
+		return y[i];
+	}
+
+	/** Return the x velocity of a body.*/
+	public double getVX(int i){
+		return vx[i];
+	}
+
+	/** Return the y velocity of a body.*/
+	public double getVY(int i){
+		return vy[i];
+	}
+
+	/** Return the x acceleration of a body.*/
+	public double getAX(int i){
+		return ax[i];
+	}
+
+	/** Return the y acceleration of a body.*/
+	public double getAY(int i){
+		return ay[i];
+	}
+
+	/** Return the gravitational potential at a body.*/
+	public double getPotential(int i){
+		return potential[i];
+	}
+
+	/** Return the mass of a body.*/
+	public double getMass(int i){
+		return mass[i];
+	}
+
+	/**
+	 * Change the position of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x coordinate
+	 * @param the new y coordinate
+	 */
+	public void setPosition(int i, double x, double y){
+		this.x[i] = x;
+		this.y[i] = y;
+	}
+
+	/**
+	 * Change the velocity of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x velocity
+	 * @param the new y velocity
+	 */
+	public void setVelocity(int i, double vx, double vy){
+		this.vx[i] = vx;
+		this.vy[i] = vy;
+	}
+
+	/**
+	 * Change the acceleration of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x acceleration
+	 * @param the new y acceleration
+	 */
+	public void setAcceleration(int i, double ax, double ay){
+		this.ax[i] = ax;
+		this.ay[i] = ay;
+	}
+
+	/**
+	 * Change the gravitational potential at a body.
+	 *
+	 * @param the index of the body
+	 * @param the new potential
+	 */
+	public void setPotential(int i, double potential){
+		this.potential[i] = potential;
+	}
+
+	/**
+	 * Change the mass of a body, leaving its radius alone.
+	 *
+	 * @param the index of the body
+	 * @param the new mass
+	 */
+	protected void setMass(int i, double mass){
+		this.mass[i] = mass;
+	}
+
+	/**
+	 * Set every quantity of a range of bodies to zero.
+	 *
+	 * @param the index of the first body
+	 * @param the index after the last body
+	 */
+	protected void clearState(int from, int to){
+		for (double[] array : new double[][]{x, y, vx, vy, ax, ay,
+				potential, mass}){
+			Arrays.fill(array, from, to, 0);
+		}
+	}
+
+	/**
+	 * Grow the storage of every quantity to a new length, keeping
+	 * what is already there.
+	 *
+	 * @param the new length
+	 */
+	protected void growState(int length){
+		if (x == null){
+			x = new double[length];
+			y = new double[length];
+			vx = new double[length];
+			vy = new double[length];
+			ax = new double[length];
+			ay = new double[length];
+			potential = new double[length];
+			mass = new double[length];
+			return;
+		}
+		x = Arrays.copyOf(x, length);
+		y = Arrays.copyOf(y, length);
+		vx = Arrays.copyOf(vx, length);
+		vy = Arrays.copyOf(vy, length);
+		ax = Arrays.copyOf(ax, length);
+		ay = Arrays.copyOf(ay, length);
+		potential = Arrays.copyOf(potential, length);
+		mass = Arrays.copyOf(mass, length);
+	}
+
+	/**
+	 * Rearrange every quantity so that the body at index order[i]
+	 * moves to index i.  The arrays are gathered in parallel
+	 * into fresh copies.
+	 *
+	 * @param the new order of the bodies
+	 */
+	protected void gatherState(int[] order){
+		x = gather(x, order);
+		y = gather(y, order);
+		vx = gather(vx, order);
+		vy = gather(vy, order);
+		ax = gather(ax, order);
+		ay = gather(ay, order);
+		potential = gather(potential, order);
+		mass = gather(mass, order);
+	}
+
+	/**
+	 * Rearrange every quantity of a range of bodies so that the
+	 * body at index order[k] moves to index from + k.
+	 *
+	 * @param the new order of the bodies in the range
+	 * @param the index of the first body in the range
+	 */
+	protected void gatherState(int[] order, int from){
+		int n = order.length;
+		double[] buffer = new double[n];
+		for (double[] array : new double[][]{x, y, vx, vy, ax, ay,
+				potential, mass}){
+			for (int k = 0; k < n; k++){
+				buffer[k] = array[order[k]];
+			}
+			System.arraycopy(buffer, 0, array, from, n);
+		}
+	}
+}
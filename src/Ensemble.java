@@ -0,0 +1,474 @@
+/**
+ * This class runs many small simulations at once without any
+ * window, such as the variants of a scenario in a sweep over its
+ * parameters, and gathers how each of them turned out into a
+ * single table.
+ *
+ * Every variant is a list of parameter values.  A setup turns the
+ * values into bodies, and each run then gets its own store,
+ * engine, simulation and diagnostics, so runs share nothing that
+ * changes and can go in any order on a bounded pool of threads.
+ * Runs of fewer bodies than Simulation.PARALLEL_THRESHOLD are
+ * stepped entirely on the thread of their run.
+ *
+ * Many tiny systems go faster still when run as a single batch,
+ * advanced together step for step by BatchedSystems.
+ *
+ * Results come back in the order the variants were added, and can
+ * be written as CSV, or as a binary table: a magic number, the
+ * number of columns, the name of every column as modified UTF-8,
+ * the number of rows, and then every row as doubles, all in
+ * network byte order.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+public class Ensemble {
+
+	public static final int MAGIC = 0x4e42454e;
+
+	// Columns of every result after the parameters
+	private static final String[] RESULT_COLUMNS = {"run", "bodies",
+			"steps", "energy", "energy_drift", "momentum_drift",
+			"angular_momentum_drift", "seconds"};
+
+	private String[] parameterNames;
+	private ArrayList<double[]> variants;
+	private int threads;
+	private long steps;
+	private double timeStep;
+	private int diagnosticsInterval;
+
+	/**
+	 * Constructor: an empty ensemble of variants with named
+	 * parameters, run on a custom number of threads.
+	 *
+	 * @param the names of the parameters of every variant
+	 * @param the number of runs at once
+	 */
+	public Ensemble(String[] parameterNames, int threads){
+		this.parameterNames = parameterNames.clone();
+		this.threads = Math.max(threads, 1);
+		variants = new ArrayList<>();
+		steps = 1000;
+		timeStep = 1;
+		diagnosticsInterval = 100;
+	}
+
+	/** Return the number of variants.*/
+	public int size(){
+		return variants.size();
+	}
+
+	/**
+	 * Change how long every run lasts.
+	 *
+	 * @param the number of steps
+	 * @param the time step, in frames of the simulation loop
+	 */
+	public void setSteps(long steps, double timeStep){
+		this.steps = steps;
+		this.timeStep = timeStep;
+	}
+
+	/**
+	 * Change how often every run is measured along the way.
+	 *
+	 * @param the number of steps in between measurements
+	 */
+	public void setDiagnosticsInterval(int diagnosticsInterval){
+		this.diagnosticsInterval = Math.max(diagnosticsInterval, 1);
+	}
+
+	/**
+	 * Add a variant.
+	 *
+	 * @param the value of every parameter, in the order of their
+	 *   names
+	 * @throws IllegalArgumentException if there are not as many
+	 *   values as names
+	 */
+	public void add(double... parameters){
+		if (parameters.length != parameterNames.length){
+			throw new IllegalArgumentException("Expected "
+					+ parameterNames.length + " parameters, got "
+					+ parameters.length);
+		}
+		variants.add(parameters.clone());
+	}
+
+	/**
+	 * Run every variant and wait for all of them to finish.
+	 *
+	 * @param the setup adding the bodies of a variant to a store,
+	 *   which is called from many threads at once
+	 * @return the result of every variant, in the order they were
+	 *   added
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if a run fails
+	 */
+	public List<Result> run(Setup setup)
+			throws InterruptedException, ExecutionException{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Result>> futures = new ArrayList<>();
+			for (int run = 0; run < variants.size(); run++){
+				int index = run;
+				futures.add(pool.submit(() -> runVariant(index, setup)));
+			}
+			ArrayList<Result> results = new ArrayList<>();
+			for (Future<Result> future : futures){
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run a single variant from start to finish.
+	 *
+	 * @param the index of the variant
+	 * @param the setup adding its bodies
+	 * @return the result of the run
+	 */
+	private Result runVariant(int run, Setup setup){
+		long start = System.nanoTime();
+		double[] parameters = variants.get(run);
+		BodyStore store = new DoubleBodyStore();
+		setup.setUp(store, parameters.clone());
+		Simulation simulation = new Simulation(store,
+				new DirectForceEngine());
+		Diagnostics diagnostics = new Diagnostics(diagnosticsInterval,
+				null);
+		simulation.setDiagnostics(diagnostics);
+		for (long step = 0; step < steps; step++){
+			simulation.step(timeStep);
+		}
+		// Measure the end as well, with forces for where it ended up
+		simulation.getEngine().computeAccelerations(store);
+		diagnostics.measure(store, steps);
+		return new Result(run, parameters, store.size(), steps,
+				diagnostics.getEnergy(), diagnostics.getEnergyDrift(),
+				diagnostics.getMomentumDrift(),
+				diagnostics.getAngularMomentumDrift(),
+				(System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Run every variant at once in a single batch, with the
+	 * systems advanced together step for step rather than one run
+	 * to a thread, which is much faster for many small systems.
+	 * The results are the same as those of run, and the seconds of
+	 * every run are its share of the time of the whole batch.
+	 *
+	 * @param the setup adding the bodies of a variant to a store,
+	 *   which is called from many threads at once
+	 * @return the result of every variant, in the order they were
+	 *   added
+	 */
+	public List<Result> runBatched(Setup setup){
+		long start = System.nanoTime();
+		int count = variants.size();
+		BodyStore[] stores = new BodyStore[count];
+		IntStream.range(0, count).parallel().forEach(run -> {
+			stores[run] = new DoubleBodyStore();
+			setup.setUp(stores[run], variants.get(run).clone());
+		});
+		int bodies = 0;
+		for (BodyStore store : stores){
+			bodies = Math.max(bodies, store.size());
+		}
+		BatchedSystems batch = new BatchedSystems(count, bodies);
+		DirectForceEngine engine = new DirectForceEngine();
+		Diagnostics[] diagnostics = new Diagnostics[count];
+		// Measure the start, as Simulation.step does on its first step
+		for (int run = 0; run < count; run++){
+			engine.computeAccelerations(stores[run]);
+			diagnostics[run] = new Diagnostics(diagnosticsInterval,
+					null);
+			diagnostics[run].measure(stores[run], 0);
+			batch.load(run, stores[run]);
+		}
+		batch.step(steps, timeStep);
+		double seconds = (System.nanoTime() - start) / 1e9
+				/ Math.max(count, 1);
+		ArrayList<Result> results = new ArrayList<>();
+		for (int run = 0; run < count; run++){
+			BodyStore store = stores[run];
+			batch.save(run, store);
+			engine.computeAccelerations(store);
+			diagnostics[run].measure(store, steps);
+			results.add(new Result(run, variants.get(run), store.size(),
+					steps, diagnostics[run].getEnergy(),
+					diagnostics[run].getEnergyDrift(),
+					diagnostics[run].getMomentumDrift(),
+					diagnostics[run].getAngularMomentumDrift(),
+					seconds));
+		}
+		return results;
+	}
+
+	/** Return the name of every column of the table of results.*/
+	public String[] getColumns(){
+		String[] columns = new String[parameterNames.length
+				+ RESULT_COLUMNS.length];
+		System.arraycopy(RESULT_COLUMNS, 0, columns, 0, 1);
+		System.arraycopy(parameterNames, 0, columns, 1,
+				parameterNames.length);
+		System.arraycopy(RESULT_COLUMNS, 1, columns,
+				parameterNames.length + 1, RESULT_COLUMNS.length - 1);
+		return columns;
+	}
+
+	/**
+	 * Write results as CSV, with a header line naming the columns.
+	 *
+	 * @param the results
+	 * @param the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeCsv(List<Result> results, File file)
+			throws IOException{
+		try (PrintWriter writer = new PrintWriter(file,
+				StandardCharsets.UTF_8)){
+			writer.println(String.join(",", getColumns()));
+			for (Result result : results){
+				double[] row = result.toRow();
+				StringBuilder line = new StringBuilder();
+				for (int k = 0; k < row.length; k++){
+					if (k > 0){
+						line.append(',');
+					}
+					// Counts are written without a decimal point
+					if (row[k] == Math.rint(row[k])
+							&& Math.abs(row[k]) < 1e15){
+						line.append((long)row[k]);
+					} else {
+						line.append(row[k]);
+					}
+				}
+				writer.println(line);
+			}
+			if (writer.checkError()){
+				throw new IOException("Cannot write " + file);
+			}
+		}
+	}
+
+	/**
+	 * Write results as a binary table.
+	 *
+	 * @param the results
+	 * @param the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeBinary(List<Result> results, File file)
+			throws IOException{
+		String[] columns = getColumns();
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))){
+			output.writeInt(MAGIC);
+			output.writeInt(columns.length);
+			for (String column : columns){
+				output.writeUTF(column);
+			}
+			output.writeInt(results.size());
+			for (Result result : results){
+				for (double value : result.toRow()){
+					output.writeDouble(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sweep hierarchical binaries over the ratio of the separation
+	 * of each level to the one above it, with several seeds for
+	 * every ratio, and write the results to a file.
+	 *
+	 * Arguments: the number of bodies, the number of ratios, the
+	 * number of seeds, the number of steps, the file to write, as
+	 * binary if it ends in .bin and as CSV otherwise, and
+	 * optionally "batched" to run every variant in a single batch.
+	 *
+	 * @param the arguments
+	 * @throws Exception if a run fails or the file cannot be written
+	 */
+	public static void main(String[] args) throws Exception{
+		if (args.length < 5){
+			System.err.println("Usage: Ensemble <bodies> <ratios>"
+					+ " <seeds> <steps> <file.csv|file.bin> [batched]");
+			System.exit(1);
+		}
+		int bodies = Integer.parseInt(args[0]);
+		int ratios = Integer.parseInt(args[1]);
+		int seeds = Integer.parseInt(args[2]);
+		long steps = Long.parseLong(args[3]);
+		File file = new File(args[4]);
+		int levels = Math.max(1, 31 - Integer.numberOfLeadingZeros(
+				Math.max(bodies, 2)));
+		Ensemble ensemble = new Ensemble(
+				new String[] {"ratio", "seed"},
+				Runtime.getRuntime().availableProcessors());
+		ensemble.setSteps(steps, 1);
+		for (int r = 0; r < ratios; r++){
+			double ratio = 0.1 + 0.4 * r / Math.max(ratios - 1, 1);
+			for (int seed = 0; seed < seeds; seed++){
+				ensemble.add(ratio, seed);
+			}
+		}
+		long start = System.nanoTime();
+		Setup setup = (store, parameters) ->
+				new Scenario((long)parameters[1]).hierarchical(store,
+						600, 375, 300, 1000, levels, parameters[0]);
+		List<Result> results = args.length > 5
+				&& args[5].equals("batched")
+				? ensemble.runBatched(setup) : ensemble.run(setup);
+		if (file.getName().endsWith(".bin")){
+			ensemble.writeBinary(results, file);
+		} else {
+			ensemble.writeCsv(results, file);
+		}
+		System.out.printf("%d runs of %d bodies in %.1f s%n",
+				results.size(), 1 << levels,
+				(System.nanoTime() - start) / 1e9);
+	}
+
+	/** Add the bodies of a variant to a store.*/
+	public interface Setup {
+
+		/**
+		 * Add the bodies of a variant to an empty store.  This is
+		 * called from many threads at once, and so must not change
+		 * anything shared between runs.
+		 *
+		 * @param the store to add the bodies to
+		 * @param the value of every parameter of the variant
+		 */
+		void setUp(BodyStore store, double[] parameters);
+	}
+
+	/** How a single run turned out.*/
+	public static class Result {
+
+		private final int run;
+		private final double[] parameters;
+		private final int bodies;
+		private final long steps;
+		private final double energy;
+		private final double energyDrift;
+		private final double momentumDrift;
+		private final double angularMomentumDrift;
+		private final double seconds;
+
+		/**
+		 * Constructor: the result of a run.
+		 *
+		 * @param the index of the variant
+		 * @param the value of every parameter of the variant
+		 * @param the number of bodies at the end
+		 * @param the number of steps taken
+		 * @param the energy at the end
+		 * @param the drift in energy
+		 * @param the drift in momentum
+		 * @param the drift in angular momentum
+		 * @param the seconds the run took
+		 */
+		private Result(int run, double[] parameters, int bodies,
+				long steps, double energy, double energyDrift,
+				double momentumDrift, double angularMomentumDrift,
+				double seconds){
+			this.run = run;
+			this.parameters = parameters;
+			this.bodies = bodies;
+			this.steps = steps;
+			this.energy = energy;
+			this.energyDrift = energyDrift;
+			this.momentumDrift = momentumDrift;
+			this.angularMomentumDrift = angularMomentumDrift;
+			this.seconds = seconds;
+		}
+
+		/** Return the index of the variant.*/
+		public int getRun(){
+			return run;
+		}
+
+		/** Return the value of a parameter of the variant.*/
+		public double getParameter(int k){
+			return parameters[k];
+		}
+
+		/** Return the number of bodies at the end.*/
+		public int getBodies(){
+			return bodies;
+		}
+
+		/** Return the number of steps taken.*/
+		public long getSteps(){
+			return steps;
+		}
+
+		/** Return the energy at the end.*/
+		public double getEnergy(){
+			return energy;
+		}
+
+		/** Return the drift in energy.*/
+		public double getEnergyDrift(){
+			return energyDrift;
+		}
+
+		/** Return the drift in momentum.*/
+		public double getMomentumDrift(){
+			return momentumDrift;
+		}
+
+		/** Return the drift in angular momentum.*/
+		public double getAngularMomentumDrift(){
+			return angularMomentumDrift;
+		}
+
+		/** Return the seconds the run took.*/
+		public double getSeconds(){
+			return seconds;
+		}
+
+		/** Return the result as a row of the table, column by column.*/
+		public double[] toRow(){
+			double[] row = new double[parameters.length
+					+ RESULT_COLUMNS.length];
+			row[0] = run;
+			System.arraycopy(parameters, 0, row, 1, parameters.length);
+			int k = parameters.length + 1;
+			row[k++] = bodies;
+			row[k++] = steps;
+			row[k++] = energy;
+			row[k++] = energyDrift;
+			row[k++] = momentumDrift;
+			row[k++] = angularMomentumDrift;
+			row[k] = seconds;
+			return row;
+		}
+	}
+}
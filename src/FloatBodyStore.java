@@ -0,0 +1,217 @@
+/**
+ * This class is a body store that keeps every quantity in single
+ * precision, halving the memory every body takes up and so the
+ * memory traffic of every step, for visual runs with very many
+ * bodies where bandwidth matters more than precision.
+ *
+ * Quantities are rounded to the nearest float as they are
+ * stored.  The force engines still add up the pull of every body
+ * in double precision, since it is in long sums that the rounding
+ * of single precision would build up.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.Arrays;
+
+public class FloatBodyStore extends BodyStore {
+
+	// Body state
+	private float[] x, y;
+	private float[] vx, vy;
+	private float[] ax, ay;
+	private float[] potential;
+	private float[] mass;
+
+	/** Constructor: an empty store with the default capacity.*/
+	public FloatBodyStore(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor: an empty store with a custom capacity.
+	 *
+	 * @param the number of bodies to make room for
+	 */
+	public FloatBodyStore(int capacity){
+		super(capacity);
+		growState(getCapacity());
+	}
+
+	/** Return the x coordinate of a body.*/
+	public double getX(int i){
+		return x[i];
+	}
+
+	/** Return the y coordinate of a body.*/
+	public double getY(int i){
+		return y[i];
+	}
+
+	/** Return the x velocity of a body.*/
+	public double getVX(int i){
+		return vx[i];
+	}
+
+	/** Return the y velocity of a body.*/
+	public double getVY(int i){
+		return vy[i];
+	}
+
+	/** Return the x acceleration of a body.*/
+	public double getAX(int i){
+		return ax[i];
+	}
+
+	/** Return the y acceleration of a body.*/
+	public double getAY(int i){
+		return ay[i];
+	}
+
+	/** Return the gravitational potential at a body.*/
+	public double getPotential(int i){
+		return potential[i];
+	}
+
+	/** Return the mass of a body.*/
+	public double getMass(int i){
+		return mass[i];
+	}
+
+	/**
+	 * Change the position of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x coordinate
+	 * @param the new y coordinate
+	 */
+	public void setPosition(int i, double x, double y){
+		this.x[i] = (float)x;
+		this.y[i] = (float)y;
+	}
+
+	/**
+	 * Change the velocity of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x velocity
+	 * @param the new y velocity
+	 */
+	public void setVelocity(int i, double vx, double vy){
+		this.vx[i] = (float)vx;
+		this.vy[i] = (float)vy;
+	}
+
+	/**
+	 * Change the acceleration of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x acceleration
+	 * @param the new y acceleration
+	 */
+	public void setAcceleration(int i, double ax, double ay){
+		this.ax[i] = (float)ax;
+		this.ay[i] = (float)ay;
+	}
+
+	/**
+	 * Change the gravitational potential at a body.
+	 *
+	 * @param the index of the body
+	 * @param the new potential
+	 */
+	public void setPotential(int i, double potential){
+		this.potential[i] = (float)potential;
+	}
+
+	/**
+	 * Change the mass of a body, leaving its radius alone.
+	 *
+	 * @param the index of the body
+	 * @param the new mass
+	 */
+	protected void setMass(int i, double mass){
+		this.mass[i] = (float)mass;
+	}
+
+	/**
+	 * Set every quantity of a range of bodies to zero.
+	 *
+	 * @param the index of the first body
+	 * @param the index after the last body
+	 */
+	protected void clearState(int from, int to){
+		for (float[] array : new float[][]{x, y, vx, vy, ax, ay,
+				potential, mass}){
+			Arrays.fill(array, from, to, 0);
+		}
+	}
+
+	/**
+	 * Grow the storage of every quantity to a new length, keeping
+	 * what is already there.
+	 *
+	 * @param the new length
+	 */
+	protected void growState(int length){
+		if (x == null){
+			x = new float[length];
+			y = new float[length];
+			vx = new float[length];
+			vy = new float[length];
+			ax = new float[length];
+			ay = new float[length];
+			potential = new float[length];
+			mass = new float[length];
+			return;
+		}
+		x = Arrays.copyOf(x, length);
+		y = Arrays.copyOf(y, length);
+		vx = Arrays.copyOf(vx, length);
+		vy = Arrays.copyOf(vy, length);
+		ax = Arrays.copyOf(ax, length);
+		ay = Arrays.copyOf(ay, length);
+		potential = Arrays.copyOf(potential, length);
+		mass = Arrays.copyOf(mass, length);
+	}
+
+	/**
+	 * Rearrange every quantity so that the body at index order[i]
+	 * moves to index i.  The arrays are gathered in parallel
+	 * into fresh copies.
+	 *
+	 * @param the new order of the bodies
+	 */
+	protected void gatherState(int[] order){
+		x = gather(x, order);
+		y = gather(y, order);
+		vx = gather(vx, order);
+		vy = gather(vy, order);
+		ax = gather(ax, order);
+		ay = gather(ay, order);
+		potential = gather(potential, order);
+		mass = gather(mass, order);
+	}
+
+	/**
+	 * Rearrange every quantity of a range of bodies so that the
+	 * body at index order[k] moves to index from + k.
+	 *
+	 * @param the new order of the bodies in the range
+	 * @param the index of the first body in the range
+	 */
+	protected void gatherState(int[] order, int from){
+		int n = order.length;
+		float[] buffer = new float[n];
+		for (float[] array : new float[][]{x, y, vx, vy, ax, ay,
+				potential, mass}){
+			for (int k = 0; k < n; k++){
+				buffer[k] = array[order[k]];
+			}
+			System.arraycopy(buffer, 0, array, from, n);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+/**
+ * This interface describes anything that can work out the
+ * gravitational acceleration of every body in a body store.
+ * 
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+public interface ForceEngine {
+	
+	/**
+	 * Set the acceleration of every body in the store to the
+	 * pull of every other body, following the same law as
+	 * Body.updateForces, and set the potential of every body in
+	 * the same pass.  Bodies that overlap do not pull on each
+	 * other.  An engine may rearrange the bodies in the store.
+	 * The pull on every body is summed on a single thread in an
+	 * order that does not depend on the number of threads, so the
+	 * same store always gives the same accelerations to the bit.
+	 * 
+	 * @param the store holding the bodies
+	 */
+	void computeAccelerations(BodyStore store);
+}
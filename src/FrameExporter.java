@@ -0,0 +1,296 @@
+/**
+ * This class writes the frames of a simulation to disk without a
+ * window, either as a numbered sequence of PNG images or as a
+ * single stream of raw frames that a video encoder can read.
+ *
+ * Frames are drawn by a simulation panel that is never shown, so
+ * they look exactly as they would on the screen.  Drawing happens
+ * on the thread of the simulation, since the bodies move on once
+ * it returns, but encoding and writing the frames is handed to a
+ * bounded pool of workers so that it overlaps with the next steps.
+ * Only a fixed number of images are ever in flight: once all of
+ * them are waiting to be encoded, the simulation waits for one to
+ * come back rather than piling up frames in memory.
+ *
+ * Raw frames are written one after another as width * height
+ * pixels of four bytes each, in the order alpha, red, green, blue,
+ * which encoders know as the argb pixel format.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+public class FrameExporter implements Closeable {
+
+	/** Ways of writing the frames.*/
+	public enum Format {PNG, RAW}
+
+	// Images in flight for every worker
+	private final int IMAGES_PER_WORKER = 2;
+	private final int RAW_BUFFER_SIZE = 1 << 20;
+
+	private File directory;
+	private Format format;
+	private int width;
+	private int height;
+
+	private SimPanel panel;
+	private ArrayList<BodyPath> noPaths;
+	private ExecutorService workers;
+	private BlockingQueue<BufferedImage> freeImages;
+
+	// Raw stream, only touched by its single worker
+	private OutputStream rawOutput;
+	private byte[] rawBytes;
+
+	private int frames;
+	private volatile IOException error;
+
+	/**
+	 * Constructor: an exporter writing frames of a custom size
+	 * into a directory, encoded by a custom number of workers.
+	 * Raw frames are always written by a single worker, so that
+	 * they stay in order.
+	 *
+	 * @param the directory to write into, created if need be
+	 * @param the way of writing the frames
+	 * @param the width of every frame
+	 * @param the height of every frame
+	 * @param the number of workers encoding PNG images
+	 * @throws IOException if the directory or stream cannot be
+	 *   created
+	 */
+	public FrameExporter(File directory, Format format, int width,
+			int height, int threads) throws IOException{
+		if (!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Cannot create " + directory);
+		}
+		this.directory = directory;
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		int workerCount = format == Format.RAW ? 1
+				: Math.max(threads, 1);
+		workers = Executors.newFixedThreadPool(workerCount);
+		int images = workerCount * IMAGES_PER_WORKER;
+		freeImages = new ArrayBlockingQueue<>(images);
+		for (int i = 0; i < images; i++){
+			freeImages.add(new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB));
+		}
+		if (format == Format.RAW){
+			rawOutput = new BufferedOutputStream(new FileOutputStream(
+					new File(directory, "frames.raw")),
+					RAW_BUFFER_SIZE);
+			rawBytes = new byte[width * height * 4];
+		}
+		panel = new SimPanel(width, height);
+		panel.setSize(width, height);
+		panel.setBackground(Color.WHITE);
+		noPaths = new ArrayList<>();
+		frames = 0;
+	}
+
+	/** Return the camera the frames are drawn through.*/
+	public Camera getCamera(){
+		return panel.getCamera();
+	}
+
+	/** Return the number of frames handed to the exporter.*/
+	public int getFrameCount(){
+		return frames;
+	}
+
+	/**
+	 * Change what is drawn along with the bodies.
+	 *
+	 * @param whether the paths are drawn
+	 * @param whether the paths are colored
+	 * @param whether the net forces are drawn
+	 */
+	public void setOptions(boolean isTracingPaths,
+			boolean isColoringPaths, boolean isShowingNetForces){
+		panel.update(new ArrayList<>(), new ArrayList<>(),
+				new ArrayList<>(), false, isTracingPaths,
+				isColoringPaths, isShowingNetForces);
+	}
+
+	/**
+	 * Draw the bodies of a store as the next frame, and hand the
+	 * frame to the workers to be written.  This waits for an image
+	 * to be free if every image is still being written.
+	 *
+	 * @param the store holding the bodies
+	 * @param the paths of the bodies, indexed by id
+	 * @throws IOException if an earlier frame could not be written
+	 */
+	public void export(BodyStore store, ArrayList<BodyPath> paths)
+			throws IOException{
+		checkError();
+		BufferedImage image;
+		try {
+			image = freeImages.take();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted waiting for a free frame");
+		}
+		panel.setStore(store, paths);
+		panel.renderTo(image);
+		int frame = frames++;
+		workers.execute(() -> {
+			try {
+				write(image, frame);
+			} catch (IOException e){
+				error = e;
+			} finally {
+				freeImages.add(image);
+			}
+		});
+	}
+
+	/**
+	 * Draw the bodies of a store as the next frame without any
+	 * paths.
+	 *
+	 * @param the store holding the bodies
+	 * @throws IOException if an earlier frame could not be written
+	 */
+	public void export(BodyStore store) throws IOException{
+		export(store, noPaths);
+	}
+
+	/**
+	 * Write a single frame.
+	 *
+	 * @param the image of the frame
+	 * @param the number of the frame
+	 * @throws IOException if the frame cannot be written
+	 */
+	private void write(BufferedImage image, int frame)
+			throws IOException{
+		if (format == Format.PNG){
+			ImageIO.write(image, "png", new File(directory,
+					String.format("frame%06d.png", frame)));
+			return;
+		}
+		int[] pixels = ((DataBufferInt)image.getRaster()
+				.getDataBuffer()).getData();
+		ByteBuffer.wrap(rawBytes).asIntBuffer().put(pixels);
+		rawOutput.write(rawBytes);
+	}
+
+	/** Throw the first error any worker ran into, if any.*/
+	private void checkError() throws IOException{
+		if (error != null){
+			throw new IOException("Cannot write frame", error);
+		}
+	}
+
+	/**
+	 * Wait for every frame to be written, and close the stream.
+	 *
+	 * @throws IOException if a frame could not be written
+	 */
+	@Override
+	public void close() throws IOException{
+		workers.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE,
+					TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted waiting for frames to be written");
+		} finally {
+			if (rawOutput != null){
+				rawOutput.close();
+			}
+		}
+		checkError();
+	}
+
+	/**
+	 * Run a scenario without a window and export every so many
+	 * steps as a frame.
+	 *
+	 * Arguments: the name of a generator or a scenario file, the
+	 * number of bodies, the number of steps, the directory to
+	 * write into, and optionally png or raw, the number of steps
+	 * between frames, the width and the height, and the kind of
+	 * store the bodies are held in, as for BodyStore.create.  A
+	 * mapped store is brought up to date with every frame, so the
+	 * file can be read while the run goes on.
+	 *
+	 * @param the arguments
+	 * @throws IOException if the scenario cannot be loaded or a
+	 *   frame cannot be written
+	 */
+	public static void main(String[] args) throws IOException{
+		if (args.length < 4){
+			System.err.println("Usage: FrameExporter <scenario|file>"
+					+ " <bodies> <steps> <directory>"
+					+ " [png|raw] [steps per frame] [width height]"
+					+ " [double|float|direct|mapped:<file>]");
+			System.exit(1);
+		}
+		int count = Integer.parseInt(args[1]);
+		int steps = Integer.parseInt(args[2]);
+		Format format = args.length > 4
+				? Format.valueOf(args[4].toUpperCase()) : Format.PNG;
+		int stepsPerFrame = args.length > 5
+				? Integer.parseInt(args[5]) : 1;
+		int width = args.length > 7 ? Integer.parseInt(args[6]) : 1200;
+		int height = args.length > 7 ? Integer.parseInt(args[7]) : 600;
+		BodyStore store = BodyStore.create(args.length > 8
+				? args[8] : "double", count);
+		File file = new File(args[0]);
+		if (file.isFile()){
+			ScenarioFile.load(file, store);
+		} else {
+			new Scenario(42).generate(store, args[0], count, width,
+					height, 1000);
+		}
+		Simulation simulation = new Simulation(store,
+				new TreeForceEngine());
+		int threads = Math.max(1,
+				Runtime.getRuntime().availableProcessors() / 2);
+		long start = System.nanoTime();
+		int frames;
+		try (FrameExporter exporter = new FrameExporter(
+				new File(args[3]), format, width, height, threads)){
+			for (int step = 0; step < steps; step++){
+				if (step % stepsPerFrame == 0){
+					exporter.export(store);
+					store.snapshot();
+				}
+				simulation.step(1);
+			}
+			frames = exporter.getFrameCount();
+		}
+		System.out.printf("%d frames of %d bodies in %.1f s%n",
+				frames, store.size(), (System.nanoTime() - start) / 1e9);
+	}
+}
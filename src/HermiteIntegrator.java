@@ -0,0 +1,802 @@
+/**
+ * This class advances the bodies of a body store with the
+ * fourth-order Hermite predictor-corrector scheme and block time
+ * steps, for small collisional systems where the first-order step
+ * of Simulation would need far more force evaluations for the
+ * same accuracy.
+ *
+ * The pull of every body gives both the acceleration and its rate
+ * of change, the jerk, in the same pass over the pairs, sharing
+ * the distance between them.  At every step the positions and
+ * velocities of every body are predicted from their acceleration
+ * and jerk, the acceleration and jerk are worked out again at the
+ * predicted positions, and the two pairs are fitted with a
+ * polynomial to correct the step.  The fit also gives the higher
+ * derivatives the next time step is chosen from, by Aarseth's
+ * criterion.
+ *
+ * Every body takes its own time step, a frame divided by a power
+ * of two, so that bodies in a close encounter take many small
+ * steps while the rest take few large ones.  Only the bodies whose
+ * step ends at the earliest time are corrected together, as a
+ * block, and a body's step only grows to a size that its current
+ * time is a multiple of, so every body is back in step at the end
+ * of every frame.  Time within a frame is counted in ticks of the
+ * smallest step, so blocks line up exactly.
+ *
+ * The pair law is the same as that of the direct force engine,
+ * including that bodies which overlap do not pull on each other.
+ *
+ * A close pair of bodies bound to each other would hold every
+ * step of the system down to a fraction of its orbit.  At the end
+ * of every frame such pairs are looked for among the bodies on
+ * small steps, and a pair whose orbit is nearly untouched by the
+ * rest of the system is regularized: for the rest of the system it
+ * is a single body at its centre of mass, stepped like any other,
+ * while the two bodies go round each other along the exact Kepler
+ * orbit of the pair.  The pull of the rest of the system across
+ * the pair is measured at every step of the pair, and the pair is
+ * split back into two bodies once it stops being small.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.Arrays;
+
+public class HermiteIntegrator {
+
+	// Accuracy of the time steps, and of the very first ones
+	private final double DEFAULT_ETA = 0.02;
+	private final double STARTING_ETA = 0.01;
+
+	// Most halvings of a frame, so a frame has 2^MAX_LEVEL ticks
+	public static final int MAX_LEVEL = 30;
+
+	/*
+	 * Least level of both bodies of a pair before it is looked at,
+	 * and the largest pull of the rest of the system across a pair,
+	 * relative to the pull within it, for the pair to be formed and
+	 * for it to stay together.
+	 */
+	private final int CLOSE_LEVEL = 4;
+	private final double FORM_PERTURBATION = 1e-5;
+	private final double DISSOLVE_PERTURBATION = 1e-4;
+
+	private BodyStore store;
+	private double eta;
+	private boolean isRegularizing;
+
+	// Layout of the store the state below belongs to
+	private long layoutVersion;
+	private boolean isStarted;
+
+	// Jerk of every body
+	private double[] jerkX, jerkY;
+
+	// Level and time in ticks of every body within the frame
+	private int[] level;
+	private long[] tick;
+
+	// Positions and velocities predicted to the current block
+	private double[] predictedX, predictedY;
+	private double[] predictedVX, predictedVY;
+
+	// Acceleration and jerk worked out for the current block
+	private double[] newAX, newAY;
+	private double[] newJerkX, newJerkY;
+
+	// Bodies of the current block
+	private int[] active;
+
+	/*
+	 * The other body of the pair of every body, or -1.  The body
+	 * with the lower index stands for the pair during a frame and
+	 * holds the position and separation of the other from it, and
+	 * the pull across the pair relative to the pull within it.
+	 */
+	private int[] partner;
+	private double[] relativeX, relativeY;
+	private double[] relativeVX, relativeVY;
+	private double[] perturbation;
+
+	private long evaluations;
+	private long blocks;
+
+	/**
+	 * Constructor: an integrator of a store of bodies with the
+	 * default accuracy.
+	 *
+	 * @param the store holding the bodies
+	 */
+	public HermiteIntegrator(BodyStore store){
+		this.store = store;
+		eta = DEFAULT_ETA;
+		isRegularizing = true;
+		isStarted = false;
+		evaluations = 0;
+		blocks = 0;
+	}
+
+	/** Return the store.*/
+	public BodyStore getStore(){
+		return store;
+	}
+
+	/** Return the accuracy parameter of the time steps.*/
+	public double getEta(){
+		return eta;
+	}
+
+	/**
+	 * Return the number of times the pull on a single body has
+	 * been worked out so far.
+	 */
+	public long getEvaluations(){
+		return evaluations;
+	}
+
+	/** Return the number of blocks corrected so far.*/
+	public long getBlocks(){
+		return blocks;
+	}
+
+	/**
+	 * Return the level of a body, or of the pair it is in, the
+	 * number of times a frame is halved to give its time step.
+	 */
+	public int getLevel(int i){
+		return level[i];
+	}
+
+	/** Return whether close bound pairs are regularized.*/
+	public boolean isRegularizing(){
+		return isRegularizing;
+	}
+
+	/** Return the number of pairs regularized at the moment.*/
+	public int getPairCount(){
+		int count = 0;
+		for (int i = 0; isStarted && i < partner.length; i++){
+			if (partner[i] > i){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Change the accuracy parameter of the time steps, where
+	 * smaller is more accurate.
+	 *
+	 * @param the new accuracy parameter
+	 */
+	public void setEta(double eta){
+		this.eta = eta;
+	}
+
+	/**
+	 * Choose whether close bound pairs are regularized.  Turning
+	 * it off splits every pair on the next step.
+	 *
+	 * @param whether to regularize pairs
+	 */
+	public void setRegularizing(boolean isRegularizing){
+		if (this.isRegularizing && !isRegularizing){
+			isStarted = false;
+		}
+		this.isRegularizing = isRegularizing;
+	}
+
+	/**
+	 * Work out the acceleration, jerk and potential of every body
+	 * and choose their first time steps.  This happens by itself
+	 * on the first step and whenever the store has been added to
+	 * or rearranged since.
+	 *
+	 * @param the length of the frames that will be stepped
+	 */
+	public void start(double deltaTime){
+		int n = store.size();
+		jerkX = new double[n];
+		jerkY = new double[n];
+		level = new int[n];
+		tick = new long[n];
+		predictedX = new double[n];
+		predictedY = new double[n];
+		predictedVX = new double[n];
+		predictedVY = new double[n];
+		newAX = new double[n];
+		newAY = new double[n];
+		newJerkX = new double[n];
+		newJerkY = new double[n];
+		active = new int[n];
+		partner = new int[n];
+		relativeX = new double[n];
+		relativeY = new double[n];
+		relativeVX = new double[n];
+		relativeVY = new double[n];
+		perturbation = new double[n];
+		Arrays.fill(partner, -1);
+		for (int i = 0; i < n; i++){
+			predictedX[i] = store.getX(i);
+			predictedY[i] = store.getY(i);
+			predictedVX[i] = store.getVX(i);
+			predictedVY[i] = store.getVY(i);
+			active[i] = i;
+		}
+		evaluate(n);
+		for (int i = 0; i < n; i++){
+			store.setAcceleration(i, newAX[i], newAY[i]);
+			jerkX[i] = newJerkX[i];
+			jerkY[i] = newJerkY[i];
+			double a = Math.hypot(newAX[i], newAY[i]);
+			double j = Math.hypot(newJerkX[i], newJerkY[i]);
+			level[i] = levelOf(STARTING_ETA * a / j, deltaTime, 0);
+		}
+		layoutVersion = store.getLayoutVersion();
+		isStarted = true;
+	}
+
+	/**
+	 * Advance every body by a frame, in as many blocks as their
+	 * time steps need.  Afterwards every body is at the end of the
+	 * frame, with the acceleration and potential it has there.
+	 *
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 */
+	public void step(double deltaTime){
+		int n = store.size();
+		if (!isStarted || level.length != n
+				|| store.getLayoutVersion() != layoutVersion){
+			start(deltaTime);
+		}
+		if (n == 0){
+			return;
+		}
+		long frame = 1L << MAX_LEVEL;
+		double tickLength = deltaTime / frame;
+		Arrays.fill(tick, 0);
+		join();
+		long now = 0;
+		while (now < frame){
+			// The next block ends where the earliest step ends
+			long next = frame;
+			for (int i = 0; i < n; i++){
+				if (!isSecondary(i)){
+					next = Math.min(next, tick[i] + ticksOf(level[i]));
+				}
+			}
+			int count = 0;
+			for (int i = 0; i < n; i++){
+				if (!isSecondary(i)
+						&& tick[i] + ticksOf(level[i]) == next){
+					active[count++] = i;
+				}
+			}
+			predict(n, next, tickLength);
+			evaluate(count);
+			correct(count, next, tickLength, deltaTime);
+			now = next;
+			blocks++;
+		}
+		for (int i = 0; i < n; i++){
+			if (partner[i] > i){
+				split(i);
+			}
+		}
+		if (isRegularizing){
+			pair(deltaTime);
+		}
+	}
+
+	/**
+	 * Return whether a body is the one of a pair that does not
+	 * stand for the pair.
+	 */
+	private boolean isSecondary(int i){
+		return partner[i] >= 0 && partner[i] < i;
+	}
+
+	/** Return the mass of a body, or of the pair it stands for.*/
+	private double massOf(int i){
+		double mass = store.getMass(i);
+		return partner[i] > i ? mass + store.getMass(partner[i]) : mass;
+	}
+
+	/** Return the radius of a body, or of the pair it stands for.*/
+	private int radiusOf(int i){
+		int radius = store.getRadius(i);
+		return partner[i] > i
+				? Math.max(radius, store.getRadius(partner[i])) : radius;
+	}
+
+	/**
+	 * Replace the first body of every pair by the centre of mass
+	 * of the pair, with the acceleration and jerk of its centre of
+	 * mass, and keep the separation of the pair.  The pull within
+	 * the pair cancels out of the centre of mass.
+	 */
+	private void join(){
+		for (int i = 0; i < partner.length; i++){
+			int j = partner[i];
+			if (j <= i){
+				continue;
+			}
+			double massI = store.getMass(i);
+			double massJ = store.getMass(j);
+			double mass = massI + massJ;
+			relativeX[i] = store.getX(j) - store.getX(i);
+			relativeY[i] = store.getY(j) - store.getY(i);
+			relativeVX[i] = store.getVX(j) - store.getVX(i);
+			relativeVY[i] = store.getVY(j) - store.getVY(i);
+			store.setPosition(i,
+					(massI * store.getX(i) + massJ * store.getX(j))
+							/ mass,
+					(massI * store.getY(i) + massJ * store.getY(j))
+							/ mass);
+			store.setVelocity(i,
+					(massI * store.getVX(i) + massJ * store.getVX(j))
+							/ mass,
+					(massI * store.getVY(i) + massJ * store.getVY(j))
+							/ mass);
+			store.setAcceleration(i,
+					(massI * store.getAX(i) + massJ * store.getAX(j))
+							/ mass,
+					(massI * store.getAY(i) + massJ * store.getAY(j))
+							/ mass);
+			jerkX[i] = (massI * jerkX[i] + massJ * jerkX[j]) / mass;
+			jerkY[i] = (massI * jerkY[i] + massJ * jerkY[j]) / mass;
+		}
+	}
+
+	/**
+	 * Put both bodies of a pair back in the store from the centre
+	 * of mass held by the first and their separation, adding the
+	 * pull within the pair to the acceleration, jerk and potential
+	 * of each.
+	 *
+	 * @param the index of the first body of the pair
+	 */
+	private void split(int i){
+		int j = partner[i];
+		double massI = store.getMass(i);
+		double massJ = store.getMass(j);
+		double mass = massI + massJ;
+		double rx = relativeX[i];
+		double ry = relativeY[i];
+		double rvx = relativeVX[i];
+		double rvy = relativeVY[i];
+		double x = store.getX(i);
+		double y = store.getY(i);
+		double vx = store.getVX(i);
+		double vy = store.getVY(i);
+		double ax = store.getAX(i);
+		double ay = store.getAY(i);
+		double potential = store.getPotential(i);
+		store.setPosition(i, x - massJ / mass * rx,
+				y - massJ / mass * ry);
+		store.setPosition(j, x + massI / mass * rx,
+				y + massI / mass * ry);
+		store.setVelocity(i, vx - massJ / mass * rvx,
+				vy - massJ / mass * rvy);
+		store.setVelocity(j, vx + massI / mass * rvx,
+				vy + massI / mass * rvy);
+		// The pull of the second body on the first, per unit mass
+		double distance = Math.sqrt(rx * rx + ry * ry);
+		double pull = Simulator.GRAVITATIONAL_CONSTANT / distance;
+		double magnitude = pull / (distance * distance);
+		double closing = 3 * (rx * rvx + ry * rvy)
+				/ (distance * distance);
+		double jx = magnitude * (rvx - closing * rx);
+		double jy = magnitude * (rvy - closing * ry);
+		store.setAcceleration(i, ax + massJ * magnitude * rx,
+				ay + massJ * magnitude * ry);
+		store.setAcceleration(j, ax - massI * magnitude * rx,
+				ay - massI * magnitude * ry);
+		jerkX[j] = jerkX[i] - massI * jx;
+		jerkY[j] = jerkY[i] - massI * jy;
+		jerkX[i] += massJ * jx;
+		jerkY[i] += massJ * jy;
+		store.setPotential(i, potential - massJ * pull);
+		store.setPotential(j, potential - massI * pull);
+		level[j] = level[i];
+		tick[j] = tick[i];
+	}
+
+	/**
+	 * Look for close bound pairs among the bodies on small steps
+	 * that are not already in a pair, and form those whose orbit
+	 * the rest of the system barely pulls on, even at its widest.
+	 *
+	 * @param the length of a frame
+	 */
+	private void pair(double deltaTime){
+		int n = store.size();
+		for (int i = 0; i < n; i++){
+			if (partner[i] >= 0 || level[i] < CLOSE_LEVEL){
+				continue;
+			}
+			// The nearest other such body
+			int nearest = -1;
+			double nearestDistance = Double.MAX_VALUE;
+			for (int j = i + 1; j < n; j++){
+				if (partner[j] >= 0 || level[j] < CLOSE_LEVEL){
+					continue;
+				}
+				double distance = Math.hypot(
+						store.getX(j) - store.getX(i),
+						store.getY(j) - store.getY(i));
+				if (distance < nearestDistance){
+					nearest = j;
+					nearestDistance = distance;
+				}
+			}
+			if (nearest >= 0 && isClosePair(i, nearest)){
+				partner[i] = nearest;
+				partner[nearest] = i;
+				// Start the pair with the step its centre of mass needs
+				int j = nearest;
+				double massI = store.getMass(i);
+				double massJ = store.getMass(j);
+				double a = Math.hypot(
+						massI * store.getAX(i) + massJ * store.getAX(j),
+						massI * store.getAY(i) + massJ * store.getAY(j));
+				double jerk = Math.hypot(
+						massI * jerkX[i] + massJ * jerkX[j],
+						massI * jerkY[i] + massJ * jerkY[j]);
+				level[i] = levelOf(STARTING_ETA * a / jerk, deltaTime, 0);
+			}
+		}
+	}
+
+	/**
+	 * Return whether two bodies are bound to each other on an
+	 * orbit along which they never touch, and the pull of every
+	 * other body across the orbit at its widest is small.
+	 *
+	 * @param the index of one body
+	 * @param the index of the other body
+	 */
+	private boolean isClosePair(int i, int j){
+		double massI = store.getMass(i);
+		double massJ = store.getMass(j);
+		double mu = Simulator.GRAVITATIONAL_CONSTANT * (massI + massJ);
+		double rx = store.getX(j) - store.getX(i);
+		double ry = store.getY(j) - store.getY(i);
+		double rvx = store.getVX(j) - store.getVX(i);
+		double rvy = store.getVY(j) - store.getVY(i);
+		double distance = Math.sqrt(rx * rx + ry * ry);
+		double energy = (rvx * rvx + rvy * rvy) / 2 - mu / distance;
+		if (!(energy < 0)){
+			return false;
+		}
+		double axis = -mu / (2 * energy);
+		double momentum = rx * rvy - ry * rvx;
+		double eccentricity = Math.sqrt(Math.max(0,
+				1 + 2 * energy * momentum * momentum / (mu * mu)));
+		if (axis * (1 - eccentricity)
+				<= store.getRadius(i)/2 + store.getRadius(j)/2){
+			return false;
+		}
+		double widest = axis * (1 + eccentricity);
+		double x = (massI * store.getX(i) + massJ * store.getX(j))
+				/ (massI + massJ);
+		double y = (massI * store.getY(i) + massJ * store.getY(j))
+				/ (massI + massJ);
+		double tidal = 0;
+		for (int k = 0; k < store.size(); k++){
+			if (k == i || k == j){
+				continue;
+			}
+			double d = Math.hypot(store.getX(k) - x, store.getY(k) - y);
+			tidal += 2 * Simulator.GRAVITATIONAL_CONSTANT
+					* store.getMass(k) / (d * d * d);
+		}
+		return tidal * widest * widest * widest / mu < FORM_PERTURBATION;
+	}
+
+	/** Return the number of ticks in a step of a level.*/
+	private long ticksOf(int level){
+		return 1L << (MAX_LEVEL - level);
+	}
+
+	/**
+	 * Predict the position and velocity of every body at a time
+	 * from its acceleration and jerk.
+	 *
+	 * @param the number of bodies
+	 * @param the time in ticks
+	 * @param the length of a tick
+	 */
+	private void predict(int n, long time, double tickLength){
+		Simulation.indices(n).forEach(i -> {
+			double dt = (time - tick[i]) * tickLength;
+			double dt2 = dt * dt / 2;
+			double dt3 = dt2 * dt / 3;
+			double vx = store.getVX(i);
+			double vy = store.getVY(i);
+			double ax = store.getAX(i);
+			double ay = store.getAY(i);
+			predictedX[i] = store.getX(i) + vx * dt + ax * dt2
+					+ jerkX[i] * dt3;
+			predictedY[i] = store.getY(i) + vy * dt + ay * dt2
+					+ jerkY[i] * dt3;
+			predictedVX[i] = vx + ax * dt + jerkX[i] * dt2;
+			predictedVY[i] = vy + ay * dt + jerkY[i] * dt2;
+		});
+	}
+
+	/**
+	 * Work out the acceleration, jerk and potential of the bodies
+	 * of the block from the predicted positions and velocities of
+	 * every body.
+	 *
+	 * @param the number of bodies in the block
+	 */
+	private void evaluate(int count){
+		int n = store.size();
+		Simulation.indices(count).forEach(k -> {
+			int i = active[k];
+			double x = predictedX[i];
+			double y = predictedY[i];
+			double vx = predictedVX[i];
+			double vy = predictedVY[i];
+			int radius = radiusOf(i);
+			double accelerationX = 0;
+			double accelerationY = 0;
+			double jx = 0;
+			double jy = 0;
+			double potential = 0;
+			double tidal = 0;
+			for (int j = 0; j < n; j++){
+				// Pairs pull as one body from their centre of mass
+				if (isSecondary(j)){
+					continue;
+				}
+				double dx = predictedX[j] - x;
+				double dy = predictedY[j] - y;
+				double distance = Math.sqrt(dx * dx + dy * dy);
+				// Skip this body and any body it has collided with
+				if (j == i || radiusOf(j)/2 + radius/2 >= distance){
+					continue;
+				}
+				double dvx = predictedVX[j] - vx;
+				double dvy = predictedVY[j] - vy;
+				double pull = Simulator.GRAVITATIONAL_CONSTANT
+						* massOf(j) / distance;
+				double magnitude = pull / (distance * distance);
+				tidal += 2 * magnitude;
+				// How fast the distance is changing, over distance
+				double closing = 3 * (dx * dvx + dy * dvy)
+						/ (distance * distance);
+				accelerationX += magnitude * dx;
+				accelerationY += magnitude * dy;
+				jx += magnitude * (dvx - closing * dx);
+				jy += magnitude * (dvy - closing * dy);
+				potential -= pull;
+			}
+			newAX[i] = accelerationX;
+			newAY[i] = accelerationY;
+			newJerkX[i] = jx;
+			newJerkY[i] = jy;
+			store.setPotential(i, potential);
+			if (partner[i] > i){
+				double separation = Math.hypot(relativeX[i],
+						relativeY[i]);
+				perturbation[i] = tidal * separation * separation
+						* separation / (Simulator.GRAVITATIONAL_CONSTANT
+								* massOf(i));
+			}
+		});
+		evaluations += count;
+	}
+
+	/**
+	 * Correct the predicted positions and velocities of the bodies
+	 * of the block with the new acceleration and jerk, and choose
+	 * their next time steps.
+	 *
+	 * @param the number of bodies in the block
+	 * @param the time in ticks at the end of the block
+	 * @param the length of a tick
+	 * @param the length of a frame
+	 */
+	private void correct(int count, long time, double tickLength,
+			double deltaTime){
+		Simulation.indices(count).forEach(k -> {
+			int i = active[k];
+			double dt = (time - tick[i]) * tickLength;
+			double ax = store.getAX(i);
+			double ay = store.getAY(i);
+			/*
+			 * The second and third derivatives of the acceleration
+			 * at the start of the step, from fitting a cubic to
+			 * the old and new acceleration and jerk.
+			 */
+			double dt2 = dt * dt;
+			double snapX = (-6 * (ax - newAX[i])
+					- dt * (4 * jerkX[i] + 2 * newJerkX[i])) / dt2;
+			double snapY = (-6 * (ay - newAY[i])
+					- dt * (4 * jerkY[i] + 2 * newJerkY[i])) / dt2;
+			double crackleX = (12 * (ax - newAX[i])
+					+ 6 * dt * (jerkX[i] + newJerkX[i])) / (dt2 * dt);
+			double crackleY = (12 * (ay - newAY[i])
+					+ 6 * dt * (jerkY[i] + newJerkY[i])) / (dt2 * dt);
+			double dt4 = dt2 * dt2 / 24;
+			double dt5 = dt4 * dt / 5;
+			double dt3 = dt2 * dt / 6;
+			store.setPosition(i,
+					predictedX[i] + snapX * dt4 + crackleX * dt5,
+					predictedY[i] + snapY * dt4 + crackleY * dt5);
+			store.setVelocity(i,
+					predictedVX[i] + snapX * dt3 + crackleX * dt4,
+					predictedVY[i] + snapY * dt3 + crackleY * dt4);
+			store.setAcceleration(i, newAX[i], newAY[i]);
+			jerkX[i] = newJerkX[i];
+			jerkY[i] = newJerkY[i];
+			tick[i] = time;
+			// Aarseth's criterion, with the snap at the end
+			snapX += crackleX * dt;
+			snapY += crackleY * dt;
+			double a = Math.hypot(newAX[i], newAY[i]);
+			double j = Math.hypot(jerkX[i], jerkY[i]);
+			double s = Math.hypot(snapX, snapY);
+			double c = Math.hypot(crackleX, crackleY);
+			double step = Math.sqrt(eta * (a * s + j * j)
+					/ (j * c + s * s));
+			int next = levelOf(step, deltaTime, level[i] - 1);
+			// Only grow the step where the time lines up with it
+			while (next < level[i] && time % ticksOf(next) != 0){
+				next++;
+			}
+			level[i] = next;
+			if (partner[i] > i){
+				drift(i, dt);
+				if (perturbation[i] > DISSOLVE_PERTURBATION){
+					dissolve(i, deltaTime);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Move the bodies of a pair along their Kepler orbit around
+	 * each other, in universal variables so that no orbit needs a
+	 * case of its own.
+	 *
+	 * @param the index of the first body of the pair
+	 * @param the time to move them for
+	 */
+	private void drift(int i, double dt){
+		double mu = Simulator.GRAVITATIONAL_CONSTANT * massOf(i);
+		double rootMu = Math.sqrt(mu);
+		double rx = relativeX[i];
+		double ry = relativeY[i];
+		double vx = relativeVX[i];
+		double vy = relativeVY[i];
+		double r0 = Math.sqrt(rx * rx + ry * ry);
+		double radial = (rx * vx + ry * vy) / r0;
+		// The inverse of the semi-major axis
+		double alpha = 2 / r0 - (vx * vx + vy * vy) / mu;
+		if (alpha > 0){
+			// Whole orbits change nothing
+			double period = 2 * Math.PI
+					/ (alpha * Math.sqrt(alpha) * rootMu);
+			dt = Math.IEEEremainder(dt, period);
+		}
+		double chi = rootMu * Math.abs(alpha) * dt;
+		/*
+		 * Solve Kepler's equation for the universal anomaly with
+		 * the Laguerre-Conway iteration, which unlike Newton's
+		 * converges even on the most eccentric orbits.
+		 */
+		double sigma = r0 * radial / rootMu;
+		for (int k = 0; k < 50; k++){
+			double z = alpha * chi * chi;
+			double c = stumpffC(z);
+			double s = stumpffS(z);
+			double chi2 = chi * chi;
+			double f = sigma * chi2 * c
+					+ (1 - alpha * r0) * chi2 * chi * s
+					+ r0 * chi - rootMu * dt;
+			double fPrime = sigma * chi * (1 - z * s)
+					+ (1 - alpha * r0) * chi2 * c + r0;
+			double fPrime2 = sigma * (1 - z * c)
+					+ (1 - alpha * r0) * chi * (1 - z * s);
+			double root = Math.sqrt(Math.abs(16 * fPrime * fPrime
+					- 20 * f * fPrime2));
+			double change = 5 * f
+					/ (fPrime + Math.copySign(root, fPrime));
+			chi -= change;
+			if (!(Math.abs(change) > 1e-14 * Math.abs(chi))){
+				break;
+			}
+		}
+		double z = alpha * chi * chi;
+		double c = stumpffC(z);
+		double s = stumpffS(z);
+		double chi2 = chi * chi;
+		double f = 1 - chi2 / r0 * c;
+		double g = dt - chi2 * chi / rootMu * s;
+		double newX = f * rx + g * vx;
+		double newY = f * ry + g * vy;
+		double r = Math.sqrt(newX * newX + newY * newY);
+		double fDot = rootMu / (r * r0) * (z * chi * s - chi);
+		double gDot = 1 - chi2 / r * c;
+		relativeX[i] = newX;
+		relativeY[i] = newY;
+		relativeVX[i] = fDot * rx + gDot * vx;
+		relativeVY[i] = fDot * ry + gDot * vy;
+	}
+
+	/** Return the Stumpff function C of a number.*/
+	private static double stumpffC(double z){
+		if (z > 1e-6){
+			return (1 - Math.cos(Math.sqrt(z))) / z;
+		}
+		if (z < -1e-6){
+			return (Math.cosh(Math.sqrt(-z)) - 1) / -z;
+		}
+		return 0.5 - z / 24;
+	}
+
+	/** Return the Stumpff function S of a number.*/
+	private static double stumpffS(double z){
+		if (z > 1e-6){
+			double root = Math.sqrt(z);
+			return (root - Math.sin(root)) / (z * root);
+		}
+		if (z < -1e-6){
+			double root = Math.sqrt(-z);
+			return (Math.sinh(root) - root) / (-z * root);
+		}
+		return 1.0 / 6 - z / 120;
+	}
+
+	/**
+	 * Split a pair the rest of the system pulls on too strongly
+	 * back into two bodies, each on a step short enough for the
+	 * pull within the pair.
+	 *
+	 * @param the index of the first body of the pair
+	 * @param the length of a frame
+	 */
+	private void dissolve(int i, double deltaTime){
+		int j = partner[i];
+		split(i);
+		partner[i] = -1;
+		partner[j] = -1;
+		for (int k : new int[] {i, j}){
+			double a = Math.hypot(store.getAX(k), store.getAY(k));
+			double jerk = Math.hypot(jerkX[k], jerkY[k]);
+			level[k] = levelOf(STARTING_ETA * a / jerk, deltaTime,
+					level[i]);
+		}
+	}
+
+	/**
+	 * Return the level whose time step is the largest power of two
+	 * fraction of a frame no longer than a time step, and no lower
+	 * than a level.
+	 *
+	 * @param the time step
+	 * @param the length of a frame
+	 * @param the lowest level
+	 */
+	private int levelOf(double step, double deltaTime, int lowest){
+		int level = Math.max(lowest, 0);
+		// No pull at all, or no change in it, takes whole frames
+		if (!(step < deltaTime)){
+			return level;
+		}
+		while (level < MAX_LEVEL
+				&& deltaTime / (1L << level) > step){
+			level++;
+		}
+		return level;
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * This class holds the logic behind Morton (Z-order) keys-- how
+ * a pair of cell coordinates is interleaved into a single key,
+ * how it is split apart again, and how a large array of keys is
+ * sorted in parallel so that bodies which are close together in
+ * space end up close together in memory.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class MortonOrder {
+
+	// Number of bits sorted in each pass of the radix sort
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	// Smallest number of keys worth handing to its own thread
+	private static final int MIN_CHUNK = 1 << 14;
+
+	/** Constructor: not used, every method is static.*/
+	private MortonOrder(){
+	}
+
+	/**
+	 * Interleave the bits of two cell coordinates so that the
+	 * bits of x land on the even bits of the key and the bits of
+	 * y land on the odd bits.
+	 *
+	 * @param the x cell coordinate
+	 * @param the y cell coordinate
+	 * @return the Morton key of the cell
+	 */
+	public static long encode(int x, int y){
+		return spread(x) | (spread(y) << 1);
+	}
+
+	/** Return the x cell coordinate stored in a Morton key.*/
+	public static int decodeX(long key){
+		return compact(key);
+	}
+
+	/** Return the y cell coordinate stored in a Morton key.*/
+	public static int decodeY(long key){
+		return compact(key >>> 1);
+	}
+
+	/**
+	 * Spread the lower 32 bits of a value out so that there is
+	 * an empty bit in between each of them.
+	 *
+	 * @param the value to spread
+	 * @return the spread value
+	 */
+	private static long spread(int value){
+		long v = value & 0xFFFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	/**
+	 * Undo the spread by gathering every even bit of a value
+	 * back together.
+	 *
+	 * @param the value to compact
+	 * @return the compacted value
+	 */
+	private static int compact(long value){
+		long v = value & 0x5555555555555555L;
+		v = (v | (v >>> 1)) & 0x3333333333333333L;
+		v = (v | (v >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v >>> 4)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v >>> 8)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+		return (int)v;
+	}
+
+	/**
+	 * Sort the first n keys in ascending order with a stable
+	 * least-significant-digit radix sort, moving the entries of
+	 * the order array along with their keys.
+	 *
+	 * Each pass splits the keys into chunks.  Every chunk counts
+	 * its digits in parallel, the counts are turned into write
+	 * offsets (digit-major, then chunk), and then every chunk
+	 * scatters its keys into place in parallel.  Since the
+	 * offsets of a chunk come before those of later chunks with
+	 * the same digit, every pass stays stable.
+	 *
+	 * @param the keys to sort, all of them non-negative
+	 * @param the array to permute alongside the keys
+	 * @param the number of keys
+	 * @param the number of low bits that are in use in the keys
+	 */
+	public static void sort(long[] keys, int[] order, int n,
+			int bits){
+		int threads = ForkJoinPool.getCommonPoolParallelism();
+		int chunks = Math.max(1, Math.min(threads * 4,
+				n / MIN_CHUNK));
+		int chunkSize = (n + chunks - 1) / chunks;
+		long[] sourceKeys = keys;
+		int[] sourceOrder = order;
+		long[] targetKeys = new long[n];
+		int[] targetOrder = new int[n];
+		int[][] offsets = new int[chunks][RADIX];
+		for (int shift = 0; shift < bits; shift += RADIX_BITS){
+			final int SHIFT = shift;
+			final long[] FROM_KEYS = sourceKeys;
+			final int[] FROM_ORDER = sourceOrder;
+			final long[] TO_KEYS = targetKeys;
+			final int[] TO_ORDER = targetOrder;
+			// Count the digits in every chunk
+			IntStream.range(0, chunks).parallel().forEach(c -> {
+				int[] count = offsets[c];
+				Arrays.fill(count, 0);
+				int end = Math.min(n, (c + 1) * chunkSize);
+				for (int i = c * chunkSize; i < end; i++){
+					count[(int)(FROM_KEYS[i] >>> SHIFT)
+							& (RADIX - 1)]++;
+				}
+			});
+			/*
+			 * Turn the counts into the position each chunk
+			 * writes its first key of each digit to.
+			 */
+			int sum = 0;
+			for (int digit = 0; digit < RADIX; digit++){
+				for (int c = 0; c < chunks; c++){
+					int count = offsets[c][digit];
+					offsets[c][digit] = sum;
+					sum += count;
+				}
+			}
+			// Scatter every chunk into place
+			IntStream.range(0, chunks).parallel().forEach(c -> {
+				int[] offset = offsets[c];
+				int end = Math.min(n, (c + 1) * chunkSize);
+				for (int i = c * chunkSize; i < end; i++){
+					int digit = (int)(FROM_KEYS[i] >>> SHIFT)
+							& (RADIX - 1);
+					int position = offset[digit]++;
+					TO_KEYS[position] = FROM_KEYS[i];
+					TO_ORDER[position] = FROM_ORDER[i];
+				}
+			});
+			// Swap buffers for the next pass
+			sourceKeys = TO_KEYS;
+			sourceOrder = TO_ORDER;
+			targetKeys = FROM_KEYS;
+			targetOrder = FROM_ORDER;
+		}
+		// Make sure the sorted result ends up in the given arrays
+		if (sourceKeys != keys){
+			System.arraycopy(sourceKeys, 0, keys, 0, n);
+			System.arraycopy(sourceOrder, 0, order, 0, n);
+		}
+	}
+}
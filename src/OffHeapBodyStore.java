@@ -0,0 +1,312 @@
+/**
+ * This class is a body store that keeps the positions,
+ * velocities, accelerations, potentials and masses of its bodies
+ * outside of the heap, so that simulations of tens of millions of
+ * bodies do not have to be held and walked over by the garbage
+ * collector.
+ *
+ * The quantities are kept in a single block of memory, either
+ * allocated directly or mapped from a file.  A mapped file can be
+ * read by anything else that maps it, such as a snapshot writer,
+ * without the bodies being copied: the file starts with a header
+ * of HEADER_SIZE bytes holding a magic number, the byte order, the
+ * capacity and the number of bodies, followed by one run of
+ * capacity doubles for each quantity, in the order x, y, vx, vy,
+ * ax, ay, potential and mass.  The header is brought up to date
+ * whenever a snapshot is taken.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+public class OffHeapBodyStore extends BodyStore {
+
+	public static final int MAGIC = 0x4e424f44;
+	public static final int HEADER_SIZE = 64;
+
+	// Quantities, in the order they are laid out in memory
+	private static final int X = 0;
+	private static final int Y = 1;
+	private static final int VX = 2;
+	private static final int VY = 3;
+	private static final int AX = 4;
+	private static final int AY = 5;
+	private static final int POTENTIAL = 6;
+	private static final int MASS = 7;
+	private static final int QUANTITIES = 8;
+
+	// File the memory is mapped from, or null for direct memory
+	private File file;
+
+	private ByteBuffer memory;
+	private DoubleBuffer[] state;
+	private int stateCapacity;
+
+	/**
+	 * Constructor: an empty store in direct memory with a custom
+	 * capacity.
+	 *
+	 * @param the number of bodies to make room for
+	 */
+	public OffHeapBodyStore(int capacity){
+		this(null, capacity);
+	}
+
+	/**
+	 * Constructor: an empty store mapped from a file with a
+	 * custom capacity.  The file is created if need be, and
+	 * anything in it is overwritten.
+	 *
+	 * @param the file to map, or null for direct memory
+	 * @param the number of bodies to make room for
+	 * @throws UncheckedIOException if the file cannot be mapped
+	 */
+	public OffHeapBodyStore(File file, int capacity){
+		super(capacity);
+		this.file = file;
+		state = new DoubleBuffer[QUANTITIES];
+		growState(getCapacity());
+	}
+
+	/** Return the file the store is mapped from, or null.*/
+	public File getFile(){
+		return file;
+	}
+
+	/** Return the x coordinate of a body.*/
+	public double getX(int i){
+		return state[X].get(i);
+	}
+
+	/** Return the y coordinate of a body.*/
+	public double getY(int i){
+		return state[Y].get(i);
+	}
+
+	/** Return the x velocity of a body.*/
+	public double getVX(int i){
+		return state[VX].get(i);
+	}
+
+	/** Return the y velocity of a body.*/
+	public double getVY(int i){
+		return state[VY].get(i);
+	}
+
+	/** Return the x acceleration of a body.*/
+	public double getAX(int i){
+		return state[AX].get(i);
+	}
+
+	/** Return the y acceleration of a body.*/
+	public double getAY(int i){
+		return state[AY].get(i);
+	}
+
+	/** Return the gravitational potential at a body.*/
+	public double getPotential(int i){
+		return state[POTENTIAL].get(i);
+	}
+
+	/** Return the mass of a body.*/
+	public double getMass(int i){
+		return state[MASS].get(i);
+	}
+
+	/**
+	 * Change the position of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x coordinate
+	 * @param the new y coordinate
+	 */
+	public void setPosition(int i, double x, double y){
+		state[X].put(i, x);
+		state[Y].put(i, y);
+	}
+
+	/**
+	 * Change the velocity of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x velocity
+	 * @param the new y velocity
+	 */
+	public void setVelocity(int i, double vx, double vy){
+		state[VX].put(i, vx);
+		state[VY].put(i, vy);
+	}
+
+	/**
+	 * Change the acceleration of a body.
+	 *
+	 * @param the index of the body
+	 * @param the new x acceleration
+	 * @param the new y acceleration
+	 */
+	public void setAcceleration(int i, double ax, double ay){
+		state[AX].put(i, ax);
+		state[AY].put(i, ay);
+	}
+
+	/**
+	 * Change the gravitational potential at a body.
+	 *
+	 * @param the index of the body
+	 * @param the new potential
+	 */
+	public void setPotential(int i, double potential){
+		state[POTENTIAL].put(i, potential);
+	}
+
+	/**
+	 * Change the mass of a body, leaving its radius alone.
+	 *
+	 * @param the index of the body
+	 * @param the new mass
+	 */
+	protected void setMass(int i, double mass){
+		state[MASS].put(i, mass);
+	}
+
+	/**
+	 * Bring the header up to date and, for a mapped file, write
+	 * every change out to the file, so that anything else reading
+	 * the file sees the bodies as they are now.
+	 */
+	@Override
+	public void snapshot(){
+		memory.putInt(0, MAGIC);
+		memory.putInt(4, memory.order() == ByteOrder.BIG_ENDIAN
+				? 0 : 1);
+		memory.putInt(8, stateCapacity);
+		memory.putInt(12, size);
+		if (memory instanceof MappedByteBuffer){
+			((MappedByteBuffer)memory).force();
+		}
+	}
+
+	/**
+	 * Set every quantity of a range of bodies to zero.
+	 *
+	 * @param the index of the first body
+	 * @param the index after the last body
+	 */
+	protected void clearState(int from, int to){
+		for (DoubleBuffer quantity : state){
+			for (int i = from; i < to; i++){
+				quantity.put(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Grow the memory to hold a new number of bodies.  The
+	 * quantities already there are moved from the last to the
+	 * first, since each of them moves further along when the
+	 * memory is mapped from the same file.
+	 *
+	 * @param the new number of bodies
+	 */
+	protected void growState(int length){
+		ByteBuffer grown = allocate(HEADER_SIZE
+				+ (long)QUANTITIES * length * Double.BYTES);
+		DoubleBuffer[] views = new DoubleBuffer[QUANTITIES];
+		for (int q = 0; q < QUANTITIES; q++){
+			views[q] = grown.slice(HEADER_SIZE
+					+ q * length * Double.BYTES,
+					length * Double.BYTES)
+					.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+		if (memory != null){
+			double[] buffer = new double[stateCapacity];
+			for (int q = QUANTITIES - 1; q >= 0; q--){
+				state[q].get(0, buffer);
+				views[q].put(0, buffer);
+			}
+		}
+		memory = grown;
+		state = views;
+		stateCapacity = length;
+		snapshot();
+	}
+
+	/**
+	 * Allocate a block of memory of a given size, either directly
+	 * or by mapping the file.
+	 *
+	 * @param the number of bytes
+	 * @return the block of memory
+	 * @throws UncheckedIOException if the file cannot be mapped
+	 */
+	private ByteBuffer allocate(long bytes){
+		if (bytes > Integer.MAX_VALUE){
+			throw new IllegalArgumentException(
+					"Too many bodies for a single block: " + bytes
+					+ " bytes");
+		}
+		if (file == null){
+			return ByteBuffer.allocateDirect((int)bytes)
+					.order(ByteOrder.nativeOrder());
+		}
+		/*
+		 * The mapping stays valid once the channel is closed, and
+		 * is let go of when the buffer is collected.
+		 */
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)){
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					bytes).order(ByteOrder.nativeOrder());
+		} catch (IOException e){
+			throw new UncheckedIOException("Cannot map " + file, e);
+		}
+	}
+
+	/**
+	 * Rearrange every quantity so that the body at index order[i]
+	 * moves to index i.  Each quantity is gathered in parallel
+	 * into a buffer on the heap, which is then copied back.
+	 *
+	 * @param the new order of the bodies
+	 */
+	protected void gatherState(int[] order){
+		double[] buffer = new double[size];
+		for (DoubleBuffer quantity : state){
+			IntStream.range(0, size).parallel().forEach(
+					i -> buffer[i] = quantity.get(order[i]));
+			quantity.put(0, buffer);
+		}
+	}
+
+	/**
+	 * Rearrange every quantity of a range of bodies so that the
+	 * body at index order[k] moves to index from + k.
+	 *
+	 * @param the new order of the bodies in the range
+	 * @param the index of the first body in the range
+	 */
+	protected void gatherState(int[] order, int from){
+		int n = order.length;
+		double[] buffer = new double[n];
+		for (DoubleBuffer quantity : state){
+			for (int k = 0; k < n; k++){
+				buffer[k] = quantity.get(order[k]);
+			}
+			quantity.put(from, buffer);
+		}
+	}
+}
@@ -0,0 +1,938 @@
+/**
+ * This class builds the quadtree used to approximate the pull of
+ * distant groups of bodies.  The tree is built from Morton keys
+ * so that every step of the construction can run in parallel:
+ *
+ * 1. Every body is given a Morton key inside the square that
+ *    bounds all of the bodies, and the keys are radix sorted.
+ *    The body store is rearranged into that order, so the bodies
+ *    of every node sit next to each other in memory.
+ * 2. A binary radix tree is built over the sorted keys where
+ *    every internal node finds its own range and split point
+ *    without looking at any other node.
+ * 3. Binary nodes that start a new quadtree level are kept as
+ *    quadtree nodes, and nodes holding only a few bodies become
+ *    leaves.
+ * 4. The mass, centre of mass, quadrupole moment and bounds of
+ *    every node are summed from the leaves upwards, where the
+ *    last child to finish carries on to its parent.  A child's
+ *    quadrupole is moved to the centre of mass of its parent
+ *    with the parallel axis theorem.
+ *
+ * Since bodies only move a little between steps, the tree can
+ * also be kept from one step to the next.  Updating it sums the
+ * moments and bounds of every node again in place, and only the
+ * subtrees that a body has wandered too far out of are built
+ * again.  A body may wander anywhere in the quadrant of the parent
+ * its leaf sits in, and a margin beyond it, since walking the tree
+ * only looks at the bounds of a node and never at its cell.
+ * Otherwise a body leaving the tight cell of a small leaf, or
+ * crossing one of the lines through the middle of the root, would
+ * have a large part of the tree built again.  Only so many bodies
+ * are built again by an update, and any other body that has
+ * wandered off is left in its leaf, whose bounds grow to take it
+ * in.  Once too many bodies have wandered off, the whole tree is
+ * built again instead, since then walking the loose tree would
+ * cost more than building it.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+public class QuadTree {
+
+	// Number of levels below the root, and so key bits per axis
+	public static final int MAX_DEPTH = 21;
+	private static final int KEY_BITS = 2 * MAX_DEPTH;
+
+	// Largest number of bodies kept together in a single leaf
+	public static final int LEAF_CAPACITY = 8;
+
+	/*
+	 * Room left around the bodies on every side of the root, as a
+	 * fraction of the extent of the bodies, so that they can move
+	 * for a while before one leaves the root and the tree has to
+	 * be built again
+	 */
+	private static final double ROOT_MARGIN = 0.125;
+
+	/*
+	 * Distance a body may be outside the quadrant its node sits
+	 * in before the node has to be built again, as a fraction of
+	 * the side of the quadrant
+	 */
+	private static final double LOOSENESS = 0.5;
+
+	/*
+	 * Largest share of the bodies that may have wandered off
+	 * before the whole tree is built again, which is also the
+	 * largest share built again by a single update
+	 */
+	private static final double REBUILD_SHARE = 0.125;
+
+	// Parent of a node left behind when its subtree was rebuilt
+	private static final int DEAD = -2;
+
+	private int nodeCount;
+	private int deadCount;
+	private int bodyCount;
+
+	// Layout of the store when the tree was last built or updated
+	private long layoutVersion;
+
+	// Square bounding every body
+	private double rootX, rootY, rootSize;
+
+	// Sorted Morton key of every body
+	private long[] keys;
+
+	// Structure of every node
+	private int[] child;
+	private int[] childCount;
+	private int[] parent;
+	private int[] start, end;
+	private int[] depth;
+	private long[] cell;
+
+	// Moments and bounds of every node
+	private double[] mass;
+	private double[] comX, comY;
+	private double[] minX, minY, maxX, maxY;
+
+	// Quadrupole moment of every node about its centre of mass
+	private double[] quadXX, quadXY, quadYY;
+
+	/** Constructor: an empty tree.*/
+	public QuadTree(){
+		keys = new long[0];
+		ensureNodeCapacity(1);
+	}
+
+	/** Return the number of nodes.*/
+	public int getNodeCount(){
+		return nodeCount;
+	}
+
+	/** Return the index of the root node.*/
+	public int getRoot(){
+		return 0;
+	}
+
+	/** Return the number of children of a node.*/
+	public int getChildCount(int node){
+		return childCount[node];
+	}
+
+	/**
+	 * Return a child of a node.
+	 *
+	 * @param the node
+	 * @param which of the children, from 0 to 3
+	 * @return the child node
+	 */
+	public int getChild(int node, int which){
+		return child[4 * node + which];
+	}
+
+	/** Return the parent of a node, or -1 for the root.*/
+	public int getParent(int node){
+		return parent[node];
+	}
+
+	/** Return whether a node is a leaf.*/
+	public boolean isLeaf(int node){
+		return childCount[node] == 0;
+	}
+
+	/** Return the index of the first body in a node.*/
+	public int getStart(int node){
+		return start[node];
+	}
+
+	/** Return the index after the last body in a node.*/
+	public int getEnd(int node){
+		return end[node];
+	}
+
+	/** Return the level of the cell of a node.*/
+	public int getDepth(int node){
+		return depth[node];
+	}
+
+	/** Return the total mass of a node.*/
+	public double getMass(int node){
+		return mass[node];
+	}
+
+	/** Return the x coordinate of the centre of mass of a node.*/
+	public double getComX(int node){
+		return comX[node];
+	}
+
+	/** Return the y coordinate of the centre of mass of a node.*/
+	public double getComY(int node){
+		return comY[node];
+	}
+
+	/**
+	 * Return the xx part of the quadrupole moment of a node, the
+	 * sum over its bodies of mass times 3x^2 - r^2, measured from
+	 * its centre of mass.
+	 */
+	public double getQuadXX(int node){
+		return quadXX[node];
+	}
+
+	/** Return the xy part of the quadrupole moment of a node.*/
+	public double getQuadXY(int node){
+		return quadXY[node];
+	}
+
+	/** Return the yy part of the quadrupole moment of a node.*/
+	public double getQuadYY(int node){
+		return quadYY[node];
+	}
+
+	/**
+	 * Return the length of the longest side of the box bounding
+	 * the bodies of a node.
+	 */
+	public double getExtent(int node){
+		return Math.max(maxX[node] - minX[node],
+				maxY[node] - minY[node]);
+	}
+
+	/**
+	 * Return the square of the distance from a point to the
+	 * nearest point of the box bounding the bodies of a node,
+	 * which is zero inside the box.
+	 *
+	 * @param the node
+	 * @param the x coordinate
+	 * @param the y coordinate
+	 */
+	public double distanceSquared(int node, double x, double y){
+		double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+		double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+		return dx * dx + dy * dy;
+	}
+
+	/** Return the side length of the cell of a node.*/
+	public double getCellSize(int node){
+		return rootSize / (1L << depth[node]);
+	}
+
+	/**
+	 * Build the tree over every body in the store.  The store is
+	 * rearranged into Morton order as a side effect, so indices
+	 * taken before the build no longer refer to the same bodies.
+	 *
+	 * @param the store holding the bodies
+	 */
+	public void build(BodyStore store){
+		int n = store.size();
+		bodyCount = n;
+		deadCount = 0;
+		nodeCount = 0;
+		if (n == 0){
+			return;
+		}
+		computeRoot(store);
+		if (keys.length < n){
+			keys = new long[n];
+		}
+		nodeCount = 1;
+		buildRange(store, 0, n, 0);
+		parent[0] = -1;
+		computeMoments(store);
+		layoutVersion = store.getLayoutVersion();
+	}
+
+	/**
+	 * Keep the tree built during an earlier step, summing the
+	 * moments and bounds of every node again for the bodies'
+	 * new positions.  Whenever a body has wandered out of the
+	 * room of its leaf, the subtree of the lowest node with room
+	 * for it is built again, as long as the subtrees built again
+	 * hold no more than a share of the bodies between them.  The
+	 * whole tree is built again when the number of bodies has
+	 * changed, when a body has left the room of the root, when
+	 * more than that share of the bodies has wandered off, when
+	 * anything else has rearranged the store, or when too many
+	 * nodes have been left behind.
+	 *
+	 * @param the store holding the bodies
+	 */
+	public void update(BodyStore store){
+		int n = store.size();
+		if (n != bodyCount || n == 0
+				|| store.getLayoutVersion() != layoutVersion){
+			build(store);
+			return;
+		}
+		// Find the nodes whose subtrees have to be rebuilt
+		AtomicIntegerArray isDirty = new AtomicIntegerArray(
+				nodeCount);
+		AtomicBoolean isEscaped = new AtomicBoolean(false);
+		AtomicInteger wandered = new AtomicInteger();
+		IntStream.range(0, nodeCount).parallel().forEach(node -> {
+			if (isLeaf(node) && parent[node] != DEAD){
+				markEscapes(node, store, isDirty, isEscaped,
+						wandered);
+			}
+		});
+		if (isEscaped.get() || wandered.get() > REBUILD_SHARE * n){
+			build(store);
+			return;
+		}
+		/*
+		 * Only rebuild the highest dirty nodes, since their
+		 * subtrees hold any dirty node below them.
+		 */
+		List<Integer> dirtyRoots = new ArrayList<>();
+		for (int node = 0; node < nodeCount; node++){
+			if (isDirty.get(node) == 0){
+				continue;
+			}
+			int p = parent[node];
+			while (p != -1 && isDirty.get(p) == 0){
+				p = parent[p];
+			}
+			if (p == -1){
+				dirtyRoots.add(node);
+			}
+		}
+		if (deadCount > nodeCount / 2){
+			build(store);
+			return;
+		}
+		// The bodies of the nodes left out stay where they are
+		double budget = REBUILD_SHARE * n;
+		for (int node : dirtyRoots){
+			int count = end[node] - start[node];
+			if (count > budget){
+				continue;
+			}
+			budget -= count;
+			killSubtree(node);
+			buildRange(store, start[node], end[node], node);
+		}
+		computeMoments(store);
+		layoutVersion = store.getLayoutVersion();
+	}
+
+	/**
+	 * Check whether each body of a leaf still has room in the
+	 * leaf, and if it does not, mark the lowest node with room
+	 * for it as dirty.
+	 *
+	 * @param the leaf node
+	 * @param the store holding the bodies
+	 * @param the dirty flag of every node
+	 * @param set when a body has left the root altogether
+	 * @param the number of bodies without room in their leaf
+	 */
+	private void markEscapes(int node, BodyStore store,
+			AtomicIntegerArray isDirty, AtomicBoolean isEscaped,
+			AtomicInteger wandered){
+		int count = 0;
+		for (int i = start[node]; i < end[node]; i++){
+			double x = store.getX(i);
+			double y = store.getY(i);
+			int p = node;
+			while (p != -1 && !holds(p, x, y)){
+				p = parent[p];
+			}
+			if (p == -1){
+				isEscaped.set(true);
+				return;
+			}
+			if (p != node){
+				isDirty.set(p, 1);
+				count++;
+			}
+		}
+		if (count > 0){
+			wandered.addAndGet(count);
+		}
+	}
+
+	/**
+	 * Return the depth of the quadrant of its parent that a node
+	 * sits in, which is the whole root square for the root.
+	 *
+	 * @param the node
+	 */
+	private int slotDepth(int node){
+		return parent[node] < 0 ? 0 : depth[parent[node]] + 1;
+	}
+
+	/**
+	 * Return the Morton key of the quadrant of its parent that a
+	 * node sits in, down to the depth of the quadrant.
+	 *
+	 * @param the node
+	 */
+	private long slotCell(int node){
+		return cell[node] >>> 2 * (depth[node] - slotDepth(node));
+	}
+
+	/**
+	 * Return whether a node has room for a point, which is when
+	 * the point is inside the quadrant of its parent the node sits
+	 * in, grown by the looseness on every side.
+	 *
+	 * @param the node
+	 * @param the x coordinate of the point
+	 * @param the y coordinate of the point
+	 */
+	private boolean holds(int node, double x, double y){
+		long slot = slotCell(node);
+		double size = rootSize / (1L << slotDepth(node));
+		double margin = LOOSENESS * size;
+		double slotX = rootX + MortonOrder.decodeX(slot) * size;
+		double slotY = rootY + MortonOrder.decodeY(slot) * size;
+		return x >= slotX - margin && x < slotX + size + margin
+				&& y >= slotY - margin && y < slotY + size + margin;
+	}
+
+	/**
+	 * Leave every node below a node behind, so that the node can
+	 * be built again in place.
+	 *
+	 * @param the node whose descendants are left behind
+	 */
+	private void killSubtree(int node){
+		for (int k = 0; k < childCount[node]; k++){
+			int c = child[4 * node + k];
+			killSubtree(c);
+			parent[c] = DEAD;
+			deadCount++;
+		}
+		childCount[node] = 0;
+	}
+
+	/**
+	 * Sort a range of bodies into Morton order and build the
+	 * quadtree over them.  The root of the new subtree is
+	 * written to the given node, and every other node is added
+	 * after the nodes already in the tree.
+	 *
+	 * @param the store holding the bodies
+	 * @param the index of the first body
+	 * @param the index after the last body
+	 * @param the node to put the root of the subtree in
+	 */
+	private void buildRange(BodyStore store, int from, int to,
+			int rootNode){
+		sortBodies(store, from, to, rootNode);
+		int n = to - from;
+		// Binary radix tree, leaves are numbered after n-1 internals
+		int binaryCount = 2 * n - 1;
+		int[] left = new int[Math.max(n - 1, 0)];
+		int[] right = new int[Math.max(n - 1, 0)];
+		int[] first = new int[binaryCount];
+		int[] last = new int[binaryCount];
+		int[] binaryParent = new int[binaryCount];
+		int[] binaryDepth = new int[binaryCount];
+		binaryParent[0] = -1;
+		IntStream.range(0, n - 1).parallel().forEach(i ->
+				buildInternal(i, from, n, left, right, first, last,
+						binaryParent, binaryDepth));
+		IntStream.range(0, n).parallel().forEach(i -> {
+			first[n - 1 + i] = i;
+			last[n - 1 + i] = i;
+			binaryDepth[n - 1 + i] = MAX_DEPTH;
+		});
+		/*
+		 * Flag the binary nodes that become quadtree nodes and
+		 * number them with a prefix sum.
+		 */
+		int[] index = new int[binaryCount];
+		IntStream.range(0, binaryCount).parallel().forEach(b ->
+				index[b] = isQuadNode(b, first, last, binaryParent,
+						binaryDepth) ? 1 : 0);
+		Arrays.parallelPrefix(index, Integer::sum);
+		/*
+		 * The first quadtree node goes in the root node and the
+		 * rest are numbered on from the end of the tree.
+		 */
+		int base = nodeCount - 1;
+		ensureNodeCapacity(base + index[binaryCount - 1]);
+		int[] node = new int[binaryCount];
+		IntStream.range(0, binaryCount).parallel().forEach(b ->
+				node[b] = index[b] == 1 ? rootNode
+						: base + index[b] - 1);
+		IntStream.range(0, binaryCount).parallel().forEach(b -> {
+			boolean isFlagged = b == 0 ? index[0] == 1
+					: index[b] != index[b - 1];
+			if (isFlagged){
+				fillNode(b, node[b], from, n, left, right, first,
+						last, binaryDepth, node);
+			}
+		});
+		nodeCount += index[binaryCount - 1] - 1;
+	}
+
+	/**
+	 * Find the square that bounds every body, centred on the
+	 * bodies with a margin to spare on every side, so that the
+	 * tree can be updated as the bodies move rather than built
+	 * again as soon as one of the outermost bodies moves out.
+	 *
+	 * @param the store holding the bodies
+	 */
+	private void computeRoot(BodyStore store){
+		double[] bounds = store.getBounds();
+		double size = Math.max(bounds[2] - bounds[0],
+				bounds[3] - bounds[1]);
+		rootSize = size > 0 ? size * (1 + 2 * ROOT_MARGIN) : 1;
+		rootX = (bounds[0] + bounds[2] - rootSize) / 2;
+		rootY = (bounds[1] + bounds[3] - rootSize) / 2;
+	}
+
+	/**
+	 * Give every body in a range its Morton key, sort the keys,
+	 * and rearrange that range of the store into sorted order.
+	 * When only the range of a node is sorted, a body that has
+	 * wandered out of the quadrant the node sits in is given the
+	 * key of the nearest deepest cell inside it, so that the
+	 * subtree built over the range stays where the node is.
+	 *
+	 * @param the store holding the bodies
+	 * @param the index of the first body
+	 * @param the index after the last body
+	 * @param the node the range belongs to
+	 */
+	private void sortBodies(BodyStore store, int from, int to,
+			int rootNode){
+		int n = to - from;
+		boolean isWhole = from == 0 && to == store.size();
+		long[] rangeKeys = from == 0 ? keys : new long[n];
+		int[] order = new int[n];
+		IntStream.range(0, n).parallel().forEach(k -> {
+			double x = store.getX(from + k);
+			double y = store.getY(from + k);
+			rangeKeys[k] = isWhole ? keyOf(x, y)
+					: keyOf(x, y, rootNode);
+			order[k] = from + k;
+		});
+		MortonOrder.sort(rangeKeys, order, n, KEY_BITS);
+		if (isWhole){
+			store.permute(order);
+		} else {
+			store.permute(order, from);
+		}
+		if (rangeKeys != keys){
+			System.arraycopy(rangeKeys, 0, keys, from, n);
+		}
+	}
+
+	/**
+	 * Return the Morton key of the deepest cell holding a point.
+	 *
+	 * @param the x coordinate of the point
+	 * @param the y coordinate of the point
+	 * @return the Morton key of the cell
+	 */
+	long keyOf(double x, double y){
+		int cells = 1 << MAX_DEPTH;
+		int cellX = (int)((x - rootX) / rootSize * cells);
+		int cellY = (int)((y - rootY) / rootSize * cells);
+		cellX = Math.max(0, Math.min(cells - 1, cellX));
+		cellY = Math.max(0, Math.min(cells - 1, cellY));
+		return MortonOrder.encode(cellX, cellY);
+	}
+
+	/**
+	 * Return the Morton key of the deepest cell nearest to a point
+	 * inside the quadrant of its parent that a node sits in.
+	 *
+	 * @param the x coordinate of the point
+	 * @param the y coordinate of the point
+	 * @param the node
+	 * @return the Morton key of the cell
+	 */
+	private long keyOf(double x, double y, int node){
+		long key = keyOf(x, y);
+		long slot = slotCell(node);
+		int bits = MAX_DEPTH - slotDepth(node);
+		int lowX = MortonOrder.decodeX(slot) << bits;
+		int lowY = MortonOrder.decodeY(slot) << bits;
+		int highX = lowX + (1 << bits) - 1;
+		int highY = lowY + (1 << bits) - 1;
+		int cellX = Math.max(lowX, Math.min(highX,
+				MortonOrder.decodeX(key)));
+		int cellY = Math.max(lowY, Math.min(highY,
+				MortonOrder.decodeY(key)));
+		return MortonOrder.encode(cellX, cellY);
+	}
+
+	/**
+	 * Return the number of leading bits shared by the keys of two
+	 * bodies in a range.  Equal keys are told apart by their
+	 * indices, and an index outside of the range shares no bits
+	 * at all.
+	 *
+	 * @param the index of the first body in the range
+	 * @param the number of bodies in the range
+	 * @param the index of the first body, within the range
+	 * @param the index of the second body, within the range
+	 * @return the length of the common prefix
+	 */
+	private int commonPrefix(int from, int n, int i, int j){
+		if (j < 0 || j >= n){
+			return -1;
+		}
+		long a = keys[from + i];
+		long b = keys[from + j];
+		if (a == b){
+			return KEY_BITS + Integer.numberOfLeadingZeros(i ^ j);
+		}
+		return Long.numberOfLeadingZeros(a ^ b) - (64 - KEY_BITS);
+	}
+
+	/**
+	 * Find the range of bodies covered by an internal node of the
+	 * binary radix tree and the point where that range is split
+	 * between its two children.  Every internal node can do this
+	 * on its own, which is what lets the whole tree be built at
+	 * once.
+	 *
+	 * @param the index of the internal node
+	 * @param the index of the first body in the range
+	 * @param the number of bodies in the range
+	 * @param the left children of the internal nodes
+	 * @param the right children of the internal nodes
+	 * @param the first body of every binary node
+	 * @param the last body of every binary node
+	 * @param the parent of every binary node
+	 * @param the quadtree level of every binary node
+	 */
+	private void buildInternal(int i, int from, int n, int[] left,
+			int[] right, int[] first, int[] last, int[] binaryParent,
+			int[] binaryDepth){
+		// Direction of the range from this node
+		int d = commonPrefix(from, n, i, i + 1)
+				> commonPrefix(from, n, i, i - 1) ? 1 : -1;
+		// Find an upper bound for the length of the range
+		int minPrefix = commonPrefix(from, n, i, i - d);
+		int maxLength = 2;
+		while (commonPrefix(from, n, i, i + maxLength * d)
+				> minPrefix){
+			maxLength <<= 1;
+		}
+		// Find the other end of the range with a binary search
+		int length = 0;
+		for (int t = maxLength >> 1; t >= 1; t >>= 1){
+			if (commonPrefix(from, n, i, i + (length + t) * d)
+					> minPrefix){
+				length += t;
+			}
+		}
+		int j = i + length * d;
+		// Find the split position with a binary search
+		int nodePrefix = commonPrefix(from, n, i, j);
+		int split = 0;
+		int t = length;
+		do {
+			t = (t + 1) >> 1;
+			if (commonPrefix(from, n, i, i + (split + t) * d)
+					> nodePrefix){
+				split += t;
+			}
+		} while (t > 1);
+		int gamma = i + split * d + Math.min(d, 0);
+		// Link the children
+		int lo = Math.min(i, j);
+		int hi = Math.max(i, j);
+		left[i] = lo == gamma ? n - 1 + gamma : gamma;
+		right[i] = hi == gamma + 1 ? n - 1 + gamma + 1 : gamma + 1;
+		binaryParent[left[i]] = i;
+		binaryParent[right[i]] = i;
+		first[i] = lo;
+		last[i] = hi;
+		binaryDepth[i] = Math.min(nodePrefix / 2, MAX_DEPTH);
+	}
+
+	/**
+	 * Return whether a binary node becomes a node of the quadtree.
+	 * That is the case for the root, and for any node that starts
+	 * a new level below a quadtree node that holds too many
+	 * bodies to be a leaf.
+	 *
+	 * @param the index of the binary node
+	 * @param the first body of every binary node
+	 * @param the last body of every binary node
+	 * @param the parent of every binary node
+	 * @param the quadtree level of every binary node
+	 * @return whether the node is kept
+	 */
+	private boolean isQuadNode(int b, int[] first, int[] last,
+			int[] binaryParent, int[] binaryDepth){
+		if (b == 0){
+			return true;
+		}
+		int p = binaryParent[b];
+		if (binaryDepth[b] == binaryDepth[p]){
+			return false;
+		}
+		/*
+		 * A parent on the same level as its own parent is only
+		 * half of a quadtree node, so look one further up.
+		 */
+		int q = p;
+		if (p != 0 && binaryDepth[p] == binaryDepth[binaryParent[p]]){
+			q = binaryParent[p];
+		}
+		return last[q] - first[q] + 1 > LEAF_CAPACITY
+				&& binaryDepth[q] < MAX_DEPTH;
+	}
+
+	/**
+	 * Copy a binary node into its place in the quadtree and link
+	 * it to its children, looking through any child that is only
+	 * half of a quadtree node.
+	 *
+	 * @param the index of the binary node
+	 * @param the index of the quadtree node
+	 * @param the index of the first body in the range
+	 * @param the number of bodies in the range
+	 * @param the left children of the internal nodes
+	 * @param the right children of the internal nodes
+	 * @param the first body of every binary node
+	 * @param the last body of every binary node
+	 * @param the quadtree level of every binary node
+	 * @param the quadtree node of every kept binary node
+	 */
+	private void fillNode(int b, int node, int from, int n,
+			int[] left, int[] right, int[] first, int[] last,
+			int[] binaryDepth, int[] nodeOf){
+		start[node] = from + first[b];
+		end[node] = from + last[b] + 1;
+		depth[node] = binaryDepth[b];
+		cell[node] = keys[start[node]] >>> shift(node);
+		childCount[node] = 0;
+		int count = end[node] - start[node];
+		// Binary leaves and small or full-depth nodes are leaves
+		if (b >= n - 1 || count <= LEAF_CAPACITY
+				|| depth[node] == MAX_DEPTH){
+			return;
+		}
+		int children = 0;
+		int[] halves = {left[b], right[b]};
+		for (int c : halves){
+			if (binaryDepth[c] > binaryDepth[b]){
+				children = link(node, children, nodeOf[c]);
+			} else {
+				children = link(node, children, nodeOf[left[c]]);
+				children = link(node, children, nodeOf[right[c]]);
+			}
+		}
+		childCount[node] = children;
+	}
+
+	/**
+	 * Return how far a key has to be shifted down to leave only
+	 * the bits naming the cell of a node.
+	 */
+	private int shift(int node){
+		return 2 * (MAX_DEPTH - depth[node]);
+	}
+
+	/**
+	 * Add a child to a node.
+	 *
+	 * @param the parent node
+	 * @param the number of children the node has so far
+	 * @param the child node
+	 * @return the number of children the node now has
+	 */
+	private int link(int node, int children, int c){
+		child[4 * node + children] = c;
+		parent[c] = node;
+		return children + 1;
+	}
+
+	/**
+	 * Sum the mass, centre of mass, and bounds of every leaf from
+	 * its bodies, and then walk up from each leaf.  Every parent
+	 * counts its finished children, and the last child to finish
+	 * sums the parent before carrying on upwards.  Nodes left
+	 * behind by a rebuilt subtree are skipped.
+	 *
+	 * @param the store holding the bodies
+	 */
+	private void computeMoments(BodyStore store){
+		AtomicIntegerArray finished = new AtomicIntegerArray(
+				nodeCount);
+		IntStream.range(0, nodeCount).parallel().forEach(node -> {
+			if (!isLeaf(node) || parent[node] == DEAD){
+				return;
+			}
+			sumLeaf(node, store);
+			int p = parent[node];
+			while (p != -1 && finished.incrementAndGet(p)
+					== childCount[p]){
+				sumChildren(p);
+				p = parent[p];
+			}
+		});
+	}
+
+	/**
+	 * Sum the moments and bounds of a leaf from its bodies.
+	 *
+	 * @param the leaf node
+	 * @param the store holding the bodies
+	 */
+	void sumLeaf(int node, BodyStore store){
+		double m = 0, mx = 0, my = 0;
+		double x0 = Double.POSITIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+		for (int i = start[node]; i < end[node]; i++){
+			double x = store.getX(i);
+			double y = store.getY(i);
+			double bodyMass = store.getMass(i);
+			m += bodyMass;
+			mx += bodyMass * x;
+			my += bodyMass * y;
+			x0 = Math.min(x0, x);
+			y0 = Math.min(y0, y);
+			x1 = Math.max(x1, x);
+			y1 = Math.max(y1, y);
+		}
+		setMoments(node, m, mx, my, x0, y0, x1, y1);
+		double xx = 0, xy = 0, yy = 0;
+		for (int i = start[node]; i < end[node]; i++){
+			double dx = store.getX(i) - comX[node];
+			double dy = store.getY(i) - comY[node];
+			double bodyMass = store.getMass(i);
+			double r2 = dx * dx + dy * dy;
+			xx += bodyMass * (3 * dx * dx - r2);
+			xy += bodyMass * 3 * dx * dy;
+			yy += bodyMass * (3 * dy * dy - r2);
+		}
+		quadXX[node] = xx;
+		quadXY[node] = xy;
+		quadYY[node] = yy;
+	}
+
+	/**
+	 * Sum the moments and bounds of a node from its children.
+	 *
+	 * @param the node
+	 */
+	void sumChildren(int node){
+		double m = 0, mx = 0, my = 0;
+		double x0 = Double.POSITIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < childCount[node]; k++){
+			int c = child[4 * node + k];
+			m += mass[c];
+			mx += mass[c] * comX[c];
+			my += mass[c] * comY[c];
+			x0 = Math.min(x0, minX[c]);
+			y0 = Math.min(y0, minY[c]);
+			x1 = Math.max(x1, maxX[c]);
+			y1 = Math.max(y1, maxY[c]);
+		}
+		setMoments(node, m, mx, my, x0, y0, x1, y1);
+		// Move the quadrupole of every child to the new centre
+		double xx = 0, xy = 0, yy = 0;
+		for (int k = 0; k < childCount[node]; k++){
+			int c = child[4 * node + k];
+			double dx = comX[c] - comX[node];
+			double dy = comY[c] - comY[node];
+			double r2 = dx * dx + dy * dy;
+			xx += quadXX[c] + mass[c] * (3 * dx * dx - r2);
+			xy += quadXY[c] + mass[c] * 3 * dx * dy;
+			yy += quadYY[c] + mass[c] * (3 * dy * dy - r2);
+		}
+		quadXX[node] = xx;
+		quadXY[node] = xy;
+		quadYY[node] = yy;
+	}
+
+	/**
+	 * Store the moments and bounds of a node.  A node without
+	 * mass keeps the middle of its bounds as its centre.
+	 *
+	 * @param the node
+	 * @param the total mass
+	 * @param the mass-weighted sum of x coordinates
+	 * @param the mass-weighted sum of y coordinates
+	 * @param the smallest x coordinate
+	 * @param the smallest y coordinate
+	 * @param the largest x coordinate
+	 * @param the largest y coordinate
+	 */
+	private void setMoments(int node, double m, double mx,
+			double my, double x0, double y0, double x1, double y1){
+		mass[node] = m;
+		comX[node] = m > 0 ? mx / m : (x0 + x1) / 2;
+		comY[node] = m > 0 ? my / m : (y0 + y1) / 2;
+		minX[node] = x0;
+		minY[node] = y0;
+		maxX[node] = x1;
+		maxY[node] = y1;
+	}
+
+	/**
+	 * Grow the node arrays so that they can hold at least the
+	 * given number of nodes.
+	 *
+	 * @param the number of nodes to make room for
+	 */
+	private void ensureNodeCapacity(int capacity){
+		if (mass != null && mass.length >= capacity){
+			return;
+		}
+		int length = mass == null ? capacity
+				: Math.max(capacity, mass.length * 3 / 2);
+		child = grow(child, 4 * length);
+		childCount = grow(childCount, length);
+		parent = grow(parent, length);
+		start = grow(start, length);
+		end = grow(end, length);
+		depth = grow(depth, length);
+		cell = cell == null ? new long[length]
+				: Arrays.copyOf(cell, length);
+		mass = grow(mass, length);
+		comX = grow(comX, length);
+		comY = grow(comY, length);
+		minX = grow(minX, length);
+		minY = grow(minY, length);
+		maxX = grow(maxX, length);
+		maxY = grow(maxY, length);
+		quadXX = grow(quadXX, length);
+		quadXY = grow(quadXY, length);
+		quadYY = grow(quadYY, length);
+	}
+
+	/** Return a copy of an array with a new length.*/
+	private int[] grow(int[] array, int length){
+		return array == null ? new int[length]
+				: Arrays.copyOf(array, length);
+	}
+
+	/** Return a copy of an array with a new length.*/
+	private double[] grow(double[] array, int length){
+		return array == null ? new double[length]
+				: Arrays.copyOf(array, length);
+	}
+}
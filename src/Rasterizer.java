@@ -0,0 +1,486 @@
+/**
+ * This class draws large numbers of points, circles and lines
+ * into an image without going through Java2D, splitting the image
+ * into square tiles that are drawn in parallel.
+ *
+ * Shapes are first added to a list, which can be filled in in
+ * parallel once room has been made for them.  Drawing then sorts
+ * every shape into each tile it touches, keeping the order the
+ * shapes were added in, and each tile draws its own shapes
+ * straight into its part of the pixels of the image.  No two
+ * tiles share a pixel, so the tiles need no locking, and the
+ * finished image is drawn to the screen in one go.
+ *
+ * Bodies counted into the density of a pixel are drawn first, as
+ * black made more opaque the more bodies there are in the pixel.
+ * Every other shape is drawn over them in the order it was added.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class Rasterizer {
+
+	// Kinds of shape
+	public static final byte NONE = 0;
+	public static final byte DENSITY = 1;
+	public static final byte DOT = 2;
+	public static final byte CIRCLE = 3;
+	public static final byte LINE = 4;
+
+	public static final int OPAQUE = 0xff000000;
+
+	private final int TILE_SIZE = 64;
+	private final int CHUNK_SIZE = 16384;
+	private final int DENSITY_ALPHA = 80;
+	private final int DENSITY_ALPHA_STEP = 40;
+
+	private int width;
+	private int height;
+	private int tilesX;
+	private int tilesY;
+
+	private BufferedImage image;
+	private int[] pixels;
+	private int[] density;
+
+	// Shapes
+	private int shapeCount;
+	private byte[] kind;
+	private float[] x1, y1, x2, y2;
+	private int[] color;
+
+	// Shapes sorted by tile, with the first entry of every tile
+	private int[] binStart;
+	private int[] bins;
+
+	/** Constructor: a rasterizer with an empty list of shapes.*/
+	public Rasterizer(){
+		kind = new byte[0];
+		x1 = new float[0];
+		y1 = new float[0];
+		x2 = new float[0];
+		y2 = new float[0];
+		color = new int[0];
+		bins = new int[0];
+		shapeCount = 0;
+	}
+
+	/** Return the image the shapes are drawn into.*/
+	public BufferedImage getImage(){
+		return image;
+	}
+
+	/** Return the number of shapes added since the last clear.*/
+	public int getShapeCount(){
+		return shapeCount;
+	}
+
+	/**
+	 * Drop every shape and get ready to draw an image of a given
+	 * size.
+	 *
+	 * @param the width of the image
+	 * @param the height of the image
+	 */
+	public void clear(int width, int height){
+		if (image == null || width != this.width
+				|| height != this.height){
+			this.width = width;
+			this.height = height;
+			tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+			tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+			image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+			pixels = ((DataBufferInt)image.getRaster()
+					.getDataBuffer()).getData();
+			density = new int[width * height];
+			binStart = new int[tilesX * tilesY + 1];
+		}
+		shapeCount = 0;
+	}
+
+	/**
+	 * Make room for a number of shapes, which can then be set in
+	 * parallel.  Shapes left unset are not drawn.
+	 *
+	 * @param the number of shapes
+	 * @return the index of the first shape
+	 */
+	public int reserve(int count){
+		int first = shapeCount;
+		int needed = shapeCount + count;
+		if (needed > kind.length){
+			int length = Math.max(needed, kind.length * 2);
+			kind = Arrays.copyOf(kind, length);
+			x1 = Arrays.copyOf(x1, length);
+			y1 = Arrays.copyOf(y1, length);
+			x2 = Arrays.copyOf(x2, length);
+			y2 = Arrays.copyOf(y2, length);
+			color = Arrays.copyOf(color, length);
+		}
+		Arrays.fill(kind, first, needed, NONE);
+		shapeCount = needed;
+		return first;
+	}
+
+	/**
+	 * Set a shape to a body counted into the density of the pixel
+	 * it falls in.
+	 *
+	 * @param the index of the shape
+	 * @param the x coordinate on the screen
+	 * @param the y coordinate on the screen
+	 */
+	public void setDensity(int s, float x, float y){
+		kind[s] = isInside(x, y) ? DENSITY : NONE;
+		x1[s] = x;
+		y1[s] = y;
+	}
+
+	/**
+	 * Set a shape to a single pixel of a colour.
+	 *
+	 * @param the index of the shape
+	 * @param the x coordinate on the screen
+	 * @param the y coordinate on the screen
+	 * @param the colour, with its alpha
+	 */
+	public void setDot(int s, float x, float y, int argb){
+		kind[s] = isInside(x, y) ? DOT : NONE;
+		x1[s] = x;
+		y1[s] = y;
+		color[s] = argb;
+	}
+
+	/**
+	 * Set a shape to the outline of a circle.
+	 *
+	 * @param the index of the shape
+	 * @param the x coordinate of the centre on the screen
+	 * @param the y coordinate of the centre on the screen
+	 * @param the diameter in pixels
+	 * @param the colour, with its alpha
+	 */
+	public void setCircle(int s, float x, float y, float diameter,
+			int argb){
+		float r = diameter / 2;
+		boolean isVisible = x + r >= 0 && x - r < width
+				&& y + r >= 0 && y - r < height;
+		kind[s] = isVisible ? CIRCLE : NONE;
+		x1[s] = x;
+		y1[s] = y;
+		x2[s] = r;
+		color[s] = argb;
+	}
+
+	/**
+	 * Set a shape to a line.  Lines shorter than a pixel are not
+	 * drawn.
+	 *
+	 * @param the index of the shape
+	 * @param the x coordinate of the start on the screen
+	 * @param the y coordinate of the start on the screen
+	 * @param the x coordinate of the end on the screen
+	 * @param the y coordinate of the end on the screen
+	 * @param the colour, with its alpha
+	 */
+	public void setLine(int s, float startX, float startY,
+			float endX, float endY, int argb){
+		boolean isVisible = (Math.abs(endX - startX) >= 1
+				|| Math.abs(endY - startY) >= 1)
+				&& Math.max(startX, endX) >= 0
+				&& Math.min(startX, endX) < width
+				&& Math.max(startY, endY) >= 0
+				&& Math.min(startY, endY) < height;
+		kind[s] = isVisible ? LINE : NONE;
+		x1[s] = startX;
+		y1[s] = startY;
+		x2[s] = endX;
+		y2[s] = endY;
+		color[s] = argb;
+	}
+
+	/** Return whether a point falls on the image.*/
+	private boolean isInside(float x, float y){
+		return x >= 0 && x < width && y >= 0 && y < height;
+	}
+
+	/**
+	 * Draw every shape into the image.
+	 *
+	 * @return the image
+	 */
+	public BufferedImage draw(){
+		binShapes();
+		IntStream.range(0, tilesX * tilesY).parallel().forEach(
+				this::drawTile);
+		return image;
+	}
+
+	/**
+	 * Sort every shape into each tile it touches.  The shapes
+	 * are split into chunks that count and then place their
+	 * shapes in parallel, with the room of every tile laid out
+	 * chunk after chunk so that the order of the shapes is kept.
+	 */
+	private void binShapes(){
+		int tiles = tilesX * tilesY;
+		int chunks = Math.max(1, (shapeCount + CHUNK_SIZE - 1)
+				/ CHUNK_SIZE);
+		int[][] counts = new int[chunks][tiles];
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			int[] count = counts[c];
+			int end = Math.min(shapeCount, (c + 1) * CHUNK_SIZE);
+			for (int s = c * CHUNK_SIZE; s < end; s++){
+				if (kind[s] == NONE){
+					continue;
+				}
+				if (kind[s] == DENSITY || kind[s] == DOT){
+					count[pointTile(s)]++;
+					continue;
+				}
+				int[] range = tileRange(s);
+				for (int ty = range[1]; ty <= range[3]; ty++){
+					for (int tx = range[0]; tx <= range[2]; tx++){
+						count[ty * tilesX + tx]++;
+					}
+				}
+			}
+		});
+		// Turn the counts into offsets, tile by tile
+		int total = 0;
+		for (int t = 0; t < tiles; t++){
+			binStart[t] = total;
+			for (int c = 0; c < chunks; c++){
+				int count = counts[c][t];
+				counts[c][t] = total;
+				total += count;
+			}
+		}
+		binStart[tiles] = total;
+		if (bins.length < total){
+			bins = new int[Math.max(total, bins.length * 2)];
+		}
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			int[] offset = counts[c];
+			int end = Math.min(shapeCount, (c + 1) * CHUNK_SIZE);
+			for (int s = c * CHUNK_SIZE; s < end; s++){
+				if (kind[s] == NONE){
+					continue;
+				}
+				if (kind[s] == DENSITY || kind[s] == DOT){
+					bins[offset[pointTile(s)]++] = s;
+					continue;
+				}
+				int[] range = tileRange(s);
+				for (int ty = range[1]; ty <= range[3]; ty++){
+					for (int tx = range[0]; tx <= range[2]; tx++){
+						bins[offset[ty * tilesX + tx]++] = s;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Return the tile a shape of a single pixel falls in, which
+	 * is always on the image.
+	 *
+	 * @param the index of the shape
+	 */
+	private int pointTile(int s){
+		return ((int)y1[s] / TILE_SIZE) * tilesX
+				+ (int)x1[s] / TILE_SIZE;
+	}
+
+	/**
+	 * Return the first and last column and row of the tiles a
+	 * shape of more than a pixel touches, clamped to the image.
+	 *
+	 * @param the index of the shape
+	 */
+	private int[] tileRange(int s){
+		float minX, minY, maxX, maxY;
+		if (kind[s] == CIRCLE){
+			minX = x1[s] - x2[s];
+			maxX = x1[s] + x2[s];
+			minY = y1[s] - x2[s];
+			maxY = y1[s] + x2[s];
+		} else if (kind[s] == LINE){
+			minX = Math.min(x1[s], x2[s]);
+			maxX = Math.max(x1[s], x2[s]);
+			minY = Math.min(y1[s], y2[s]);
+			maxY = Math.max(y1[s], y2[s]);
+		} else {
+			minX = maxX = x1[s];
+			minY = maxY = y1[s];
+		}
+		return new int[]{tileOf(minX, tilesX), tileOf(minY, tilesY),
+				tileOf(maxX, tilesX), tileOf(maxY, tilesY)};
+	}
+
+	/** Return the tile column or row of a coordinate, clamped.*/
+	private int tileOf(float coordinate, int tiles){
+		int tile = (int)Math.floor(coordinate / TILE_SIZE);
+		return Math.max(0, Math.min(tiles - 1, tile));
+	}
+
+	/**
+	 * Draw every shape sorted into a tile into its part of the
+	 * image.
+	 *
+	 * @param the index of the tile
+	 */
+	private void drawTile(int tile){
+		int left = (tile % tilesX) * TILE_SIZE;
+		int top = (tile / tilesX) * TILE_SIZE;
+		int right = Math.min(width, left + TILE_SIZE);
+		int bottom = Math.min(height, top + TILE_SIZE);
+		for (int y = top; y < bottom; y++){
+			Arrays.fill(density, y * width + left, y * width + right,
+					0);
+		}
+		int from = binStart[tile];
+		int to = binStart[tile + 1];
+		for (int b = from; b < to; b++){
+			int s = bins[b];
+			if (kind[s] == DENSITY){
+				density[(int)y1[s] * width + (int)x1[s]]++;
+			}
+		}
+		for (int y = top; y < bottom; y++){
+			for (int p = y * width + left; p < y * width + right; p++){
+				int count = density[p];
+				pixels[p] = count == 0 ? 0 : Math.min(255,
+						DENSITY_ALPHA + DENSITY_ALPHA_STEP
+						* (count - 1)) << 24;
+			}
+		}
+		for (int b = from; b < to; b++){
+			int s = bins[b];
+			if (kind[s] == DOT){
+				pixels[(int)y1[s] * width + (int)x1[s]] = color[s];
+			} else if (kind[s] == CIRCLE){
+				drawCircle(s, left, top, right, bottom);
+			} else if (kind[s] == LINE){
+				drawLine(s, left, top, right, bottom);
+			}
+		}
+	}
+
+	/**
+	 * Draw the part of the outline of a circle that falls in a
+	 * tile, one eighth of the circle at a time.
+	 *
+	 * @param the index of the shape
+	 * @param the left edge of the tile
+	 * @param the top edge of the tile
+	 * @param the right edge of the tile, exclusive
+	 * @param the bottom edge of the tile, exclusive
+	 */
+	private void drawCircle(int s, int left, int top, int right,
+			int bottom){
+		int cx = (int)Math.floor(x1[s]);
+		int cy = (int)Math.floor(y1[s]);
+		int r = Math.round(x2[s]);
+		int argb = color[s];
+		int x = r;
+		int y = 0;
+		int error = 1 - r;
+		while (x >= y){
+			plot(cx + x, cy + y, argb, left, top, right, bottom);
+			plot(cx + y, cy + x, argb, left, top, right, bottom);
+			plot(cx - y, cy + x, argb, left, top, right, bottom);
+			plot(cx - x, cy + y, argb, left, top, right, bottom);
+			plot(cx - x, cy - y, argb, left, top, right, bottom);
+			plot(cx - y, cy - x, argb, left, top, right, bottom);
+			plot(cx + y, cy - x, argb, left, top, right, bottom);
+			plot(cx + x, cy - y, argb, left, top, right, bottom);
+			y++;
+			if (error < 0){
+				error += 2 * y + 1;
+			} else {
+				x--;
+				error += 2 * (y - x) + 1;
+			}
+		}
+	}
+
+	/**
+	 * Draw the part of a line that falls in a tile.  The line is
+	 * first cut down to the tile, so that a long line only costs
+	 * each tile the pixels it has in it.
+	 *
+	 * @param the index of the shape
+	 * @param the left edge of the tile
+	 * @param the top edge of the tile
+	 * @param the right edge of the tile, exclusive
+	 * @param the bottom edge of the tile, exclusive
+	 */
+	private void drawLine(int s, int left, int top, int right,
+			int bottom){
+		double startX = Math.floor(x1[s]);
+		double startY = Math.floor(y1[s]);
+		double dx = Math.floor(x2[s]) - startX;
+		double dy = Math.floor(y2[s]) - startY;
+		int steps = (int)Math.max(Math.abs(dx), Math.abs(dy));
+		if (steps == 0){
+			plot((int)startX, (int)startY, color[s], left, top,
+					right, bottom);
+			return;
+		}
+		// Cut the line down to the tile, padded by half a pixel
+		double[] t = {0, 1};
+		if (!clip(-dx, startX - (left - 0.5), t)
+				|| !clip(dx, (right - 0.5) - startX, t)
+				|| !clip(-dy, startY - (top - 0.5), t)
+				|| !clip(dy, (bottom - 0.5) - startY, t)){
+			return;
+		}
+		int first = (int)Math.ceil(t[0] * steps);
+		int last = (int)Math.floor(t[1] * steps);
+		for (int k = first; k <= last; k++){
+			int x = (int)Math.round(startX + dx * k / steps);
+			int y = (int)Math.round(startY + dy * k / steps);
+			plot(x, y, color[s], left, top, right, bottom);
+		}
+	}
+
+	/**
+	 * Narrow the range of a line inside one edge of a box, as in
+	 * the clipping of Liang and Barsky.
+	 *
+	 * @param how fast the line moves towards the edge
+	 * @param how far the start of the line is inside the edge
+	 * @param the range of the line inside every edge so far
+	 * @return whether any of the line is left
+	 */
+	private boolean clip(double towards, double inside, double[] t){
+		if (towards == 0){
+			return inside >= 0;
+		}
+		double crossing = inside / towards;
+		if (towards < 0){
+			t[0] = Math.max(t[0], crossing);
+		} else {
+			t[1] = Math.min(t[1], crossing);
+		}
+		return t[0] <= t[1];
+	}
+
+	/** Set a pixel of the image if it falls in the tile.*/
+	private void plot(int x, int y, int argb, int left, int top,
+			int right, int bottom){
+		if (x >= left && x < right && y >= top && y < bottom){
+			pixels[y * width + x] = argb;
+		}
+	}
+}
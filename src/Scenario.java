@@ -0,0 +1,412 @@
+/**
+ * This class generates the starting conditions of large
+ * simulations straight into a body store.  Every generator draws
+ * from a random number generator seeded when the scenario is
+ * created, so the same seed and the same calls always give the
+ * same bodies.
+ *
+ * Bodies are filled in parallel in fixed-size chunks, and every
+ * chunk is handed its own generator split off in order from the
+ * scenario's generator, which keeps the result the same no matter
+ * how many threads do the work.
+ *
+ * A scenario can also be given a slice, a run of the bodies in
+ * the order they are generated, and then only keeps the bodies
+ * of its slice.  It draws the same random numbers as without the
+ * slice, so several processes can each generate their own part of
+ * a scenario and together hold exactly the bodies of the whole.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+public class Scenario {
+
+	private final double G = Simulator.GRAVITATIONAL_CONSTANT;
+	private final double TWO_PI = 2 * Math.PI;
+
+	// Number of bodies filled with the same generator
+	private final int CHUNK_SIZE = 4096;
+
+	// Names of the generators, as chosen by name
+	public static final String[] NAMES = {"Uniform", "Plummer Sphere",
+			"Disk", "Hierarchical Binary", "Colliding Galaxies"};
+
+	private SplittableRandom random;
+	private int bodyRadius;
+
+	// Bodies kept, and the number generated so far
+	private int sliceFrom;
+	private int sliceTo;
+	private int generated;
+
+	/**
+	 * Constructor: a scenario with a custom seed.
+	 *
+	 * @param the seed of the random number generator
+	 */
+	public Scenario(long seed){
+		random = new SplittableRandom(seed);
+		bodyRadius = 1;
+		sliceFrom = 0;
+		sliceTo = Integer.MAX_VALUE;
+		generated = 0;
+	}
+
+	/** Return the radius given to generated bodies.*/
+	public int getBodyRadius(){
+		return bodyRadius;
+	}
+
+	/**
+	 * Change the radius given to generated bodies.
+	 *
+	 * @param the new radius
+	 */
+	public void setBodyRadius(int bodyRadius){
+		this.bodyRadius = bodyRadius;
+	}
+
+	/**
+	 * Keep only a run of the bodies generated from now on, counted
+	 * in the order they are generated, and leave out the rest.
+	 *
+	 * @param the index of the first body to keep
+	 * @param the index after the last body to keep
+	 */
+	public void setSlice(int from, int to){
+		sliceFrom = from;
+		sliceTo = to;
+		generated = 0;
+	}
+
+	/**
+	 * Add the bodies of a generator chosen by name, laid out to
+	 * fill a screen of a given size with the default settings of
+	 * that generator.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the name of the generator, one of NAMES
+	 * @param the number of bodies to generate
+	 * @param the width of the screen
+	 * @param the height of the screen
+	 * @param the mass of all of the bodies together
+	 * @throws IllegalArgumentException if there is no such
+	 *   generator
+	 */
+	public void generate(BodyStore store, String name, int count,
+			double width, double height, double totalMass){
+		double x = width / 2;
+		double y = height / 2;
+		if (name.equalsIgnoreCase("Uniform")){
+			uniform(store, count, 0, 0, width, height, totalMass);
+		} else if (name.equalsIgnoreCase("Plummer Sphere")){
+			plummer(store, count, x, y, 80, totalMass);
+		} else if (name.equalsIgnoreCase("Disk")){
+			disk(store, count, x, y, 60, totalMass / 2,
+					totalMass / 2, 0, 0);
+		} else if (name.equalsIgnoreCase("Hierarchical Binary")){
+			// The largest hierarchy with at most count bodies
+			int levels = Math.max(1, 31
+					- Integer.numberOfLeadingZeros(count));
+			hierarchical(store, x, y, 300, totalMass, levels, 0.3);
+		} else if (name.equalsIgnoreCase("Colliding Galaxies")){
+			collidingGalaxies(store, count, x, y, 500, 40,
+					totalMass);
+		} else {
+			throw new IllegalArgumentException(
+					"Unknown scenario: " + name);
+		}
+	}
+
+	/**
+	 * Add bodies spread evenly over a rectangle, all at rest.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the number of bodies
+	 * @param the x coordinate of the top-left corner
+	 * @param the y coordinate of the top-left corner
+	 * @param the width of the rectangle
+	 * @param the height of the rectangle
+	 * @param the mass of all of the bodies together
+	 */
+	public void uniform(BodyStore store, int count, double x,
+			double y, double width, double height,
+			double totalMass){
+		double mass = totalMass / count;
+		fill(store, count, (target, i, random) -> {
+			target.setPosition(i, x + random.nextDouble() * width,
+					y + random.nextDouble() * height);
+			target.setMass(i, mass, bodyRadius);
+		});
+	}
+
+	/**
+	 * Add a Plummer sphere laid out in the plane of the
+	 * simulation.  The distance of each body from the centre
+	 * follows the Plummer profile, and the speed of each body is
+	 * drawn from the Plummer distribution of speeds at that
+	 * distance, pointing in a random direction.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the number of bodies
+	 * @param the x coordinate of the centre
+	 * @param the y coordinate of the centre
+	 * @param the Plummer scale radius
+	 * @param the mass of all of the bodies together
+	 */
+	public void plummer(BodyStore store, int count, double x,
+			double y, double scaleRadius, double totalMass){
+		double mass = totalMass / count;
+		fill(store, count, (target, i, random) -> {
+			// Distance from the inverse of the enclosed mass
+			double r;
+			do {
+				double u = random.nextDouble();
+				r = scaleRadius / Math.sqrt(1 / Math.cbrt(u * u)
+						- 1);
+			} while (!(r < 20 * scaleRadius));
+			double phi = random.nextDouble() * TWO_PI;
+			// Speed as a fraction of the escape speed
+			double q, g;
+			boolean isRejected;
+			do {
+				q = random.nextDouble();
+				g = random.nextDouble() * 0.1;
+				double p = 1 - q * q;
+				isRejected = g > q * q * p * p * p * Math.sqrt(p);
+			} while (isRejected);
+			double escapeSpeed = Math.sqrt(2 * G * totalMass
+					/ Math.sqrt(r * r + scaleRadius * scaleRadius));
+			double psi = random.nextDouble() * TWO_PI;
+			target.setPosition(i, x + r * Math.cos(phi),
+					y + r * Math.sin(phi));
+			target.setVelocity(i, q * escapeSpeed * Math.cos(psi),
+					q * escapeSpeed * Math.sin(psi));
+			target.setMass(i, mass, bodyRadius);
+		});
+	}
+
+	/**
+	 * Add a disk whose density falls off exponentially from the
+	 * centre, with every body on a circular orbit around the
+	 * mass inside of it.  A central body is added first when the
+	 * central mass is above zero.  The disk turns anticlockwise
+	 * on the screen.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the number of bodies in the disk
+	 * @param the x coordinate of the centre
+	 * @param the y coordinate of the centre
+	 * @param the scale length of the disk
+	 * @param the mass of the disk
+	 * @param the mass of the central body
+	 * @param the x velocity of the whole disk
+	 * @param the y velocity of the whole disk
+	 */
+	public void disk(BodyStore store, int count, double x,
+			double y, double scaleLength, double diskMass,
+			double centralMass, double vx, double vy){
+		if (centralMass > 0){
+			add(store, x, y, vx, vy, centralMass);
+		}
+		double mass = diskMass / count;
+		fill(store, count, (target, i, random) -> {
+			/*
+			 * The distance of a body in an exponential disk
+			 * follows a gamma distribution of shape 2.
+			 */
+			double r = -scaleLength * Math.log(
+					(1 - random.nextDouble())
+					* (1 - random.nextDouble()));
+			double phi = random.nextDouble() * TWO_PI;
+			double enclosed = centralMass + diskMass * (1
+					- (1 + r / scaleLength)
+					* Math.exp(-r / scaleLength));
+			double speed = r > 0 ? Math.sqrt(G * enclosed / r) : 0;
+			target.setPosition(i, x + r * Math.cos(phi),
+					y + r * Math.sin(phi));
+			target.setVelocity(i, vx + speed * Math.sin(phi),
+					vy - speed * Math.cos(phi));
+			target.setMass(i, mass, bodyRadius);
+		});
+	}
+
+	/**
+	 * Add two bodies on a circular orbit around their shared
+	 * centre of mass, with the line between them at a random
+	 * angle.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the x coordinate of the centre of mass
+	 * @param the y coordinate of the centre of mass
+	 * @param the distance between the bodies
+	 * @param the mass of the first body
+	 * @param the mass of the second body
+	 */
+	public void binary(BodyStore store, double x, double y,
+			double separation, double mass1, double mass2){
+		binary(store, x, y, 0, 0, separation, mass1, mass2, 0, 1);
+	}
+
+	/**
+	 * Add a hierarchy of binaries: two subsystems on a circular
+	 * orbit around each other, each of which is itself a binary
+	 * of two smaller subsystems, down to single bodies.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the x coordinate of the centre of mass
+	 * @param the y coordinate of the centre of mass
+	 * @param the distance between the two outermost subsystems
+	 * @param the mass of all of the bodies together
+	 * @param the number of levels, giving 2^levels bodies
+	 * @param the ratio of the separation of each level to the
+	 *   one above it
+	 */
+	public void hierarchical(BodyStore store, double x, double y,
+			double separation, double totalMass, int levels,
+			double ratio){
+		binary(store, x, y, 0, 0, separation, totalMass / 2,
+				totalMass / 2, levels - 1, ratio);
+	}
+
+	/**
+	 * Add a binary whose two halves are either single bodies or
+	 * smaller binaries of their own.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the x coordinate of the centre of mass
+	 * @param the y coordinate of the centre of mass
+	 * @param the x velocity of the centre of mass
+	 * @param the y velocity of the centre of mass
+	 * @param the distance between the two halves
+	 * @param the mass of the first half
+	 * @param the mass of the second half
+	 * @param the number of levels below this one
+	 * @param the ratio of the separation of each level to the
+	 *   one above it
+	 */
+	private void binary(BodyStore store, double x, double y,
+			double vx, double vy, double separation, double mass1,
+			double mass2, int levels, double ratio){
+		double total = mass1 + mass2;
+		double phi = random.nextDouble() * TWO_PI;
+		double cos = Math.cos(phi);
+		double sin = Math.sin(phi);
+		// Relative speed of a circular orbit
+		double speed = Math.sqrt(G * total / separation);
+		double[] masses = {mass1, mass2};
+		double[] shares = {-mass2 / total, mass1 / total};
+		for (int k = 0; k < 2; k++){
+			double px = x + shares[k] * separation * cos;
+			double py = y + shares[k] * separation * sin;
+			double pvx = vx - shares[k] * speed * sin;
+			double pvy = vy + shares[k] * speed * cos;
+			if (levels > 0){
+				binary(store, px, py, pvx, pvy, separation * ratio,
+						masses[k] / 2, masses[k] / 2, levels - 1,
+						ratio);
+			} else {
+				add(store, px, py, pvx, pvy, masses[k]);
+			}
+		}
+	}
+
+	/**
+	 * Add two disk galaxies, each with half of the bodies and a
+	 * central body holding half of its mass, headed towards each
+	 * other slightly off-centre so that they pass through each
+	 * other rather than meeting head on.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the number of bodies in both disks together
+	 * @param the x coordinate of the point between the galaxies
+	 * @param the y coordinate of the point between the galaxies
+	 * @param the starting distance between the galaxies
+	 * @param the scale length of each disk
+	 * @param the mass of both galaxies together
+	 */
+	public void collidingGalaxies(BodyStore store, int count,
+			double x, double y, double separation,
+			double scaleLength, double totalMass){
+		double galaxyMass = totalMass / 2;
+		double speed = 0.5 * Math.sqrt(G * totalMass / separation);
+		disk(store, count / 2, x - separation / 2,
+				y - separation / 8, scaleLength, galaxyMass / 2,
+				galaxyMass / 2, speed, 0);
+		disk(store, count - count / 2, x + separation / 2,
+				y + separation / 8, scaleLength, galaxyMass / 2,
+				galaxyMass / 2, -speed, 0);
+	}
+
+	/**
+	 * Add a single body if it is in the slice.
+	 *
+	 * @param the store to add the body to
+	 * @param the x coordinate
+	 * @param the y coordinate
+	 * @param the x velocity
+	 * @param the y velocity
+	 * @param the mass
+	 */
+	private void add(BodyStore store, double x, double y, double vx,
+			double vy, double mass){
+		if (generated >= sliceFrom && generated < sliceTo){
+			store.add(x, y, vx, vy, mass, bodyRadius);
+		}
+		generated++;
+	}
+
+	/**
+	 * Add the bodies of a number in the slice to the store in one
+	 * go and fill in each of them in parallel.  Only the chunks
+	 * holding bodies of the slice are filled, and the bodies of
+	 * those chunks before the slice are filled into a scratch
+	 * store and thrown away, to draw the same numbers.
+	 *
+	 * @param the store to add the bodies to
+	 * @param the number of bodies
+	 * @param what to fill each body in with
+	 */
+	private void fill(BodyStore store, int count, BodyFiller filler){
+		int start = generated;
+		generated += count;
+		// The run of the bodies that is in the slice
+		int from = (int)Math.min(count, Math.max(0,
+				(long)sliceFrom - start));
+		int to = (int)Math.min(count, Math.max(from,
+				(long)sliceTo - start));
+		int first = store.addBodies(to - from) - from;
+		int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		SplittableRandom[] randoms = new SplittableRandom[chunks];
+		for (int c = 0; c < chunks; c++){
+			randoms[c] = random.split();
+		}
+		if (from == to){
+			return;
+		}
+		IntStream.range(from / CHUNK_SIZE, (to - 1) / CHUNK_SIZE + 1)
+				.parallel().forEach(c -> {
+			BodyStore scratch = new DoubleBodyStore(1);
+			scratch.addBodies(1);
+			int end = Math.min(to, (c + 1) * CHUNK_SIZE);
+			for (int k = c * CHUNK_SIZE; k < end; k++){
+				if (k < from){
+					filler.fill(scratch, 0, randoms[c]);
+				} else {
+					filler.fill(store, first + k, randoms[c]);
+				}
+			}
+		});
+	}
+
+	/** Fill in the state of a single generated body.*/
+	private interface BodyFiller{
+		void fill(BodyStore target, int i, SplittableRandom random);
+	}
+}
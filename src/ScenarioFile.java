@@ -0,0 +1,501 @@
+/**
+ * This class loads the starting conditions of a simulation from
+ * a file into a body store.  Two formats are read:
+ *
+ * - CSV, one body per line with the columns x, y, vx, vy, mass
+ *   and an optional radius.  A header line naming the columns
+ *   may put them in any order.  Blank lines and lines starting
+ *   with '#' are skipped.
+ * - JSON, either an array of bodies or an object with a "bodies"
+ *   array, where every body is an object with the same fields.
+ *
+ * Velocities are in screen coordinates, the same as the store.
+ * A body without a radius is given a radius of 1.
+ *
+ * A file can also be loaded a run of bodies at a time, so that
+ * several processes can each hold only a part of it.  CSV files
+ * are read a line at a time and only the rows of the run are
+ * kept, while JSON files are always parsed whole.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ScenarioFile {
+
+	private static final String[] COLUMNS = {"x", "y", "vx", "vy",
+			"mass", "radius"};
+	private static final int DEFAULT_RADIUS = 1;
+
+	/** Constructor: not used, every method is static.*/
+	private ScenarioFile(){
+	}
+
+	/**
+	 * Load every body in a file into the store, choosing the
+	 * format from the file extension.
+	 *
+	 * @param the file to load
+	 * @param the store to add the bodies to
+	 * @return the number of bodies added
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static int load(File file, BodyStore store)
+			throws IOException{
+		return load(file, store, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Load a run of the bodies in a file into the store, choosing
+	 * the format from the file extension.
+	 *
+	 * @param the file to load
+	 * @param the store to add the bodies to
+	 * @param the index in the file of the first body to load
+	 * @param the index after the last body to load
+	 * @return the number of bodies added
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static int load(File file, BodyStore store, int from,
+			int to) throws IOException{
+		List<double[]> rows = new ArrayList<>();
+		read(file, from, to, rows);
+		return addRows(rows, store);
+	}
+
+	/**
+	 * Return the number of bodies in a file without keeping any
+	 * of them.
+	 *
+	 * @param the file to count
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static int count(File file) throws IOException{
+		return read(file, 0, 0, new ArrayList<>());
+	}
+
+	/**
+	 * Read every body in a file, choosing the format from the file
+	 * extension, and keep those of a run.
+	 *
+	 * @param the file to read
+	 * @param the index in the file of the first body to keep
+	 * @param the index after the last body to keep
+	 * @param the list to add the fields of the kept bodies to
+	 * @return the number of bodies in the file
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	private static int read(File file, int from, int to,
+			List<double[]> rows) throws IOException{
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".json")){
+			return readJson(file, from, to, rows);
+		}
+		return readCsv(file, from, to, rows);
+	}
+
+	/**
+	 * Load every body in a CSV file into the store.
+	 *
+	 * @param the file to load
+	 * @param the store to add the bodies to
+	 * @return the number of bodies added
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static int loadCsv(File file, BodyStore store)
+			throws IOException{
+		List<double[]> rows = new ArrayList<>();
+		readCsv(file, 0, Integer.MAX_VALUE, rows);
+		return addRows(rows, store);
+	}
+
+	/**
+	 * Read every body in a CSV file and keep those of a run.
+	 *
+	 * @param the file to read
+	 * @param the index in the file of the first body to keep
+	 * @param the index after the last body to keep
+	 * @param the list to add the fields of the kept bodies to
+	 * @return the number of bodies in the file
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	private static int readCsv(File file, int from, int to,
+			List<double[]> rows) throws IOException{
+		// Column of each field, in the default order to start
+		int[] columnOf = {0, 1, 2, 3, 4, 5};
+		int count = 0;
+		try (BufferedReader reader = Files.newBufferedReader(
+				file.toPath(), StandardCharsets.UTF_8)){
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null){
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")){
+					continue;
+				}
+				String[] cells = line.split("\\s*,\\s*");
+				// A first line that is not a number is a header
+				if (count == 0 && !isNumber(cells[0])){
+					columnOf = readHeader(cells, lineNumber);
+					continue;
+				}
+				double[] row = readRow(cells, columnOf, lineNumber);
+				if (count >= from && count < to){
+					rows.add(row);
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Work out the column of each field from a header line.
+	 *
+	 * @param the cells of the header line
+	 * @param the line number, for error messages
+	 * @return the column of each field, or -1 if it is missing
+	 * @throws IOException if a required field is missing
+	 */
+	private static int[] readHeader(String[] cells, int lineNumber)
+			throws IOException{
+		int[] columnOf = new int[COLUMNS.length];
+		for (int f = 0; f < COLUMNS.length; f++){
+			columnOf[f] = -1;
+			for (int c = 0; c < cells.length; c++){
+				if (cells[c].equalsIgnoreCase(COLUMNS[f])){
+					columnOf[f] = c;
+				}
+			}
+			if (columnOf[f] == -1 && f < COLUMNS.length - 1){
+				throw new IOException("Line " + lineNumber
+						+ ": missing column " + COLUMNS[f]);
+			}
+		}
+		return columnOf;
+	}
+
+	/**
+	 * Read the fields of a single body from a line.
+	 *
+	 * @param the cells of the line
+	 * @param the column of each field
+	 * @param the line number, for error messages
+	 * @return the fields of the body
+	 * @throws IOException if a cell is missing or not a number
+	 */
+	private static double[] readRow(String[] cells, int[] columnOf,
+			int lineNumber) throws IOException{
+		double[] row = new double[COLUMNS.length];
+		row[5] = DEFAULT_RADIUS;
+		for (int f = 0; f < COLUMNS.length; f++){
+			int c = columnOf[f];
+			if (c == -1 || c >= cells.length){
+				if (f < COLUMNS.length - 1){
+					throw new IOException("Line " + lineNumber
+							+ ": missing " + COLUMNS[f]);
+				}
+				continue;
+			}
+			try {
+				row[f] = Double.parseDouble(cells[c]);
+			} catch (NumberFormatException e){
+				throw new IOException("Line " + lineNumber
+						+ ": " + COLUMNS[f] + " is not a number");
+			}
+		}
+		return row;
+	}
+
+	/** Return whether a string can be read as a number.*/
+	private static boolean isNumber(String cell){
+		try {
+			Double.parseDouble(cell);
+			return true;
+		} catch (NumberFormatException e){
+			return false;
+		}
+	}
+
+	/**
+	 * Load every body in a JSON file into the store.
+	 *
+	 * @param the file to load
+	 * @param the store to add the bodies to
+	 * @return the number of bodies added
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static int loadJson(File file, BodyStore store)
+			throws IOException{
+		List<double[]> rows = new ArrayList<>();
+		readJson(file, 0, Integer.MAX_VALUE, rows);
+		return addRows(rows, store);
+	}
+
+	/**
+	 * Read every body in a JSON file and keep those of a run.
+	 *
+	 * @param the file to read
+	 * @param the index in the file of the first body to keep
+	 * @param the index after the last body to keep
+	 * @param the list to add the fields of the kept bodies to
+	 * @return the number of bodies in the file
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	private static int readJson(File file, int from, int to,
+			List<double[]> rows) throws IOException{
+		String text = new String(Files.readAllBytes(file.toPath()),
+				StandardCharsets.UTF_8);
+		Object root = new JsonParser(text).parse();
+		if (root instanceof Map){
+			root = ((Map<?, ?>)root).get("bodies");
+		}
+		if (!(root instanceof List)){
+			throw new IOException("Expected an array of bodies");
+		}
+		int count = 0;
+		for (Object item : (List<?>)root){
+			if (!(item instanceof Map)){
+				throw new IOException("Body " + count
+						+ " is not an object");
+			}
+			Map<?, ?> body = (Map<?, ?>)item;
+			double[] row = new double[COLUMNS.length];
+			row[5] = DEFAULT_RADIUS;
+			for (int f = 0; f < COLUMNS.length; f++){
+				Object value = body.get(COLUMNS[f]);
+				if (value instanceof Double){
+					row[f] = (Double)value;
+				} else if (f < COLUMNS.length - 1){
+					throw new IOException("Body " + count
+							+ ": missing " + COLUMNS[f]);
+				}
+			}
+			if (count >= from && count < to){
+				rows.add(row);
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Add every row that was read to the store in one go.
+	 *
+	 * @param the fields of every body
+	 * @param the store to add the bodies to
+	 * @return the number of bodies added
+	 */
+	private static int addRows(List<double[]> rows, BodyStore store){
+		int first = store.addBodies(rows.size());
+		for (int k = 0; k < rows.size(); k++){
+			double[] row = rows.get(k);
+			store.setPosition(first + k, row[0], row[1]);
+			store.setVelocity(first + k, row[2], row[3]);
+			store.setMass(first + k, row[4], (int)row[5]);
+		}
+		return rows.size();
+	}
+
+	/**
+	 * Read just enough JSON for scenario files: objects become
+	 * maps, arrays become lists, numbers become doubles, and
+	 * strings, booleans and null are kept as they are.
+	 */
+	private static class JsonParser{
+
+		private String text;
+		private int position;
+
+		/**
+		 * Constructor: a parser over some text.
+		 *
+		 * @param the text to parse
+		 */
+		JsonParser(String text){
+			this.text = text;
+			position = 0;
+		}
+
+		/**
+		 * Parse the whole text as a single value.
+		 *
+		 * @return the value
+		 * @throws IOException if the text is not valid JSON
+		 */
+		Object parse() throws IOException{
+			Object value = readValue();
+			skipSpace();
+			if (position < text.length()){
+				throw error("Unexpected text after the end");
+			}
+			return value;
+		}
+
+		/** Read the next value of any kind.*/
+		private Object readValue() throws IOException{
+			skipSpace();
+			if (position >= text.length()){
+				throw error("Unexpected end of file");
+			}
+			char c = text.charAt(position);
+			if (c == '{'){
+				return readObject();
+			}
+			if (c == '['){
+				return readArray();
+			}
+			if (c == '"'){
+				return readString();
+			}
+			if (text.startsWith("true", position)){
+				position += 4;
+				return Boolean.TRUE;
+			}
+			if (text.startsWith("false", position)){
+				position += 5;
+				return Boolean.FALSE;
+			}
+			if (text.startsWith("null", position)){
+				position += 4;
+				return null;
+			}
+			return readNumber();
+		}
+
+		/** Read an object into a map.*/
+		private Map<String, Object> readObject() throws IOException{
+			Map<String, Object> map = new HashMap<>();
+			position++;
+			skipSpace();
+			if (peek() == '}'){
+				position++;
+				return map;
+			}
+			while (true){
+				skipSpace();
+				String key = readString();
+				skipSpace();
+				expect(':');
+				map.put(key, readValue());
+				skipSpace();
+				if (peek() == ','){
+					position++;
+				} else {
+					expect('}');
+					return map;
+				}
+			}
+		}
+
+		/** Read an array into a list.*/
+		private List<Object> readArray() throws IOException{
+			List<Object> list = new ArrayList<>();
+			position++;
+			skipSpace();
+			if (peek() == ']'){
+				position++;
+				return list;
+			}
+			while (true){
+				list.add(readValue());
+				skipSpace();
+				if (peek() == ','){
+					position++;
+				} else {
+					expect(']');
+					return list;
+				}
+			}
+		}
+
+		/** Read a string, handling the simple escapes.*/
+		private String readString() throws IOException{
+			expect('"');
+			StringBuilder builder = new StringBuilder();
+			while (position < text.length()){
+				char c = text.charAt(position++);
+				if (c == '"'){
+					return builder.toString();
+				}
+				if (c == '\\' && position < text.length()){
+					char escaped = text.charAt(position++);
+					if (escaped == 'u'
+							&& position + 4 <= text.length()){
+						builder.append((char)Integer.parseInt(
+								text.substring(position,
+										position + 4), 16));
+						position += 4;
+					} else if (escaped == 'n'){
+						builder.append('\n');
+					} else if (escaped == 't'){
+						builder.append('\t');
+					} else {
+						builder.append(escaped);
+					}
+				} else {
+					builder.append(c);
+				}
+			}
+			throw error("Unterminated string");
+		}
+
+		/** Read a number.*/
+		private Double readNumber() throws IOException{
+			int begin = position;
+			while (position < text.length()
+					&& "+-0123456789.eE".indexOf(
+							text.charAt(position)) >= 0){
+				position++;
+			}
+			try {
+				return Double.parseDouble(
+						text.substring(begin, position));
+			} catch (NumberFormatException e){
+				throw error("Expected a value");
+			}
+		}
+
+		/** Skip any white space.*/
+		private void skipSpace(){
+			while (position < text.length()
+					&& Character.isWhitespace(
+							text.charAt(position))){
+				position++;
+			}
+		}
+
+		/** Return the next character, or 0 at the end.*/
+		private char peek(){
+			return position < text.length()
+					? text.charAt(position) : 0;
+		}
+
+		/** Step over a character that has to come next.*/
+		private void expect(char c) throws IOException{
+			if (peek() != c){
+				throw error("Expected '" + c + "'");
+			}
+			position++;
+		}
+
+		/** Return an error naming the current position.*/
+		private IOException error(String message){
+			return new IOException(message + " at character "
+					+ position);
+		}
+	}
+}
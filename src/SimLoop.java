@@ -4,20 +4,25 @@
  * executed in time steps rather than the run time of the hardware.
  * 
  * Author: Tomas L. Dougan
- * Date of last modification: 23 June 2020
+ * Date of last modification: 18 October 2026
  */
 
 package nbodysim;
 
 public abstract class SimLoop implements Runnable{
 	
-	private boolean running;
+	private volatile boolean running;
 	
 	/** Constructor: Set running to true.*/
 	public SimLoop(){
 		running = true;
 	}
 	
+	/** Stop the loop once it is done with the current frame.*/
+	public void stop(){
+		running = false;
+	}
+	
 	/** Begin execution of the loop.*/
 	@Override
 	public void run(){
@@ -1,19 +1,30 @@
 /**
  * This class is used to hold the graphics logic behind the
  * simulation-- how, where, and when lines are drawn to the 
- * screen
+ * screen.  Everything is drawn through a camera, which turns
+ * positions in the world into pixels on the screen.
+ * 
+ * Frames are either painted by Swing whenever it gets around to
+ * a repaint, or, with active rendering, drawn by the simulation
+ * loop itself into a back buffer in video memory and put on the
+ * screen straight away, so that every frame is shown and the time
+ * it takes is known.
  * 
  * Author: Tomas L. Dougan
- * Date of last modification: 22 June 2020
+ * Date of last modification: 18 October 2026
  */
 
 package nbodysim;
 
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.VolatileImage;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.stream.IntStream;
 
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 public class SimPanel extends JPanel{
@@ -22,10 +33,38 @@ public class SimPanel extends JPanel{
 	private final int WIDTH;
 	private final int HEIGHT;
 	
+	/*
+	 * Bodies no wider than this many pixels are counted into the
+	 * density of a pixel instead of being drawn as circles.
+	 */
+	private final int POINT_SIZE = 1;
+	
 	// Lists
 	private ArrayList<Body> bodies;
 	private ArrayList<Position> newBodyPositions;
 	private ArrayList<Position> mousePositions;
+	private ArrayList<BodyPath> storePaths;
+	
+	// Scenario bodies, null while bodies are added by clicking
+	private BodyStore store;
+	
+	// Draws the scenario bodies and their paths in parallel tiles
+	private Rasterizer rasterizer;
+	
+	// Screen coordinates of the scenario bodies
+	private float[] screenX;
+	private float[] screenY;
+	
+	// Coordinates of the points drawn along the paths
+	private float[] pathX;
+	private float[] pathY;
+	
+	private Camera camera;
+	
+	// Active rendering
+	private boolean isActiveRendering;
+	private VolatileImage backBuffer;
+	private long frameTime;
 	
 	// Booleans
 	private boolean isAddingBody;
@@ -48,22 +87,147 @@ public class SimPanel extends JPanel{
 		bodies = new ArrayList<>();
 		newBodyPositions = new ArrayList<>();
 		mousePositions = new ArrayList<>();
+		storePaths = new ArrayList<>();
+		store = null;
+		camera = new Camera(WIDTH, HEIGHT);
+		rasterizer = new Rasterizer();
+		screenX = new float[0];
+		screenY = new float[0];
+		pathX = new float[0];
+		pathY = new float[0];
 		
 		isAddingBody = false;
 		isTracingPaths = false;
 		isPaused = false;
 		isColoringPaths = false;
 		isShowingNetForces = false;
+		isActiveRendering = false;
+		frameTime = 0;
 	}
 	
 	/**
 	 * Use the information set by the update method to draw
-	 * the correct lines to the screen.
+	 * the correct lines to the screen.  With active rendering
+	 * the last frame is shown again instead.
 	 */
 	@Override
 	public void paintComponent(Graphics g){
+		VolatileImage backBuffer = this.backBuffer;
+		if (isActiveRendering && backBuffer != null){
+			g.drawImage(backBuffer, 0, 0, null);
+			return;
+		}
+		paintScene(g);
+	}
+	
+	/**
+	 * Draw a frame from the thread of the simulation loop into
+	 * the back buffer, along with the text of every label on the
+	 * panel, and put it on the screen.  The frame is drawn again
+	 * whenever the contents of the back buffer are lost on the
+	 * way.
+	 */
+	public void renderFrame(){
+		long start = System.nanoTime();
+		GraphicsConfiguration configuration = 
+				getGraphicsConfiguration();
+		int width = getWidth();
+		int height = getHeight();
+		if (configuration == null || width <= 0 || height <= 0){
+			return;
+		}
+		do {
+			if (backBuffer == null 
+					|| backBuffer.getWidth() != width
+					|| backBuffer.getHeight() != height
+					|| backBuffer.validate(configuration) 
+					== VolatileImage.IMAGE_INCOMPATIBLE){
+				backBuffer = configuration.createCompatibleVolatileImage(
+						width, height);
+			}
+			paintFrame(backBuffer.createGraphics());
+			Graphics screen = getGraphics();
+			if (screen != null){
+				screen.drawImage(backBuffer, 0, 0, null);
+				screen.dispose();
+			}
+		} while (backBuffer.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+		frameTime = System.nanoTime() - start;
+	}
+	
+	/**
+	 * Draw a frame into an image off of the screen the same way
+	 * it would be drawn on the screen, at the size of the panel.
+	 * 
+	 * @param the image to draw into
+	 */
+	public void renderTo(Image image){
+		paintFrame((Graphics2D)image.getGraphics());
+	}
+	
+	/**
+	 * Draw the whole scene along with the text of every label on
+	 * the panel, and let go of the graphics afterwards.
+	 * 
+	 * @param the graphics to draw with
+	 */
+	private void paintFrame(Graphics2D g){
+		g.setBackground(getBackground());
+		g.setColor(getForeground());
+		g.setFont(getFont());
+		paintScene(g);
+		paintLabels(g);
+		g.dispose();
+	}
+	
+	/**
+	 * Draw the text of every label shown on the panel, since the
+	 * labels themselves are only painted by Swing.
+	 * 
+	 * @param the graphics to draw with
+	 */
+	private void paintLabels(Graphics g){
+		for (Component component : getComponents()){
+			if (component instanceof JLabel && component.isVisible()){
+				JLabel label = (JLabel)component;
+				g.setFont(label.getFont());
+				g.setColor(label.getForeground());
+				g.drawString(label.getText(), label.getX(), 
+						label.getY() + g.getFontMetrics().getAscent());
+			}
+		}
+	}
+	
+	/**
+	 * Draw the whole scene.
+	 * 
+	 * @param the graphics to draw with
+	 */
+	private void paintScene(Graphics g){
 		// Delete lines from the previous frame
-		g.clearRect(0, 0, WIDTH, HEIGHT);
+		g.clearRect(0, 0, getWidth(), getHeight());
+		camera.setViewSize(getWidth(), getHeight());
+		if (store != null){
+			paintStore(g);
+		}
+		/*
+		 * The bodies added by clicking are few, so Java2D moves
+		 * them onto the screen.
+		 */
+		Graphics2D g2 = (Graphics2D)g.create();
+		g2.transform(camera.getTransform());
+		paintBodies(g2);
+		g2.dispose();
+	}
+	
+	/**
+	 * Draw the bodies added by clicking, along with the lines
+	 * of the bodies being added, in world coordinates.
+	 * 
+	 * @param the graphics to draw with
+	 */
+	private void paintBodies(Graphics g){
 		for (Body body : bodies){
 			// Draw each body
 			int x = (int)body.getPosition().x 
@@ -89,18 +253,7 @@ public class SimPanel extends JPanel{
 				g.drawLine(x1, y1, x2, y2);
 			}
 			if (isTracingPaths){
-				BodyPath path = body.getPath();
-				// Draw the paths
-				for (int i = 0; i < path.list.size(); i++){
-					// Set the color
-					if(isColoringPaths){
-						g.setColor(path.getColor());
-					}
-					g.drawLine((int)path.list.get(i).x, 
-							(int)path.list.get(i).y, 
-							(int)path.list.get(i).x, 
-							(int)path.list.get(i).y);
-				}
+				drawPath(g, body.getPath());
 			}
 			// Reset the color in case the paths are colored
 			g.setColor(Color.BLACK);
@@ -131,6 +284,141 @@ public class SimPanel extends JPanel{
 		}
 	}
 	
+	/**
+	 * Draw every body of a scenario that can be seen, with the
+	 * net force worked out from the acceleration and mass of each
+	 * body.  Every body is first moved onto the screen by the
+	 * camera in one pass.  The bodies, the net forces and the
+	 * points of the paths are then handed to the rasterizer in
+	 * parallel, which draws them in parallel tiles into a single
+	 * image, so that no body costs a call into Java2D.  Bodies too
+	 * small to draw as a circle are counted into the density of
+	 * the pixel they fall in.
+	 * 
+	 * @param the graphics to draw with
+	 */
+	private void paintStore(Graphics g){
+		BodyStore store = this.store;
+		int width = getWidth();
+		int height = getHeight();
+		if (width <= 0 || height <= 0){
+			return;
+		}
+		int n = store.size();
+		if (screenX.length < n){
+			screenX = new float[n];
+			screenY = new float[n];
+		}
+		float[] screenX = this.screenX;
+		float[] screenY = this.screenY;
+		camera.project(store, screenX, screenY);
+		double zoom = camera.getZoom();
+		rasterizer.clear(width, height);
+		if (isShowingNetForces){
+			int first = rasterizer.reserve(n);
+			IntStream.range(0, n).parallel().forEach(i -> {
+				double scale = store.getMass(i) * zoom;
+				rasterizer.setLine(first + i, screenX[i], screenY[i],
+						(float)(screenX[i] + store.getAX(i) * scale),
+						(float)(screenY[i] + store.getAY(i) * scale),
+						Rasterizer.OPAQUE);
+			});
+		}
+		int first = rasterizer.reserve(n);
+		IntStream.range(0, n).parallel().forEach(i -> {
+			int diameter = (int)(store.getRadius(i) * zoom);
+			if (diameter <= POINT_SIZE){
+				rasterizer.setDensity(first + i, screenX[i], 
+						screenY[i]);
+			} else {
+				rasterizer.setCircle(first + i, screenX[i], 
+						screenY[i], diameter, Rasterizer.OPAQUE);
+			}
+		});
+		if (isTracingPaths){
+			rasterizePaths(zoom, camera.getOffsetX(), 
+					camera.getOffsetY());
+		}
+		g.drawImage(rasterizer.draw(), 0, 0, null);
+	}
+	
+	/**
+	 * Hand every point of the paths of the scenario bodies that
+	 * can be seen to the rasterizer, filling in the paths in
+	 * parallel.
+	 * 
+	 * @param the zoom of the camera
+	 * @param the x shift of the camera transform
+	 * @param the y shift of the camera transform
+	 */
+	private void rasterizePaths(double zoom, double offsetX, 
+			double offsetY){
+		ArrayList<BodyPath> paths = storePaths;
+		double spacing = 1 / zoom;
+		Rectangle2D view = camera.getView();
+		int[] offsets = new int[paths.size() + 1];
+		for (int p = 0; p < paths.size(); p++){
+			offsets[p + 1] = offsets[p] 
+					+ paths.get(p).getPointCount(spacing, view);
+		}
+		int total = offsets[paths.size()];
+		ensurePathCapacity(total);
+		float[] pathX = this.pathX;
+		float[] pathY = this.pathY;
+		int first = rasterizer.reserve(total);
+		IntStream.range(0, paths.size()).parallel().forEach(p -> {
+			BodyPath path = paths.get(p);
+			int color = isColoringPaths 
+					? Rasterizer.OPAQUE | path.getColor().getRGB() 
+					: Rasterizer.OPAQUE;
+			// The path may have changed since it was counted
+			int start = offsets[p];
+			int count = path.interpolate(spacing, view, zoom, 
+					offsetX, offsetY, pathX, pathY, start, 
+					offsets[p + 1]);
+			for (int k = start; k < start + count; k++){
+				rasterizer.setDot(first + k, pathX[k], pathY[k], color);
+			}
+		});
+	}
+	
+	/**
+	 * Draw the part of a path that can be seen as single points a
+	 * pixel apart, or one point for every position if it is not
+	 * interpolated.
+	 * 
+	 * @param the graphics to draw with
+	 * @param the path to draw
+	 */
+	private void drawPath(Graphics g, BodyPath path){
+		// Set the color
+		if(isColoringPaths){
+			g.setColor(path.getColor());
+		}
+		double spacing = 1 / camera.getZoom();
+		Rectangle2D view = camera.getView();
+		int count = path.getPointCount(spacing, view);
+		ensurePathCapacity(count);
+		count = path.interpolate(spacing, view, 1, 0, 0, pathX, pathY, 
+				0, count);
+		for (int k = 0; k < count; k++){
+			g.drawLine((int)pathX[k], (int)pathY[k], (int)pathX[k], 
+					(int)pathY[k]);
+		}
+	}
+	
+	/**
+	 * Make sure there is room for a number of path points.
+	 * 
+	 * @param the number of points
+	 */
+	private void ensurePathCapacity(int count){
+		if (pathX.length < count){
+			pathX = new float[count];
+			pathY = new float[count];
+		}
+	}
+	
 	/**
 	 * Receive and match the values passed through the method
 	 * so that they are in sync with the simulation.
@@ -157,6 +445,47 @@ public class SimPanel extends JPanel{
 		this.isShowingNetForces = isShowingNetForces;
 	}
 	
+	/**
+	 * Change the store of scenario bodies to draw along with the
+	 * paths of those bodies, indexed by id.
+	 * 
+	 * @param the store, or null when there is no scenario
+	 * @param the paths of the bodies in the store
+	 */
+	public void setStore(BodyStore store, 
+			ArrayList<BodyPath> storePaths){
+		this.store = store;
+		this.storePaths = storePaths;
+	}
+	
+	/** Return whether the loop draws the frames itself.*/
+	public boolean isActiveRendering(){
+		return isActiveRendering;
+	}
+	
+	/**
+	 * Switch between active rendering and painting through Swing.
+	 * 
+	 * @param whether the loop draws the frames itself
+	 */
+	public void setActiveRendering(boolean isActiveRendering){
+		this.isActiveRendering = isActiveRendering;
+		setIgnoreRepaint(isActiveRendering);
+		if (!isActiveRendering){
+			backBuffer = null;
+		}
+	}
+	
+	/** Return the nanoseconds it took to draw the last frame.*/
+	public long getFrameTime(){
+		return frameTime;
+	}
+	
+	/** Return the camera the simulation is drawn through.*/
+	public Camera getCamera(){
+		return camera;
+	}
+	
 	/** Set isPaused to true.*/
 	public void pause(){
 		isPaused = true;
@@ -0,0 +1,301 @@
+/**
+ * This class holds the binary protocol spoken between a
+ * simulation server and its viewers, along with the logic for
+ * writing and reading its messages.
+ *
+ * Every message is an int giving the number of bytes that follow,
+ * then a byte giving the type of the message, then its contents,
+ * all in network byte order.  Viewers send commands:
+ *
+ *   ADD_BODY       x, y, vx, vy and mass as doubles, radius as an
+ *                  int
+ *   PAUSE, RESUME  nothing
+ *   SET_PARAMETER  the parameter as a byte, its value as a double
+ *   LOAD_SCENARIO  the number of bodies as an int, the name of the
+ *                  generator as a short length and UTF-8 bytes
+ *   CLEAR          nothing
+ *
+ * and the server sends frames.  Every frame starts with the step
+ * as a long, the flags as a byte and the number of bodies as an
+ * int, and then lists the bodies in the order of their ids.
+ * Positions are rounded to a fixed grid of 1 / QUANTUM units, so
+ * that the server and its viewers agree on them exactly:
+ *
+ *   KEY_FRAME      for every body its radius, x and y as ints
+ *   DELTA_FRAME    for every body the change in x and in y since
+ *                  the frame before, as variable-length ints
+ *
+ * A change of less than 64 steps of the grid takes a single byte,
+ * so a delta frame is usually an eighth of the size of a key
+ * frame.  Viewers that join late or fall behind are sent a key
+ * frame before any more delta frames.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class SimProtocol {
+
+	public static final int DEFAULT_PORT = 7272;
+
+	// Commands
+	public static final byte ADD_BODY = 1;
+	public static final byte PAUSE = 2;
+	public static final byte RESUME = 3;
+	public static final byte SET_PARAMETER = 4;
+	public static final byte LOAD_SCENARIO = 5;
+	public static final byte CLEAR = 6;
+
+	// Frames
+	public static final byte KEY_FRAME = 16;
+	public static final byte DELTA_FRAME = 17;
+
+	// Parameters
+	public static final byte TIME_SCALE = 0;
+	public static final byte THETA = 1;
+	public static final byte ENGINE = 2;
+
+	// Values of the engine parameter
+	public static final int DIRECT_ENGINE = 0;
+	public static final int TREE_ENGINE = 1;
+
+	// Flags
+	public static final byte PAUSED = 1;
+
+	// Grid steps to a unit of the world
+	public static final double QUANTUM = 16;
+
+	// Bytes before the bodies of a frame
+	public static final int FRAME_HEADER_SIZE = 4 + 1 + 8 + 1 + 4;
+
+	// Largest command a viewer may send
+	public static final int MAX_COMMAND_SIZE = 1 << 12;
+
+	/** Do not create instances of the protocol.*/
+	private SimProtocol(){
+	}
+
+	/**
+	 * Return a coordinate rounded to the grid, held to the range
+	 * of an int.
+	 *
+	 * @param the coordinate
+	 */
+	public static int quantize(double coordinate){
+		double scaled = Math.rint(coordinate * QUANTUM);
+		if (!(scaled > Integer.MIN_VALUE)){
+			return Integer.MIN_VALUE;
+		}
+		return (int)Math.min(scaled, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Return a coordinate on the grid as a coordinate in the world.
+	 *
+	 * @param the coordinate on the grid
+	 */
+	public static double dequantize(int coordinate){
+		return coordinate / QUANTUM;
+	}
+
+	/**
+	 * Write an int in as few bytes as its size needs, seven bits
+	 * to a byte, folding the sign into the lowest bit so small
+	 * changes either way stay small.
+	 *
+	 * @param the buffer to write into
+	 * @param the value to write
+	 */
+	public static void putVarInt(ByteBuffer buffer, int value){
+		int bits = (value << 1) ^ (value >> 31);
+		while ((bits & ~0x7f) != 0){
+			buffer.put((byte)((bits & 0x7f) | 0x80));
+			bits >>>= 7;
+		}
+		buffer.put((byte)bits);
+	}
+
+	/**
+	 * Read an int written by putVarInt.
+	 *
+	 * @param the buffer to read from
+	 * @return the value read
+	 */
+	public static int getVarInt(ByteBuffer buffer){
+		int bits = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			bits |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0 && shift < 35);
+		return (bits >>> 1) ^ -(bits & 1);
+	}
+
+	/**
+	 * Begin a message by leaving room for its length and writing
+	 * its type.
+	 *
+	 * @param the buffer to write into
+	 * @param the type of the message
+	 * @return the position of the length, for endMessage
+	 */
+	public static int beginMessage(ByteBuffer buffer, byte type){
+		int start = buffer.position();
+		buffer.putInt(0);
+		buffer.put(type);
+		return start;
+	}
+
+	/**
+	 * End a message by filling in its length.
+	 *
+	 * @param the buffer written into
+	 * @param the position returned by beginMessage
+	 */
+	public static void endMessage(ByteBuffer buffer, int start){
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+
+	/**
+	 * Write a command without any contents.
+	 *
+	 * @param the buffer to write into
+	 * @param the type of the command
+	 */
+	public static void putCommand(ByteBuffer buffer, byte type){
+		endMessage(buffer, beginMessage(buffer, type));
+	}
+
+	/**
+	 * Write a command adding a body.
+	 *
+	 * @param the buffer to write into
+	 * @param the x coordinate
+	 * @param the y coordinate
+	 * @param the x velocity
+	 * @param the y velocity
+	 * @param the mass
+	 * @param the radius
+	 */
+	public static void putAddBody(ByteBuffer buffer, double x,
+			double y, double vx, double vy, double mass, int radius){
+		int start = beginMessage(buffer, ADD_BODY);
+		buffer.putDouble(x).putDouble(y).putDouble(vx).putDouble(vy)
+				.putDouble(mass).putInt(radius);
+		endMessage(buffer, start);
+	}
+
+	/**
+	 * Write a command changing a parameter.
+	 *
+	 * @param the buffer to write into
+	 * @param the parameter
+	 * @param the new value
+	 */
+	public static void putSetParameter(ByteBuffer buffer,
+			byte parameter, double value){
+		int start = beginMessage(buffer, SET_PARAMETER);
+		buffer.put(parameter).putDouble(value);
+		endMessage(buffer, start);
+	}
+
+	/**
+	 * Write a command loading a generated scenario.
+	 *
+	 * @param the buffer to write into
+	 * @param the name of the generator
+	 * @param the number of bodies
+	 */
+	public static void putLoadScenario(ByteBuffer buffer,
+			String name, int count){
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int start = beginMessage(buffer, LOAD_SCENARIO);
+		buffer.putInt(count).putShort((short)bytes.length).put(bytes);
+		endMessage(buffer, start);
+	}
+
+	/**
+	 * Read a string written as a short length and UTF-8 bytes.
+	 *
+	 * @param the buffer to read from
+	 * @return the string read
+	 */
+	public static String getString(ByteBuffer buffer){
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return the most bytes a frame of a number of bodies can
+	 * take.
+	 *
+	 * @param the number of bodies
+	 */
+	public static int getMaxFrameSize(int count){
+		return FRAME_HEADER_SIZE + count * 3 * Integer.BYTES;
+	}
+
+	/**
+	 * Write a key frame of the bodies of a store, and remember
+	 * their positions on the grid for the next delta frame.
+	 *
+	 * @param the buffer to write into, with room for the frame
+	 * @param the store holding the bodies
+	 * @param the step of the simulation
+	 * @param the flags
+	 * @param the arrays to remember the x and y positions in,
+	 *   indexed by id
+	 */
+	public static void putKeyFrame(ByteBuffer buffer, BodyStore store,
+			long step, byte flags, int[] lastX, int[] lastY){
+		int n = store.size();
+		int start = beginMessage(buffer, KEY_FRAME);
+		buffer.putLong(step).put(flags).putInt(n);
+		for (int id = 0; id < n; id++){
+			int i = store.indexOf(id);
+			lastX[id] = quantize(store.getX(i));
+			lastY[id] = quantize(store.getY(i));
+			buffer.putInt(store.getRadius(i)).putInt(lastX[id])
+					.putInt(lastY[id]);
+		}
+		endMessage(buffer, start);
+	}
+
+	/**
+	 * Write a delta frame of the bodies of a store against the
+	 * positions remembered from the frame before, and remember the
+	 * new positions in their place.
+	 *
+	 * @param the buffer to write into, with room for the frame
+	 * @param the store holding the bodies
+	 * @param the step of the simulation
+	 * @param the flags
+	 * @param the x positions of the frame before, indexed by id
+	 * @param the y positions of the frame before, indexed by id
+	 */
+	public static void putDeltaFrame(ByteBuffer buffer,
+			BodyStore store, long step, byte flags, int[] lastX,
+			int[] lastY){
+		int n = store.size();
+		int start = beginMessage(buffer, DELTA_FRAME);
+		buffer.putLong(step).put(flags).putInt(n);
+		for (int id = 0; id < n; id++){
+			int i = store.indexOf(id);
+			int x = quantize(store.getX(i));
+			int y = quantize(store.getY(i));
+			putVarInt(buffer, x - lastX[id]);
+			putVarInt(buffer, y - lastY[id]);
+			lastX[id] = x;
+			lastY[id] = y;
+		}
+		endMessage(buffer, start);
+	}
+}
@@ -0,0 +1,489 @@
+/**
+ * This class runs a simulation without a window and serves it
+ * over a socket, so that the physics can run on one machine and
+ * be watched from any number of others with a simulation viewer.
+ *
+ * The server is a simulation loop like the simulator itself.
+ * Every frame it looks for new viewers and for commands from the
+ * ones it has, without ever waiting on the network, then steps
+ * the bodies and sends every viewer the new positions as laid out
+ * in SimProtocol.  Everything happens on the thread of the loop,
+ * so commands never change the bodies in the middle of a step.
+ *
+ * A viewer that has not taken all of the last frame yet is
+ * skipped rather than sent more, so a slow viewer only ever holds
+ * up itself; it is sent a key frame once it has caught up.
+ * Bodies are never taken out of the store, only cleared all at
+ * once, so their ids always run from zero to the number of bodies.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+public class SimServer extends SimLoop {
+
+	private final long SCENARIO_SEED = 42;
+	private final double SCENARIO_MASS = 1000;
+	private final int SCENARIO_WIDTH = 1200;
+	private final int SCENARIO_HEIGHT = 750;
+	private final int MAX_SCENARIO_BODIES = 1 << 22;
+
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private ArrayList<Viewer> viewers;
+
+	private BodyStore store;
+	private Simulation simulation;
+	private TreeForceEngine treeEngine;
+	private DirectForceEngine directEngine;
+
+	private boolean isPaused;
+	private double timeScale;
+
+	// Positions on the grid last sent, indexed by id
+	private int[] lastX;
+	private int[] lastY;
+	private boolean isLayoutChanged;
+
+	// Frames last written, shared by every viewer sent them
+	private ByteBuffer keyFrame;
+	private ByteBuffer deltaFrame;
+
+	private long bytesSent;
+
+	/**
+	 * Constructor: a server of an empty simulation listening on a
+	 * custom port of every address of the machine.
+	 *
+	 * @param the port to listen on, or 0 for any free port
+	 * @throws IOException if the port cannot be listened on
+	 */
+	public SimServer(int port) throws IOException{
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		viewers = new ArrayList<>();
+		treeEngine = new TreeForceEngine();
+		directEngine = new DirectForceEngine();
+		store = new DoubleBodyStore();
+		simulation = new Simulation(store, treeEngine);
+		isPaused = false;
+		timeScale = 1;
+		lastX = new int[0];
+		lastY = new int[0];
+		isLayoutChanged = true;
+		keyFrame = ByteBuffer.allocate(0);
+		deltaFrame = ByteBuffer.allocate(0);
+		bytesSent = 0;
+	}
+
+	/** Return the port the server listens on.*/
+	public int getPort(){
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/** Return the store holding the bodies.*/
+	public BodyStore getStore(){
+		return store;
+	}
+
+	/** Return the number of bytes sent to every viewer so far.*/
+	public long getBytesSent(){
+		return bytesSent;
+	}
+
+	/**
+	 * Load a generated scenario in place of the bodies there are.
+	 * This must be called before the loop is started, or from the
+	 * thread of the loop.
+	 *
+	 * @param the name of the generator
+	 * @param the number of bodies
+	 * @throws IllegalArgumentException if there is no such
+	 *   generator
+	 */
+	public void loadScenario(String name, int count){
+		count = Math.max(0, Math.min(count, MAX_SCENARIO_BODIES));
+		BodyStore loaded = new DoubleBodyStore(Math.max(count, 1));
+		new Scenario(SCENARIO_SEED).generate(loaded, name, count,
+				SCENARIO_WIDTH, SCENARIO_HEIGHT, SCENARIO_MASS);
+		store = loaded;
+		simulation = new Simulation(store, simulation.getEngine());
+		isLayoutChanged = true;
+	}
+
+	/** Run the loop, and close every connection once it stops.*/
+	@Override
+	public void run(){
+		try {
+			loop();
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Handle every viewer and command waiting, and step the
+	 * bodies unless paused.
+	 *
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 */
+	@Override
+	void update(double deltaTime){
+		poll();
+		if (!isPaused && store.size() > 0){
+			simulation.step(deltaTime * timeScale);
+		}
+	}
+
+	/** Send the positions of the bodies to every viewer.*/
+	@Override
+	void render(){
+		broadcast();
+	}
+
+	/**
+	 * Accept new viewers, read their commands and carry on sending
+	 * the frames not yet taken, without waiting on any of them.
+	 */
+	private void poll(){
+		try {
+			selector.selectNow();
+		} catch (IOException e){
+			e.printStackTrace();
+			return;
+		}
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()){
+			SelectionKey key = keys.next();
+			keys.remove();
+			if (!key.isValid()){
+				continue;
+			}
+			if (key.isAcceptable()){
+				accept();
+				continue;
+			}
+			Viewer viewer = (Viewer)key.attachment();
+			try {
+				if (key.isReadable()){
+					read(viewer);
+				}
+				if (key.isValid() && key.isWritable()){
+					flush(viewer);
+				}
+			} catch (IOException | RuntimeException e){
+				drop(viewer);
+			}
+		}
+	}
+
+	/** Accept every viewer waiting to connect.*/
+	private void accept(){
+		try {
+			SocketChannel channel;
+			while ((channel = serverChannel.accept()) != null){
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				Viewer viewer = new Viewer(channel);
+				viewer.key = channel.register(selector,
+						SelectionKey.OP_READ, viewer);
+				viewers.add(viewer);
+			}
+		} catch (IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read whatever a viewer has sent and carry out every command
+	 * that has arrived in full.
+	 *
+	 * @param the viewer to read from
+	 * @throws IOException if the viewer is gone or breaks the
+	 *   protocol
+	 */
+	private void read(Viewer viewer) throws IOException{
+		ByteBuffer input = viewer.input;
+		if (viewer.channel.read(input) < 0){
+			throw new ClosedChannelException();
+		}
+		input.flip();
+		while (input.remaining() >= Integer.BYTES){
+			int length = input.getInt(input.position());
+			if (length < 1 || length > SimProtocol.MAX_COMMAND_SIZE){
+				throw new IOException("Bad command length " + length);
+			}
+			if (input.remaining() < Integer.BYTES + length){
+				break;
+			}
+			input.position(input.position() + Integer.BYTES);
+			ByteBuffer command = input.slice(input.position(), length);
+			input.position(input.position() + length);
+			handle(command);
+		}
+		input.compact();
+	}
+
+	/**
+	 * Carry out a single command.
+	 *
+	 * @param the command, starting with its type
+	 */
+	private void handle(ByteBuffer command){
+		switch (command.get()){
+		case SimProtocol.ADD_BODY:
+			store.add(command.getDouble(), command.getDouble(),
+					command.getDouble(), command.getDouble(),
+					command.getDouble(), command.getInt());
+			isLayoutChanged = true;
+			break;
+		case SimProtocol.PAUSE:
+			isPaused = true;
+			break;
+		case SimProtocol.RESUME:
+			isPaused = false;
+			break;
+		case SimProtocol.SET_PARAMETER:
+			setParameter(command.get(), command.getDouble());
+			break;
+		case SimProtocol.LOAD_SCENARIO:
+			int count = command.getInt();
+			String name = SimProtocol.getString(command);
+			try {
+				loadScenario(name, count);
+			} catch (IllegalArgumentException e){
+				System.err.println(e.getMessage());
+			}
+			break;
+		case SimProtocol.CLEAR:
+			store.clear();
+			isLayoutChanged = true;
+			break;
+		default:
+			// Commands from newer viewers are left alone
+			break;
+		}
+	}
+
+	/**
+	 * Change a parameter of the simulation, ignoring values that
+	 * make no sense.
+	 *
+	 * @param the parameter
+	 * @param the new value
+	 */
+	private void setParameter(byte parameter, double value){
+		if (!Double.isFinite(value) || value < 0){
+			return;
+		}
+		switch (parameter){
+		case SimProtocol.TIME_SCALE:
+			timeScale = value;
+			break;
+		case SimProtocol.THETA:
+			treeEngine.setTheta(value);
+			break;
+		case SimProtocol.ENGINE:
+			simulation.setEngine((int)value == SimProtocol.DIRECT_ENGINE
+					? directEngine : treeEngine);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Write the next frame and hand it to every viewer that has
+	 * taken all of the last one: a delta frame to those that have
+	 * every frame before it, and a key frame to the rest.
+	 */
+	private void broadcast(){
+		if (viewers.isEmpty()){
+			return;
+		}
+		int n = store.size();
+		byte flags = isPaused ? SimProtocol.PAUSED : 0;
+		long step = simulation.getSteps();
+		if (lastX.length < n){
+			lastX = new int[Math.max(n, lastX.length * 2)];
+			lastY = new int[lastX.length];
+		}
+		boolean isSendingKey = isLayoutChanged;
+		boolean isSendingDelta = false;
+		for (Viewer viewer : viewers){
+			if (viewer.output != null){
+				viewer.needsKeyFrame = true;
+			} else if (viewer.needsKeyFrame){
+				isSendingKey = true;
+			} else {
+				isSendingDelta = true;
+			}
+		}
+		int size = SimProtocol.getMaxFrameSize(n);
+		// The delta goes first, since both frames leave the new positions
+		if (isSendingDelta && !isLayoutChanged){
+			deltaFrame = reuse(deltaFrame, size);
+			SimProtocol.putDeltaFrame(deltaFrame, store, step, flags,
+					lastX, lastY);
+			deltaFrame.flip();
+		}
+		if (isSendingKey){
+			keyFrame = reuse(keyFrame, size);
+			SimProtocol.putKeyFrame(keyFrame, store, step, flags,
+					lastX, lastY);
+			keyFrame.flip();
+		}
+		for (Viewer viewer : new ArrayList<>(viewers)){
+			if (viewer.output != null){
+				continue;
+			}
+			if (viewer.needsKeyFrame || isLayoutChanged){
+				viewer.output = keyFrame.duplicate();
+				viewer.needsKeyFrame = false;
+			} else {
+				viewer.output = deltaFrame.duplicate();
+			}
+			try {
+				flush(viewer);
+			} catch (IOException e){
+				drop(viewer);
+			}
+		}
+		isLayoutChanged = false;
+	}
+
+	/**
+	 * Return a buffer to write the next frame into, which is the
+	 * one given when it is big enough and no viewer is still
+	 * sending it.
+	 *
+	 * @param the buffer of the last frame
+	 * @param the most bytes the next frame can take
+	 */
+	private ByteBuffer reuse(ByteBuffer buffer, int size){
+		boolean isInUse = false;
+		for (Viewer viewer : viewers){
+			if (viewer.output != null && viewer.output.hasArray()
+					&& viewer.output.array() == buffer.array()){
+				isInUse = true;
+			}
+		}
+		if (isInUse || buffer.capacity() < size){
+			return ByteBuffer.allocate(Math.max(size,
+					buffer.capacity()));
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Send as much of the frame a viewer has not taken yet as the
+	 * socket will take without waiting, and ask to be told when it
+	 * can take more.
+	 *
+	 * @param the viewer to send to
+	 * @throws IOException if the viewer is gone
+	 */
+	private void flush(Viewer viewer) throws IOException{
+		if (viewer.output != null){
+			bytesSent += viewer.channel.write(viewer.output);
+			if (!viewer.output.hasRemaining()){
+				viewer.output = null;
+			}
+		}
+		viewer.key.interestOps(viewer.output == null
+				? SelectionKey.OP_READ
+				: SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Forget a viewer and close its connection.
+	 *
+	 * @param the viewer to drop
+	 */
+	private void drop(Viewer viewer){
+		viewers.remove(viewer);
+		viewer.key.cancel();
+		try {
+			viewer.channel.close();
+		} catch (IOException e){
+			// Already gone
+		}
+	}
+
+	/** Close every connection and stop listening.*/
+	private void close(){
+		for (Viewer viewer : new ArrayList<>(viewers)){
+			drop(viewer);
+		}
+		try {
+			serverChannel.close();
+			selector.close();
+		} catch (IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Serve a simulation until the process is stopped.
+	 *
+	 * Arguments: optionally the port, the name of a generator to
+	 * start with and its number of bodies.
+	 *
+	 * @param the arguments
+	 * @throws IOException if the port cannot be listened on
+	 */
+	public static void main(String[] args) throws IOException{
+		int port = args.length > 0 ? Integer.parseInt(args[0])
+				: SimProtocol.DEFAULT_PORT;
+		SimServer server = new SimServer(port);
+		if (args.length > 2){
+			server.loadScenario(args[1], Integer.parseInt(args[2]));
+		}
+		System.out.println("Serving " + server.getStore().size()
+				+ " bodies on port " + server.getPort());
+		server.run();
+	}
+
+	/** The connection to a single viewer.*/
+	private static class Viewer {
+
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer input;
+
+		// Part of a frame not yet taken, or null
+		private ByteBuffer output;
+		private boolean needsKeyFrame;
+
+		/**
+		 * Constructor: a viewer that has just connected.
+		 *
+		 * @param the channel to the viewer
+		 */
+		private Viewer(SocketChannel channel){
+			this.channel = channel;
+			input = ByteBuffer.allocate(2
+					* (Integer.BYTES + SimProtocol.MAX_COMMAND_SIZE));
+			output = null;
+			needsKeyFrame = true;
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/**
+ * This class is a thin viewer of a simulation served by a
+ * simulation server, possibly on another machine.  It keeps no
+ * physics of its own: it draws the positions the server sends
+ * with the same panel and camera as the simulator, and turns the
+ * mouse and keyboard into commands for the server.
+ *
+ * Frames are read on a thread of their own.  A key frame fills a
+ * new store that then takes the place of the one being drawn,
+ * while a delta frame moves the bodies of the store in place, the
+ * same way the simulator moves bodies while they are drawn.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+
+public class SimViewer {
+
+	private final Color COLOR_SIMPANEL = Color.WHITE;
+	private final Font FONT = new Font("Serif", Font.PLAIN, 14);
+
+	private final int WIDTH = 1200;
+	private final int HEIGHT = 750;
+	private final double ZOOM_STEP = 1.1;
+	private final int NEW_BODY_RADIUS = 10;
+	private final int COMMAND_BUFFER_SIZE = 256;
+
+	private SocketChannel channel;
+	private ByteBuffer commands;
+
+	private JFrame frame;
+	private SimPanel simPanel;
+	private JLabel statusLabel;
+
+	// Bodies as last sent, and their positions on the grid by id
+	private volatile BodyStore store;
+	private int[] gridX;
+	private int[] gridY;
+	private ByteBuffer frameBuffer;
+
+	private volatile boolean isPaused;
+	private double timeScale;
+	private boolean isDirect;
+	private int scenarioCount;
+
+	// Screen positions the mouse was pressed at and last dragged to
+	private Position pressPosition;
+	private Position panPosition;
+
+	/**
+	 * Constructor: a viewer connected to a server, in a window of
+	 * its own.
+	 *
+	 * @param the name of the machine the server runs on
+	 * @param the port the server listens on
+	 * @param the number of bodies in scenarios loaded by number key
+	 * @throws IOException if the server cannot be reached
+	 */
+	public SimViewer(String host, int port, int scenarioCount)
+			throws IOException{
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		commands = ByteBuffer.allocate(COMMAND_BUFFER_SIZE);
+		this.scenarioCount = scenarioCount;
+		store = new DoubleBodyStore();
+		gridX = new int[0];
+		gridY = new int[0];
+		frameBuffer = ByteBuffer.allocate(0);
+		isPaused = false;
+		timeScale = 1;
+		isDirect = false;
+
+		statusLabel = new JLabel("Connecting to " + host + ":" + port);
+		statusLabel.setFont(FONT);
+
+		ViewerListener listener = new ViewerListener();
+		simPanel = new SimPanel(WIDTH, HEIGHT);
+		simPanel.setBackground(COLOR_SIMPANEL);
+		simPanel.addMouseListener(listener);
+		simPanel.addMouseMotionListener(listener);
+		simPanel.addMouseWheelListener(listener);
+		simPanel.add(statusLabel);
+		simPanel.setStore(store, new ArrayList<>());
+
+		frame = new JFrame("N-Body Viewer - " + host + ":" + port);
+		frame.addKeyListener(new ViewerKeyListener());
+		frame.setResizable(true);
+		frame.add(simPanel, BorderLayout.CENTER);
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.pack();
+		frame.setVisible(true);
+		frame.setFocusable(true);
+
+		Thread reader = new Thread(this::receive, "Viewer reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Read frames from the server until the connection is closed,
+	 * drawing each one as it arrives.
+	 */
+	private void receive(){
+		ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+		try {
+			while (true){
+				length.clear();
+				readFully(length);
+				int size = length.getInt(0);
+				if (size < 1){
+					throw new IOException("Bad frame length " + size);
+				}
+				if (frameBuffer.capacity() < size){
+					frameBuffer = ByteBuffer.allocate(size);
+				}
+				frameBuffer.clear().limit(size);
+				readFully(frameBuffer);
+				frameBuffer.flip();
+				readFrame(frameBuffer);
+				simPanel.getCamera().follow(store);
+				simPanel.repaint();
+			}
+		} catch (IOException e){
+			SwingUtilities.invokeLater(() -> statusLabel.setText(
+					"Disconnected: " + e.getMessage()));
+		}
+	}
+
+	/**
+	 * Fill a buffer from the server, waiting for as long as it
+	 * takes.
+	 *
+	 * @param the buffer to fill
+	 * @throws IOException if the connection is closed first
+	 */
+	private void readFully(ByteBuffer buffer) throws IOException{
+		while (buffer.hasRemaining()){
+			if (channel.read(buffer) < 0){
+				throw new EOFException("Server closed the connection");
+			}
+		}
+	}
+
+	/**
+	 * Bring the bodies up to date with a frame.
+	 *
+	 * @param the frame, starting with its type
+	 * @throws IOException if the frame does not follow the protocol
+	 */
+	private void readFrame(ByteBuffer frame) throws IOException{
+		byte type = frame.get();
+		if (type != SimProtocol.KEY_FRAME
+				&& type != SimProtocol.DELTA_FRAME){
+			return;
+		}
+		long step = frame.getLong();
+		byte flags = frame.get();
+		int n = frame.getInt();
+		if (type == SimProtocol.KEY_FRAME){
+			BodyStore next = new DoubleBodyStore(Math.max(n, 1));
+			next.addBodies(n);
+			if (gridX.length < n){
+				gridX = new int[n];
+				gridY = new int[n];
+			}
+			for (int id = 0; id < n; id++){
+				int radius = frame.getInt();
+				gridX[id] = frame.getInt();
+				gridY[id] = frame.getInt();
+				next.setMass(id, (double)radius * radius, radius);
+				next.setPosition(id, SimProtocol.dequantize(gridX[id]),
+						SimProtocol.dequantize(gridY[id]));
+			}
+			store = next;
+			simPanel.setStore(store, new ArrayList<>());
+		} else {
+			if (n != store.size()){
+				throw new IOException("Delta frame of " + n
+						+ " bodies for " + store.size());
+			}
+			// The store is never rearranged, so ids are indices
+			for (int id = 0; id < n; id++){
+				gridX[id] += SimProtocol.getVarInt(frame);
+				gridY[id] += SimProtocol.getVarInt(frame);
+				store.setPosition(id, SimProtocol.dequantize(gridX[id]),
+						SimProtocol.dequantize(gridY[id]));
+			}
+		}
+		isPaused = (flags & SimProtocol.PAUSED) != 0;
+		String text = String.format("Step: %d  Bodies: %d  Frame: %d"
+				+ " bytes%s", step, n, frame.limit() + Integer.BYTES,
+				isPaused ? "  [Paused]" : "");
+		SwingUtilities.invokeLater(() -> statusLabel.setText(text));
+	}
+
+	/**
+	 * Send the commands written into the command buffer by a
+	 * writer.
+	 *
+	 * @param the writer of the commands
+	 */
+	private synchronized void send(CommandWriter writer){
+		commands.clear();
+		writer.write(commands);
+		commands.flip();
+		try {
+			while (commands.hasRemaining()){
+				channel.write(commands);
+			}
+		} catch (IOException e){
+			statusLabel.setText("Cannot send: " + e.getMessage());
+		}
+	}
+
+	/** Write commands into a buffer.*/
+	private interface CommandWriter {
+		void write(ByteBuffer buffer);
+	}
+
+	/**
+	 * Connect to a server and show what it simulates.
+	 *
+	 * Arguments: optionally the name of the machine, the port, and
+	 * the number of bodies in scenarios loaded by number key.
+	 *
+	 * @param the arguments
+	 * @throws IOException if the server cannot be reached
+	 */
+	public static void main(String[] args) throws IOException{
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1])
+				: SimProtocol.DEFAULT_PORT;
+		int count = args.length > 2 ? Integer.parseInt(args[2])
+				: 10000;
+		new SimViewer(host, port, count);
+	}
+
+	/**
+	 * Handle the mouse: a left click adds a body, dragging first
+	 * giving it a starting velocity, any other button drags the
+	 * view, and the wheel zooms about the mouse.
+	 */
+	class ViewerListener extends MouseAdapter {
+
+		/** Remember where a body is added or the view dragged from.*/
+		@Override
+		public void mousePressed(MouseEvent event){
+			Position position = new Position(event.getX(),
+					event.getY());
+			if (SwingUtilities.isLeftMouseButton(event)){
+				pressPosition = position;
+			} else {
+				panPosition = position;
+			}
+			frame.requestFocus();
+		}
+
+		/** Drag the view.*/
+		@Override
+		public void mouseDragged(MouseEvent event){
+			if (!SwingUtilities.isLeftMouseButton(event)
+					&& panPosition != null){
+				simPanel.getCamera().pan(event.getX() - panPosition.x,
+						event.getY() - panPosition.y);
+				panPosition = new Position(event.getX(), event.getY());
+				simPanel.repaint();
+			}
+		}
+
+		/**
+		 * Add a body where the mouse was pressed, moving towards
+		 * where it was let go.
+		 */
+		@Override
+		public void mouseReleased(MouseEvent event){
+			if (!SwingUtilities.isLeftMouseButton(event)){
+				panPosition = null;
+				return;
+			}
+			if (pressPosition == null){
+				return;
+			}
+			Camera camera = simPanel.getCamera();
+			double x = camera.toWorldX(pressPosition.x);
+			double y = camera.toWorldY(pressPosition.y);
+			double vx = (camera.toWorldX(event.getX()) - x) / 100;
+			double vy = (camera.toWorldY(event.getY()) - y) / 100;
+			pressPosition = null;
+			send(buffer -> SimProtocol.putAddBody(buffer, x, y, vx, vy,
+					(double)NEW_BODY_RADIUS * NEW_BODY_RADIUS,
+					NEW_BODY_RADIUS));
+		}
+
+		/** Zoom in or out about the mouse with the wheel.*/
+		@Override
+		public void mouseWheelMoved(MouseWheelEvent event){
+			simPanel.getCamera().zoom(Math.pow(ZOOM_STEP,
+					-event.getPreciseWheelRotation()),
+					event.getX(), event.getY());
+			simPanel.repaint();
+		}
+	}
+
+	/**
+	 * Handle the keyboard: space or 'p' pauses and resumes, the
+	 * number keys load the scenarios, 'c' clears, '+' and '-'
+	 * speed up and slow down time, 'e' switches between the tree
+	 * and direct engines, 'f' follows the centre of mass and 'h'
+	 * resets the view.
+	 */
+	class ViewerKeyListener extends KeyAdapter {
+
+		@Override
+		public void keyPressed(KeyEvent event){
+			int code = event.getKeyCode();
+			char key = event.getKeyChar();
+			if (code == KeyEvent.VK_SPACE || code == KeyEvent.VK_P){
+				byte command = isPaused ? SimProtocol.RESUME
+						: SimProtocol.PAUSE;
+				send(buffer -> SimProtocol.putCommand(buffer, command));
+			} else if (key >= '1'
+					&& key < '1' + Scenario.NAMES.length){
+				String name = Scenario.NAMES[key - '1'];
+				send(buffer -> SimProtocol.putLoadScenario(buffer, name,
+						scenarioCount));
+				simPanel.getCamera().reset();
+			} else if (code == KeyEvent.VK_C){
+				send(buffer -> SimProtocol.putCommand(buffer,
+						SimProtocol.CLEAR));
+			} else if (key == '+' || key == '=' || key == '-'){
+				timeScale *= key == '-' ? 0.5 : 2;
+				double scale = timeScale;
+				send(buffer -> SimProtocol.putSetParameter(buffer,
+						SimProtocol.TIME_SCALE, scale));
+			} else if (code == KeyEvent.VK_E){
+				isDirect = !isDirect;
+				int engine = isDirect ? SimProtocol.DIRECT_ENGINE
+						: SimProtocol.TREE_ENGINE;
+				send(buffer -> SimProtocol.putSetParameter(buffer,
+						SimProtocol.ENGINE, engine));
+			} else if (code == KeyEvent.VK_F){
+				Camera camera = simPanel.getCamera();
+				camera.setFollowing(!camera.isFollowing());
+			} else if (code == KeyEvent.VK_H){
+				simPanel.getCamera().reset();
+			}
+			simPanel.repaint();
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * This class advances the bodies of a body store through time
+ * without any window attached.  Every step works out the
+ * acceleration of every body with a force engine, adds it to the
+ * velocity, and then adds the velocity to the position-- the
+ * same order Simulator.update follows for each body.
+ * 
+ * The store can also be sorted along a space-filling curve once
+ * every so many steps to keep neighbouring bodies together in
+ * memory, and measured for energy and momentum right after the
+ * forces are worked out, while the positions and velocities still
+ * belong to the same moment.
+ * 
+ * Nothing in a step depends on how many threads share the work:
+ * every body is moved on its own, and the engines and diagnostics
+ * sum in a fixed order, so a run gives the same bytes on one
+ * thread or on many.
+ * 
+ * A Hermite integrator can take over the whole step instead, for
+ * small collisional systems that need accuracy more than speed.
+ * The main method writes the final state of a run to a file, so
+ * that two runs can be compared with cmp.
+ * 
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+public class Simulation {
+	
+	// Fewest bodies worth splitting between threads
+	public static final int PARALLEL_THRESHOLD = 1024;
+	
+	private BodyStore store;
+	private ForceEngine engine;
+	private BodyReorder reorder;
+	private Diagnostics diagnostics;
+	private HermiteIntegrator hermite;
+	
+	private int reorderInterval;
+	private long steps;
+	
+	/**
+	 * Constructor: a simulation of a store of bodies using a
+	 * custom force engine.
+	 * 
+	 * @param the store holding the bodies
+	 * @param the engine used to find the accelerations
+	 */
+	public Simulation(BodyStore store, ForceEngine engine){
+		this.store = store;
+		this.engine = engine;
+		reorder = null;
+		diagnostics = null;
+		hermite = null;
+		reorderInterval = 0;
+		steps = 0;
+	}
+	
+	/** Return the store.*/
+	public BodyStore getStore(){
+		return store;
+	}
+	
+	/** Return the force engine.*/
+	public ForceEngine getEngine(){
+		return engine;
+	}
+	
+	/** Return the diagnostics, or null when there are none.*/
+	public Diagnostics getDiagnostics(){
+		return diagnostics;
+	}
+	
+	/** Return the Hermite integrator, or null when there is none.*/
+	public HermiteIntegrator getHermite(){
+		return hermite;
+	}
+	
+	/** Return the number of steps taken so far.*/
+	public long getSteps(){
+		return steps;
+	}
+	
+	/**
+	 * Change the force engine.
+	 * 
+	 * @param the new force engine
+	 */
+	public void setEngine(ForceEngine engine){
+		this.engine = engine;
+	}
+	
+	/**
+	 * Sort the store along a space-filling curve once every so
+	 * many steps, or never when the reorder is null.  Engines that
+	 * already rearrange the store, like the tree engine, do not
+	 * need this.
+	 * 
+	 * @param the reorder to apply, or null for none
+	 * @param the number of steps in between reorders
+	 */
+	public void setReorder(BodyReorder reorder, int reorderInterval){
+		this.reorder = reorder;
+		this.reorderInterval = Math.max(reorderInterval, 1);
+	}
+	
+	/**
+	 * Change the diagnostics measured during the steps.
+	 * 
+	 * @param the new diagnostics, or null for none
+	 */
+	public void setDiagnostics(Diagnostics diagnostics){
+		this.diagnostics = diagnostics;
+	}
+	
+	/**
+	 * Have a Hermite integrator of the store take every step from
+	 * now on, in place of the force engine and the first-order
+	 * step, or go back to them when it is null.
+	 * 
+	 * @param the Hermite integrator, or null for none
+	 */
+	public void setHermite(HermiteIntegrator hermite){
+		this.hermite = hermite;
+	}
+	
+	/**
+	 * Advance every body by one step.
+	 * 
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 */
+	public void step(double deltaTime){
+		if (hermite != null){
+			stepHermite(deltaTime);
+			return;
+		}
+		if (reorder != null && steps % reorderInterval == 0){
+			reorder.reorder(store);
+		}
+		engine.computeAccelerations(store);
+		if (diagnostics != null && diagnostics.isDue(steps)){
+			diagnostics.measure(store, steps);
+		}
+		indices(store.size()).forEach(i -> {
+			double vx = store.getVX(i) + store.getAX(i) * deltaTime;
+			double vy = store.getVY(i) + store.getAY(i) * deltaTime;
+			store.setVelocity(i, vx, vy);
+			store.setPosition(i, store.getX(i) + vx * deltaTime,
+					store.getY(i) + vy * deltaTime);
+		});
+		steps++;
+	}
+	
+	/**
+	 * Advance every body by one step with the Hermite integrator,
+	 * which works out the forces itself.  The diagnostics are
+	 * measured once the step is over, when every body has been
+	 * brought back to the same moment, and also before the very
+	 * first step.
+	 * 
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 */
+	private void stepHermite(double deltaTime){
+		if (steps == 0 && diagnostics != null){
+			hermite.start(deltaTime);
+			diagnostics.measure(store, steps);
+		}
+		hermite.step(deltaTime);
+		steps++;
+		if (diagnostics != null && diagnostics.isDue(steps)){
+			diagnostics.measure(store, steps);
+		}
+	}
+	
+	/**
+	 * Return the indices of a number of bodies as a stream, which
+	 * is only parallel when there are enough bodies for splitting
+	 * them between threads to pay off.  Small systems are then
+	 * stepped entirely on the thread that steps them.
+	 * 
+	 * @param the number of bodies
+	 */
+	public static IntStream indices(int n){
+		IntStream indices = IntStream.range(0, n);
+		return n >= PARALLEL_THRESHOLD ? indices.parallel() : indices;
+	}
+	
+	/**
+	 * Write the position and velocity of every body in the store
+	 * as doubles in network byte order, in the order of their ids
+	 * so that engines which rearrange the store can be compared.
+	 * 
+	 * @param the store holding the bodies
+	 * @param the stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public static void writeState(BodyStore store, 
+			DataOutputStream out) throws IOException{
+		for (int id = 0; id < store.size(); id++){
+			int i = store.indexOf(id);
+			out.writeDouble(store.getX(i));
+			out.writeDouble(store.getY(i));
+			out.writeDouble(store.getVX(i));
+			out.writeDouble(store.getVY(i));
+		}
+	}
+	
+	/**
+	 * Run a scenario without a window and write its final state
+	 * to a file.  The arguments are the name of a scenario or a
+	 * file to load, the number of bodies, the number of steps,
+	 * direct, tree, grouped, split or hermite, and the file to
+	 * write, where grouped walks the tree once for every group of
+	 * neighbouring bodies and split works out the far pull with the
+	 * tree engine only every few steps, and optionally the kind of
+	 * store the bodies are held in, as for BodyStore.create, where
+	 * a mapped store leaves the final state in its file as well.
+	 * The number of threads is set with the parallelism of the
+	 * common pool,
+	 * java.util.concurrent.ForkJoinPool.common.parallelism.
+	 * 
+	 * @param the arguments
+	 * @throws IOException if the scenario cannot be loaded or the
+	 *   state cannot be written
+	 */
+	public static void main(String[] args) throws IOException{
+		if (args.length < 5){
+			usage();
+		}
+		int count = Integer.parseInt(args[1]);
+		long steps = Long.parseLong(args[2]);
+		ForceEngine engine = null;
+		switch (args[3]){
+		case "direct":
+		case "hermite":
+			engine = new DirectForceEngine();
+			break;
+		case "tree":
+			engine = new TreeForceEngine();
+			break;
+		case "grouped":
+			TreeForceEngine tree = new TreeForceEngine();
+			tree.setGrouped(true);
+			engine = tree;
+			break;
+		case "split":
+			engine = new SplitForceEngine(new TreeForceEngine());
+			break;
+		default:
+			usage();
+		}
+		BodyStore store = null;
+		try {
+			store = BodyStore.create(args.length > 5 ? args[5]
+					: "double", count);
+		} catch (IllegalArgumentException e){
+			usage();
+		}
+		File file = new File(args[0]);
+		if (file.isFile()){
+			ScenarioFile.load(file, store);
+		} else {
+			try {
+				new Scenario(42).generate(store, args[0], count, 1200,
+						600, 1000);
+			} catch (IllegalArgumentException e){
+				usage();
+			}
+		}
+		Simulation simulation = new Simulation(store, engine);
+		if (args[3].equals("hermite")){
+			simulation.setHermite(new HermiteIntegrator(store));
+		}
+		Diagnostics diagnostics = new Diagnostics(100, System.out);
+		simulation.setDiagnostics(diagnostics);
+		for (long step = 0; step < steps; step++){
+			simulation.step(1);
+		}
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(
+				args[4])))){
+			writeState(store, out);
+		}
+		store.snapshot();
+	}
+	
+	/** Print how to run the main method and exit.*/
+	private static void usage(){
+		System.err.println("Usage: Simulation <scenario|file>"
+				+ " <bodies> <steps>"
+				+ " <direct|tree|grouped|split|hermite> <file>"
+				+ " [double|float|direct|mapped:<file>]");
+		System.exit(1);
+	}
+}
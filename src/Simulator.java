@@ -5,12 +5,16 @@
  * frame-- with a user interface that allows for the manipulation
  * of the bodies and the way they are drawn to the screen.
  * 
+ * Bodies can also be generated in bulk from a scenario, in which
+ * case they are kept in a body store and moved by a simulation
+ * using the tree force engine instead.
+ * 
  * The simulator is a child of the simulation loop, and so
  * is runnable and will use a thread to execute the loop
  * while other processes are handled separately.
  * 
  * Author: Tomas L. Dougan
- * Date of last modification: 23 June 2020
+ * Date of last modification: 18 October 2026
  */
 
 package nbodysim;
@@ -24,6 +28,10 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.io.File;
+import java.io.IOException;
 import java.lang.Math;
 
 import javax.swing.*;
@@ -48,6 +56,15 @@ public class Simulator extends SimLoop{
 	private final int WIDTH = 1200;
 	private final int HEIGHT = 750;
 	
+	// Scenario constants
+	private final long SCENARIO_SEED = 42;
+	private final double SCENARIO_MASS = 1000;
+	private final int DIAGNOSTICS_INTERVAL = 60;
+	
+	// Camera constants
+	private final double ZOOM_STEP = 1.1;
+	private final String FROM_FILE = "From File...";
+	
 	// Containers
 	private JFrame frame;
 	private SimPanel simPanel;
@@ -57,6 +74,10 @@ public class Simulator extends SimLoop{
 	private JButton radiusButton;
 	private JButton taperedLengthButton;
 	private JButton resetButton;
+	private JButton scenarioButton;
+	
+	// Combo-boxes
+	private JComboBox<String> scenarioBox;
 	
 	// Check-boxes
 	private JCheckBox togglePathTrace;
@@ -64,10 +85,15 @@ public class Simulator extends SimLoop{
 	private JCheckBox togglePathTaper;
 	private JCheckBox togglePathColors;
 	private JCheckBox toggleNetForces;
+	private JCheckBox toggleSinglePrecision;
+	private JCheckBox toggleSplitForces;
+	private JCheckBox toggleActiveRendering;
+	private JCheckBox toggleHermite;
 	
 	// Text-fields
 	private JTextField radiusField;
 	private JTextField taperedLengthField;
+	private JTextField scenarioCountField;
 	
 	// Labels
 	private JLabel radiusValueLabel;
@@ -81,12 +107,24 @@ public class Simulator extends SimLoop{
 	private ArrayList<Body> bodies;
 	private ArrayList<Position> mousePositions;
 	private ArrayList<Position> newBodyPositions;
+	private ArrayList<BodyPath> storePaths;
+	
+	// Scenario simulation, null while bodies are added by clicking
+	private Simulation simulation;
+	
+	// Copies of the bodies added by clicking, while the Hermite
+	// integrator moves them
+	private BodyStore hermiteStore;
+	private HermiteIntegrator hermite;
 	
 	// New-body fields
 	private Vector newBodyVknot;
 	private Position newBodyPosition;
 	private Position mousePosition;
 	
+	// Last point on the screen the view was dragged from
+	private Position panPosition;
+	
 	// Booleans
 	private boolean isAddingBody;
 	private boolean isTracingPaths;
@@ -94,6 +132,9 @@ public class Simulator extends SimLoop{
 	private boolean isTaperingPaths;
 	private boolean isColoringPaths;
 	private boolean isShowingNetForces;
+	private boolean isSinglePrecision;
+	private boolean isSplittingForces;
+	private boolean isHermite;
 	
 	// Misc. booleans
 	private boolean isPaused;
@@ -121,6 +162,7 @@ public class Simulator extends SimLoop{
 		
 		togglePathInterpolate = new JCheckBox("Interpolate Paths");
 		togglePathInterpolate.setVisible(false);
+		togglePathInterpolate.setSelected(true);
 		togglePathInterpolate.addActionListener(new ToggleListener());
 		togglePathInterpolate.setFont(FONT);
 		togglePathInterpolate.setBackground(COLOR_GUI);
@@ -137,6 +179,16 @@ public class Simulator extends SimLoop{
 		togglePathColors.setFont(FONT);
 		togglePathColors.setBackground(COLOR_GUI);
 		
+		toggleActiveRendering = new JCheckBox("Active Rendering");
+		toggleActiveRendering.addActionListener(new ToggleListener());
+		toggleActiveRendering.setFont(FONT);
+		toggleActiveRendering.setBackground(COLOR_GUI);
+		
+		toggleHermite = new JCheckBox("Hermite");
+		toggleHermite.addActionListener(new ToggleListener());
+		toggleHermite.setFont(FONT);
+		toggleHermite.setBackground(COLOR_GUI);
+		
 		// Misc. label initialization and set up
 		numberOfBodiesLabel = new JLabel("Bodies: 0/25");
 		numberOfBodiesLabel.setFont(FONT);
@@ -190,12 +242,40 @@ public class Simulator extends SimLoop{
 		radiusButton.addActionListener(new ButtonListener());
 		resetButton.addActionListener(new ButtonListener());
 		
+		// Scenario interface initialization and set up
+		scenarioBox = new JComboBox<>(Scenario.NAMES);
+		scenarioBox.addItem(FROM_FILE);
+		scenarioBox.setFocusable(false);
+		scenarioBox.setFont(FONT);
+		scenarioBox.setBackground(COLOR_SIMPANEL);
+		
+		scenarioCountField = new JTextField("10000");
+		scenarioCountField.setFocusable(true);
+		scenarioCountField.setFont(FONT);
+		
+		toggleSinglePrecision = new JCheckBox("Single Precision");
+		toggleSinglePrecision.addActionListener(new ToggleListener());
+		toggleSinglePrecision.setFont(FONT);
+		toggleSinglePrecision.setBackground(COLOR_GUI);
+		
+		toggleSplitForces = new JCheckBox("Split Forces");
+		toggleSplitForces.addActionListener(new ToggleListener());
+		toggleSplitForces.setFont(FONT);
+		toggleSplitForces.setBackground(COLOR_GUI);
+		
+		scenarioButton = new JButton("Load Scenario");
+		scenarioButton.setFocusable(false);
+		scenarioButton.setFont(FONT);
+		scenarioButton.setBackground(COLOR_SIMPANEL);
+		scenarioButton.addActionListener(new ButtonListener());
+		
 		// Simulation panel initialization and set up
 		simListener = new SimListener();
 		simPanel = new SimPanel(WIDTH, HEIGHT);
 		simPanel.setBackground(COLOR_SIMPANEL);
 		simPanel.addMouseListener(simListener);
 		simPanel.addMouseMotionListener(simListener);
+		simPanel.addMouseWheelListener(simListener);
 		simPanel.add(pausedLabel);
 		simPanel.add(numberOfBodiesLabel);
 		
@@ -217,13 +297,20 @@ public class Simulator extends SimLoop{
 		gui.add(taperedLengthButton);
 		gui.add(taperedLengthField);
 		gui.add(togglePathColors);
+		gui.add(toggleActiveRendering);
+		gui.add(toggleHermite);
+		gui.add(scenarioBox);
+		gui.add(scenarioCountField);
+		gui.add(toggleSinglePrecision);
+		gui.add(toggleSplitForces);
+		gui.add(scenarioButton);
 		gui.addMouseListener(new GUIFocusSwitcher());
 		
 		// Window frame initialization and set up
 		frame = new JFrame("N-Body Simulator");
 		frame.addKeyListener(simListener);
 		frame.setPreferredSize(new Dimension(WIDTH, HEIGHT));
-		frame.setResizable(false);
+		frame.setResizable(true);
 		frame.add(gui, BorderLayout.SOUTH);
 		frame.add(simPanel, BorderLayout.CENTER);
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -235,15 +322,21 @@ public class Simulator extends SimLoop{
 		bodies = new ArrayList<Body>();
 		mousePositions = new ArrayList<>();
 		newBodyPositions = new ArrayList<>();
+		storePaths = new ArrayList<>();
+		simulation = null;
 		
 		isAddingBody = false;
 		isTracingPaths = false;
-		isInterpolatingPaths = false;
+		isInterpolatingPaths = true;
 		isTaperingPaths = false;
+		isSinglePrecision = false;
+		isSplittingForces = false;
+		isHermite = false;
+		hermiteStore = null;
 		isPaused = false;
 		isUpdating = false;
 		
-		taperedLength = BodyPath.getTaperedLength();
+		taperedLength = BodyPath.DEFAULT_TAPERED_LENGTH;
 		/*
 		 * When a new instance of simulator is created,
 		 * have it run upon creation.
@@ -285,7 +378,20 @@ public class Simulator extends SimLoop{
 		 */
 		taperedLength = Integer.parseInt(
 				taperedLengthValueLabel.getText());
-		BodyPath.setTaperedLength(taperedLength);
+		// Step the scenario instead when one is loaded
+		if (simulation != null){
+			isUpdating = true;
+			if (!isPaused){
+				simulation.step(deltaTime);
+			}
+			updateStorePaths();
+			simPanel.getCamera().follow(simulation.getStore());
+		} else {
+			simPanel.getCamera().follow(bodies);
+		}
+		if (isHermite && !isPaused){
+			stepHermite(deltaTime);
+		}
 		// Loop through all bodies
 		for (Body body : bodies){
 			isUpdating = true;
@@ -311,17 +417,24 @@ public class Simulator extends SimLoop{
 						&& body.getPath().isTapered()){
 					body.getPath().setTapered(false);
 				}
-			} else if(body.getPath().list.size() > 0){
+				body.getPath().setTaperedLength(taperedLength);
+			} else if(!body.getPath().isEmpty()){
 				body.getPath().clear();
 			}
 			// Update body physics
-			if (!isPaused){
+			if (!isPaused && !isHermite){
 				body.updateForces(bodies);
 				body.updateAcceleration(deltaTime);
 				body.updateVelocity(deltaTime);
-				body.updatePosition(deltaTime);
 			}	
 		}
+		/*
+		 * Move the bodies together once every velocity is known,
+		 * so they can be swept along their paths in pairs.
+		 */
+		if (!isPaused && !isHermite){
+			Body.updatePositions(deltaTime, bodies);
+		}
 		/*
 		 * Update the simulation graphics logic's corresponding  
 		 * fields.
@@ -333,14 +446,149 @@ public class Simulator extends SimLoop{
 	}
 	
 	/**
-	 * Render the scene and update the numberOfBodiesLabel to 
-	 * reflect the number of bodies.
+	 * Advance the bodies added by clicking with the Hermite
+	 * integrator, which keeps copies of them in a store of its
+	 * own, and copy where they end up back into the bodies, along
+	 * with the net force on each from its acceleration.  Bodies
+	 * added since the last step are copied into the store first;
+	 * the store is dropped whenever the bodies are cleared, so a
+	 * new one is made for whatever is added next.
+	 * 
+	 * @param the ratio of time elapsed to the expected time
+	 *   it takes to elapse
+	 */
+	private void stepHermite(double deltaTime){
+		BodyStore store = hermiteStore;
+		if (store == null){
+			store = new DoubleBodyStore(BODY_LIMIT);
+			hermite = new HermiteIntegrator(store);
+			hermiteStore = store;
+		}
+		for (int i = store.size(); i < bodies.size(); i++){
+			store.add(bodies.get(i));
+		}
+		hermite.step(deltaTime);
+		for (int i = 0; i < store.size(); i++){
+			Body body = bodies.get(i);
+			body.getPosition().x = store.getX(i);
+			body.getPosition().y = store.getY(i);
+			// Flip the velocity back out of screen coordinates
+			double vx = store.getVX(i);
+			double vy = -store.getVY(i);
+			body.setVelocity(new Vector(Math.hypot(vx, vy), 
+					Math.atan2(vy, vx)));
+			// Keep the net force lines in step with the integrator
+			double ax = store.getAX(i);
+			double ay = -store.getAY(i);
+			body.setNetForce(new Force(body, new Vector(
+					body.getMass() * Math.hypot(ax, ay),
+					Math.atan2(ay, ax))));
+		}
+	}
+	
+	/**
+	 * Add the current position of every body in the scenario to
+	 * its path, looking the path up by the id of the body since
+	 * the engine moves bodies around in the store.  If the 
+	 * simulation is not tracing paths, drop every path.
+	 */
+	private void updateStorePaths(){
+		if (!isTracingPaths){
+			storePaths.clear();
+			return;
+		}
+		BodyStore store = simulation.getStore();
+		for (int i = 0; i < store.size(); i++){
+			int id = store.getId(i);
+			while (storePaths.size() <= id){
+				storePaths.add(new BodyPath(new Color(
+						(int)(Math.random() * 250),
+						(int)(Math.random() * 250),
+						(int)(Math.random() * 250))));
+			}
+			BodyPath path = storePaths.get(id);
+			path.setInterpolated(isInterpolatingPaths);
+			path.setTapered(isTaperingPaths);
+			path.setTaperedLength(taperedLength);
+			path.add(new Position(store.getX(i), store.getY(i)));
+		}
+	}
+	
+	/**
+	 * Replace every body with those of a scenario, and have them
+	 * simulated with the tree force engine from then on.
+	 * 
+	 * @param the name of the scenario
+	 * @param the number of bodies to generate
+	 */
+	private void loadScenario(String name, int count){
+		BodyStore store = isSinglePrecision
+				? new FloatBodyStore(count) : new DoubleBodyStore(count);
+		if (!name.equals(FROM_FILE)){
+			new Scenario(SCENARIO_SEED).generate(store, name, count, 
+					simPanel.getWidth(), simPanel.getHeight(), 
+					SCENARIO_MASS);
+		} else {
+			JFileChooser chooser = new JFileChooser();
+			if (chooser.showOpenDialog(frame) 
+					!= JFileChooser.APPROVE_OPTION){
+				return;
+			}
+			try {
+				ScenarioFile.load(chooser.getSelectedFile(), store);
+			} catch (IOException e){
+				e.printStackTrace();
+				return;
+			}
+		}
+		bodies.clear();
+		hermiteStore = null;
+		mousePositions.clear();
+		newBodyPositions.clear();
+		storePaths.clear();
+		simPanel.getCamera().reset();
+		simulation = new Simulation(store, scenarioEngine());
+		simulation.setDiagnostics(new Diagnostics(
+				DIAGNOSTICS_INTERVAL, null));
+		simPanel.setStore(store, storePaths);
+	}
+	
+	/**
+	 * Return a new force engine for a scenario: the tree engine,
+	 * or the tree engine for the far pull only when the forces are
+	 * being split.
+	 */
+	private ForceEngine scenarioEngine(){
+		return isSplittingForces
+				? new SplitForceEngine(new TreeForceEngine())
+				: new TreeForceEngine();
+	}
+	
+	/**
+	 * Update the numberOfBodiesLabel to reflect the number of 
+	 * bodies, and render the scene, either by drawing it straight
+	 * away or by asking Swing to repaint it.
 	 */
 	@Override
 	public void render() {
-		simPanel.repaint();
-		numberOfBodiesLabel.setText("Bodies: " + bodies.size() 
-				+ "/" + BODY_LIMIT);
+		String text;
+		if (simulation != null){
+			text = String.format("Bodies: %d  Energy drift: %.1e", 
+					simulation.getStore().size(),
+					simulation.getDiagnostics().getEnergyDrift());
+		} else {
+			text = "Bodies: " + bodies.size() + "/" + BODY_LIMIT;
+		}
+		if (simPanel.isActiveRendering()){
+			text += String.format("  Frame: %.1f ms", 
+					simPanel.getFrameTime() / 1e6);
+		}
+		numberOfBodiesLabel.setText(text);
+		if (simPanel.isActiveRendering()){
+			simPanel.renderFrame();
+		} else {
+			simPanel.repaint();
+		}
 	}
 	
 	/** Create a new instance of the simulator.*/
@@ -351,30 +599,52 @@ public class Simulator extends SimLoop{
 	/**
 	 * Handle all of the user input controlling the addition of 
 	 * new bodies, increment and decrement of the radius with 
-	 * arrow keys, and the pause mechanic with the space-bar.
+	 * arrow keys, the pause mechanic with the space-bar, and the
+	 * camera.  Positions of the mouse are turned into positions
+	 * in the world before they are used.
 	 */
 	class SimListener implements MouseListener, 
-		MouseMotionListener, KeyListener{
+		MouseMotionListener, MouseWheelListener, KeyListener{
 		
 		/**
 		 * Start the process of adding a new body.  Store the 
 		 * mouse position as the position of the position of 
-		 * the new body.
+		 * the new body.  Any other button starts dragging the
+		 * view.
 		 */
 		@Override
 		public void mousePressed(MouseEvent event) {
 			if (SwingUtilities.isLeftMouseButton(event)){
 				isAddingBody = true;
-				newBodyPosition = new Position(event.getX(), 
-						event.getY());
-				mousePosition = new Position(event.getX(), 
-						event.getY());
+				newBodyPosition = toWorld(event);
+				mousePosition = toWorld(event);
 				newBodyPositions.add(newBodyPosition);
 				mousePositions.add(mousePosition);
+			} else {
+				panPosition = new Position(event.getX(), event.getY());
 			}
 			frame.requestFocus();
 		}
 		
+		/**
+		 * Return the position in the world under the mouse.
+		 * 
+		 * @param the mouse event
+		 */
+		private Position toWorld(MouseEvent event){
+			Camera camera = simPanel.getCamera();
+			return new Position(camera.toWorldX(event.getX()), 
+					camera.toWorldY(event.getY()));
+		}
+		
+		/** Zoom in or out about the mouse with the wheel.*/
+		@Override
+		public void mouseWheelMoved(MouseWheelEvent event) {
+			simPanel.getCamera().zoom(Math.pow(ZOOM_STEP, 
+					-event.getPreciseWheelRotation()), 
+					event.getX(), event.getY());
+		}
+		
 		/**
 		 * Update the mouse position, and the vector from 
 		 * the new body to the mouse to get the velocity 
@@ -382,9 +652,15 @@ public class Simulator extends SimLoop{
 		 */
 		@Override
 		public void mouseDragged(MouseEvent event) {
+			if (!SwingUtilities.isLeftMouseButton(event)
+					&& panPosition != null){
+				// Drag the view along with the mouse
+				simPanel.getCamera().pan(event.getX() - panPosition.x, 
+						event.getY() - panPosition.y);
+				panPosition = new Position(event.getX(), event.getY());
+			}
 			if (SwingUtilities.isLeftMouseButton(event)){
-				mousePosition = new Position(event.getX(), 
-						event.getY());
+				mousePosition = toWorld(event);
 				/*
 				 * Store the vector describing the difference
 				 * in position between the new body and the
@@ -415,18 +691,36 @@ public class Simulator extends SimLoop{
 		 */
 		@Override
 		public void mouseReleased(MouseEvent event) {
+			if (!SwingUtilities.isLeftMouseButton(event)){
+				panPosition = null;
+			}
 			if (SwingUtilities.isLeftMouseButton(event)){
 				// Get the radius of the new body from the label
 				int newBodyRadius = Integer.parseInt(
 						radiusValueLabel.getText());
 				Body newBody = new Body(newBodyRadius, newBodyPosition, 
 						newBodyVknot);
+				/*
+				 * Add the new body to the scenario instead when one
+				 * is loaded, where there is no limit of bodies.
+				 */
+				if (!isUpdating && simulation != null){
+					if (newBodyPosition.equals(mousePosition)){
+						newBody = new Body(newBodyRadius, newBodyPosition);
+					}
+					simulation.getStore().add(newBody);
+					if (!isPaused){
+						mousePositions.clear();
+						newBodyPositions.clear();
+					}
+				}
 				/* 
 				 * Do not add the new body while the other thread is
 				 * looping through the bodies in the update method
 				 * or when the limit of bodies is reached.
 				 */
-				if (!isUpdating && bodies.size() < BODY_LIMIT){
+				if (!isUpdating && simulation == null
+						&& bodies.size() < BODY_LIMIT){
 					if (newBodyPosition.equals(mousePosition)){
 						newBody = new Body(newBodyRadius, newBodyPosition);
 					}
@@ -449,7 +743,9 @@ public class Simulator extends SimLoop{
 		
 		/**
 		 * Toggle pause when space-bar is pressed, and allow
-		 * the arrow keys to manipulate the radius size. 
+		 * the arrow keys to manipulate the radius size.  'f'
+		 * toggles following the centre of mass, and 'h' brings
+		 * the camera back home.
 		 */
 		@Override
 		public void keyPressed(KeyEvent event) {
@@ -472,6 +768,13 @@ public class Simulator extends SimLoop{
 							newRadius));
 				}
 			}
+			if (event.getKeyCode() == 70){ // 'f'
+				Camera camera = simPanel.getCamera();
+				camera.setFollowing(!camera.isFollowing());
+			}
+			if (event.getKeyCode() == 72){ // 'h'
+				simPanel.getCamera().reset();
+			}
 			if (event.getKeyCode() == 32 || event.getKeyCode() == 80){ 
 					// Space-bar or 'p'
 				isPaused = !isPaused;
@@ -557,8 +860,24 @@ public class Simulator extends SimLoop{
 			if (event.getSource().equals(resetButton)){	
 				if (!isUpdating){
 					bodies.clear();
+					hermiteStore = null;
 					mousePositions.clear();
 					newBodyPositions.clear();
+					// Go back to adding bodies by clicking
+					simulation = null;
+					storePaths.clear();
+					simPanel.setStore(null, storePaths);
+				}
+			}
+			// Scenario button
+			if (event.getSource().equals(scenarioButton)){
+				// Input validation
+				if (!isUpdating 
+						&& scenarioCountField.getText().matches("[0-9]+")){
+					int count = Integer.parseInt(
+							scenarioCountField.getText());
+					loadScenario((String)scenarioBox.getSelectedItem(),
+							Math.max(count, 1));
 				}
 			}
 			frame.requestFocus();
@@ -610,6 +929,39 @@ public class Simulator extends SimLoop{
 			if (event.getSource().equals(toggleNetForces)){
 				isShowingNetForces = !isShowingNetForces;
 			}
+			/*
+			 * Store the bodies of the next scenario in single
+			 * precision to halve their memory.
+			 */
+			if (event.getSource().equals(toggleSinglePrecision)){
+				isSinglePrecision = !isSinglePrecision;
+			}
+			/*
+			 * Work out the far pull on the bodies of the scenario
+			 * only every few steps, starting with the next one.
+			 */
+			if (event.getSource().equals(toggleSplitForces)){
+				isSplittingForces = !isSplittingForces;
+				if (simulation != null){
+					simulation.setEngine(scenarioEngine());
+				}
+			}
+			/*
+			 * Have the loop draw every frame itself rather than
+			 * leaving it to Swing.
+			 */
+			if (event.getSource().equals(toggleActiveRendering)){
+				simPanel.setActiveRendering(
+						!simPanel.isActiveRendering());
+			}
+			/*
+			 * Move the bodies added by clicking with the Hermite
+			 * integrator, starting again from where they are now.
+			 */
+			if (event.getSource().equals(toggleHermite)){
+				isHermite = !isHermite;
+				hermiteStore = null;
+			}
 			frame.requestFocus();	
 		}	
 	}
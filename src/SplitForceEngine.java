@@ -0,0 +1,292 @@
+/**
+ * This class splits the pull on every body into a near part and a
+ * far part and works them out at different rates, in the impulse
+ * form of multiple time stepping.  The near part, from the bodies
+ * within a cutoff distance, changes quickly and is summed at every
+ * step by walking a quadtree of its own.  The far part changes
+ * slowly, so it is worked out by another force engine only once
+ * every so many steps, as the full pull less the near part, and
+ * given to the bodies all at once: on those steps the acceleration
+ * holds the far part times the number of steps it stands for, so
+ * the step of Simulation kicks the velocities with it once, and
+ * every step in between kicks them with the near part alone.
+ * Giving the far part as a kick, rather than holding it fixed
+ * over the steps, keeps the step symplectic, so the energy error
+ * stays bounded instead of drifting.
+ *
+ * The near part fades out smoothly over the outer half of the
+ * cutoff instead of stopping at it, so that the far part left over
+ * does not jump when a body crosses the cutoff.  The near pull is
+ * the gradient of the faded near potential, slope of the fade
+ * included, so the far part left over is a gradient as well.
+ * The potential is the full one on the steps the far part is
+ * worked out, and the near part plus the far part kept from then
+ * in between, so the energy is only exact when measured on those
+ * steps.
+ *
+ * The far part of every body is kept by its id, since both the
+ * far engine and the quadtree may rearrange the store.
+ *
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class SplitForceEngine implements ForceEngine{
+
+	private final int DEFAULT_INTERVAL = 4;
+
+	// Leaves across the cutoff chosen when none is given
+	private final double LEAVES_PER_CUTOFF = 2;
+
+	// Number of bodies walked by a single task
+	private final int BLOCK_SIZE = 256;
+
+	private ForceEngine farEngine;
+	private QuadTree tree;
+
+	// Zero when the cutoff is chosen from the tree
+	private double cutoff;
+	private double currentCutoff;
+
+	// Number of steps the far part is kept for
+	private int interval;
+	private long steps;
+
+	// Far part of the acceleration and potential of every id
+	private double[] farX, farY, farPotential;
+
+	/**
+	 * Constructor: an engine working out the far part with another
+	 * engine, with the default interval and a cutoff chosen from
+	 * how closely the bodies are packed.
+	 *
+	 * @param the engine used to find the full pull
+	 */
+	public SplitForceEngine(ForceEngine farEngine){
+		this.farEngine = farEngine;
+		tree = new QuadTree();
+		cutoff = 0;
+		interval = DEFAULT_INTERVAL;
+		steps = 0;
+		farX = new double[0];
+		farY = new double[0];
+		farPotential = new double[0];
+	}
+
+	/**
+	 * Constructor: an engine working out the far part with another
+	 * engine, with a custom cutoff and interval.
+	 *
+	 * @param the engine used to find the full pull
+	 * @param the distance within which bodies are near
+	 * @param the number of steps the far part is kept for
+	 */
+	public SplitForceEngine(ForceEngine farEngine, double cutoff,
+			int interval){
+		this(farEngine);
+		this.cutoff = cutoff;
+		this.interval = Math.max(interval, 1);
+	}
+
+	/** Return the engine used to find the full pull.*/
+	public ForceEngine getFarEngine(){
+		return farEngine;
+	}
+
+	/**
+	 * Return the distance within which bodies are near, which is
+	 * the one chosen at the last refresh when it is chosen from
+	 * the tree.
+	 */
+	public double getCutoff(){
+		return cutoff > 0 ? cutoff : currentCutoff;
+	}
+
+	/** Return the number of steps the far part is kept for.*/
+	public int getInterval(){
+		return interval;
+	}
+
+	/**
+	 * Change the distance within which bodies are near.  The
+	 * change takes effect the next time the far part is worked
+	 * out.
+	 *
+	 * @param the new cutoff, or zero to choose it from the tree
+	 */
+	public void setCutoff(double cutoff){
+		this.cutoff = cutoff;
+	}
+
+	/**
+	 * Change the number of steps the far part is kept for, and
+	 * work it out again on the next step.
+	 *
+	 * @param the new interval
+	 */
+	public void setInterval(int interval){
+		this.interval = Math.max(interval, 1);
+		steps = 0;
+	}
+
+	/**
+	 * Work out the near part of the pull on every body, and on
+	 * every interval-th step or whenever bodies have been added
+	 * the far part as well, and set the acceleration of every
+	 * body to the kick it takes this step.
+	 *
+	 * @param the store holding the bodies
+	 */
+	@Override
+	public void computeAccelerations(BodyStore store){
+		int n = store.size();
+		boolean isRefresh = steps % interval == 0 || farX.length != n;
+		if (isRefresh){
+			farEngine.computeAccelerations(store);
+			if (farX.length != n){
+				farX = new double[n];
+				farY = new double[n];
+				farPotential = new double[n];
+			}
+			// Keep the full pull until the near part is known
+			for (int i = 0; i < n; i++){
+				int id = store.getId(i);
+				farX[id] = store.getAX(i);
+				farY[id] = store.getAY(i);
+				farPotential[id] = store.getPotential(i);
+			}
+			tree.build(store);
+			currentCutoff = cutoff > 0 ? cutoff : chooseCutoff();
+		} else {
+			tree.update(store);
+		}
+		steps++;
+		if (n == 0){
+			return;
+		}
+		int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		IntStream indices = IntStream.range(0, blocks);
+		if (n >= Simulation.PARALLEL_THRESHOLD){
+			indices = indices.parallel();
+		}
+		indices.forEach(block -> {
+			int[] stack = new int[4 * (QuadTree.MAX_DEPTH + 1)];
+			double[] near = new double[3];
+			int end = Math.min(n, (block + 1) * BLOCK_SIZE);
+			for (int i = block * BLOCK_SIZE; i < end; i++){
+				walk(store, i, stack, near);
+				int id = store.getId(i);
+				if (isRefresh){
+					farX[id] -= near[0];
+					farY[id] -= near[1];
+					farPotential[id] -= near[2];
+					store.setAcceleration(i,
+							near[0] + interval * farX[id],
+							near[1] + interval * farY[id]);
+				} else {
+					store.setAcceleration(i, near[0], near[1]);
+				}
+				store.setPotential(i, near[2] + farPotential[id]);
+			}
+		});
+	}
+
+	/**
+	 * Return a cutoff a few times the size of the typical leaf of
+	 * the tree, so that a body has about as many near bodies
+	 * wherever most of the bodies are.
+	 */
+	private double chooseCutoff(){
+		int count = 0;
+		double[] sizes = new double[tree.getNodeCount()];
+		for (int node = 0; node < tree.getNodeCount(); node++){
+			if (tree.isLeaf(node) && tree.getEnd(node)
+					> tree.getStart(node)){
+				sizes[count++] = tree.getCellSize(node);
+			}
+		}
+		if (count == 0){
+			return 0;
+		}
+		Arrays.sort(sizes, 0, count);
+		return LEAVES_PER_CUTOFF * sizes[count / 2];
+	}
+
+	/**
+	 * Walk the tree from the root for a single body, skipping any
+	 * node that lies wholly beyond the cutoff, and sum the near
+	 * part of the pull of every body within it.
+	 *
+	 * @param the store holding the bodies
+	 * @param the index of the body
+	 * @param the stack of nodes left to visit
+	 * @param the x and y of the near acceleration and the near
+	 *   potential, filled in by the walk
+	 */
+	private void walk(BodyStore store, int i, int[] stack,
+			double[] near){
+		double x = store.getX(i);
+		double y = store.getY(i);
+		int radius = store.getRadius(i);
+		double outer = currentCutoff;
+		double inner = outer / 2;
+		double accelerationX = 0;
+		double accelerationY = 0;
+		double potential = 0;
+		int top = 0;
+		stack[top++] = tree.getRoot();
+		while (top > 0){
+			int node = stack[--top];
+			if (tree.isLeaf(node)){
+				for (int j = tree.getStart(node);
+						j < tree.getEnd(node); j++){
+					double dx = store.getX(j) - x;
+					double dy = store.getY(j) - y;
+					double distance = Math.sqrt(dx * dx + dy * dy);
+					if (j == i || distance >= outer
+							|| store.getRadius(j)/2 + radius/2
+							>= distance){
+						continue;
+					}
+					double pull = Simulator.GRAVITATIONAL_CONSTANT
+							* store.getMass(j) / distance;
+					double magnitude = pull / (distance * distance);
+					/*
+					 * Fade out over the outer half of the cutoff.
+					 * The fading share falls with distance, which
+					 * adds to the pull its slope times the unfaded
+					 * potential, so the acceleration stays the
+					 * gradient of the faded potential.
+					 */
+					if (distance > inner){
+						double u = (distance - inner) / (outer - inner);
+						double share = 1 - u * u * (3 - 2 * u);
+						double slope = 6 * u * (1 - u) / (outer - inner);
+						magnitude = magnitude * share
+								+ pull * slope / distance;
+						pull *= share;
+					}
+					accelerationX += magnitude * dx;
+					accelerationY += magnitude * dy;
+					potential -= pull;
+				}
+				continue;
+			}
+			// Open only the nodes whose box reaches into the cutoff
+			if (tree.distanceSquared(node, x, y) < outer * outer){
+				for (int k = tree.getChildCount(node) - 1; k >= 0;
+						k--){
+					stack[top++] = tree.getChild(node, k);
+				}
+			}
+		}
+		near[0] = accelerationX;
+		near[1] = accelerationY;
+		near[2] = potential;
+	}
+}
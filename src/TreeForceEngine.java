@@ -0,0 +1,589 @@
+/**
+ * This class works out the acceleration of every body with the
+ * Barnes-Hut method.  A quadtree is built over the bodies at
+ * every step, and whenever a node is small enough compared to its
+ * distance from a body, the whole node pulls on the body as a
+ * single mass at its centre of mass.
+ * 
+ * The pull of a node also takes in its quadrupole moment, the
+ * way its mass is spread about its centre of mass, unless that is
+ * turned off.  The error left is then of a higher order in the
+ * opening angle, so a larger angle, which opens far fewer nodes,
+ * gives the same accuracy as a monopole-only walk with a smaller
+ * one.
+ * 
+ * The tree can be kept between steps, in which case it is only
+ * updated to the bodies' new positions and is built from scratch
+ * once every so many steps.
+ * 
+ * In the grouped mode the tree is not walked for every body but
+ * once for every group of up to GROUP_SIZE neighbouring bodies,
+ * the bodies of the highest node small enough.  A node is treated
+ * as a single mass for the whole group when it is far enough from
+ * the box bounding the group, which makes it far enough from every
+ * body in it, and the nodes and bodies the walk ends on are kept
+ * in a list shared by the group.  The list is then summed for all
+ * of the bodies of the group at once, with a loop over the bodies
+ * for every entry of the list in the same way as BatchedSystems,
+ * so the compiler can turn it into vector instructions.  This is
+ * never less accurate than walking for every body, since nodes
+ * are judged from the nearest point of the group.
+ * 
+ * Author: Tomas L. Dougan
+ * Date of last modification: 18 October 2026
+ */
+
+package nbodysim;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class TreeForceEngine implements ForceEngine{
+	
+	/*
+	 * With quadrupoles this angle gives a smaller force error than
+	 * a walk of monopoles alone at 0.5, while opening fewer nodes.
+	 */
+	public static final double DEFAULT_THETA = 0.7;
+	
+	// Number of bodies walked by a single task
+	private final int BLOCK_SIZE = 256;
+	
+	// Most bodies sharing an interaction list in the grouped mode
+	public static final int GROUP_SIZE = 32;
+	
+	// Number of groups walked by a single task
+	private final int GROUPS_PER_TASK = 8;
+	
+	private double theta;
+	private boolean isQuadrupole;
+	private boolean isGrouped;
+	private QuadTree tree;
+	
+	// Number of steps in between full builds of the tree
+	private int rebuildInterval;
+	private long steps;
+	
+	/** Constructor: an engine with the default opening angle.*/
+	public TreeForceEngine(){
+		theta = DEFAULT_THETA;
+		isQuadrupole = true;
+		isGrouped = false;
+		tree = new QuadTree();
+		rebuildInterval = 1;
+	}
+	
+	/**
+	 * Constructor: an engine with a custom opening angle.
+	 * 
+	 * @param the ratio of node size to distance below which a
+	 *   node is treated as a single mass
+	 */
+	public TreeForceEngine(double theta){
+		this.theta = theta;
+		isQuadrupole = true;
+		isGrouped = false;
+		tree = new QuadTree();
+		rebuildInterval = 1;
+	}
+	
+	/** Return the opening angle.*/
+	public double getTheta(){
+		return theta;
+	}
+	
+	/** Return whether nodes pull with their quadrupole moment.*/
+	public boolean isQuadrupole(){
+		return isQuadrupole;
+	}
+	
+	/** Return whether the tree is walked once for every group.*/
+	public boolean isGrouped(){
+		return isGrouped;
+	}
+	
+	/** Return the number of steps in between full builds.*/
+	public int getRebuildInterval(){
+		return rebuildInterval;
+	}
+	
+	/** Return the tree built during the last step.*/
+	public QuadTree getTree(){
+		return tree;
+	}
+	
+	/**
+	 * Change the opening angle.
+	 * 
+	 * @param the new opening angle
+	 */
+	public void setTheta(double theta){
+		this.theta = theta;
+	}
+	
+	/**
+	 * Choose whether nodes pull with their quadrupole moment as
+	 * well as their mass.
+	 * 
+	 * @param whether to use the quadrupole moments
+	 */
+	public void setQuadrupole(boolean isQuadrupole){
+		this.isQuadrupole = isQuadrupole;
+	}
+	
+	/**
+	 * Choose whether the tree is walked once for every group of
+	 * neighbouring bodies rather than once for every body.
+	 * 
+	 * @param whether to walk the tree for groups
+	 */
+	public void setGrouped(boolean isGrouped){
+		this.isGrouped = isGrouped;
+	}
+	
+	/**
+	 * Change the number of steps in between full builds of the
+	 * tree.  With an interval of 1 the tree is built from scratch
+	 * at every step, and otherwise it is kept and updated in
+	 * between.
+	 * 
+	 * @param the new number of steps in between full builds
+	 */
+	public void setRebuildInterval(int rebuildInterval){
+		this.rebuildInterval = Math.max(rebuildInterval, 1);
+		steps = 0;
+	}
+	
+	/**
+	 * Build or update the tree, which puts the store in Morton
+	 * order, and then walk it once for every body, or once for
+	 * every group in the grouped mode.  The bodies are walked in
+	 * blocks of neighbours so that each thread keeps visiting the
+	 * same part of the tree.
+	 * 
+	 * @param the store holding the bodies
+	 */
+	@Override
+	public void computeAccelerations(BodyStore store){
+		if (steps % rebuildInterval == 0){
+			tree.build(store);
+		} else {
+			tree.update(store);
+		}
+		steps++;
+		if (isGrouped){
+			computeGrouped(store);
+			return;
+		}
+		int n = store.size();
+		int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		IntStream.range(0, blocks).parallel().forEach(block -> {
+			int[] stack = new int[4 * (QuadTree.MAX_DEPTH + 1)];
+			int end = Math.min(n, (block + 1) * BLOCK_SIZE);
+			for (int i = block * BLOCK_SIZE; i < end; i++){
+				walk(store, i, stack);
+			}
+		});
+	}
+	
+	/**
+	 * Walk the tree from the root for a single body, opening any
+	 * node that is too close to treat as a single mass, and
+	 * summing bodies directly once a leaf is reached.
+	 * 
+	 * @param the store holding the bodies
+	 * @param the index of the body
+	 * @param the stack of nodes left to visit
+	 */
+	private void walk(BodyStore store, int i, int[] stack){
+		double x = store.getX(i);
+		double y = store.getY(i);
+		int radius = store.getRadius(i);
+		double thetaSquared = theta * theta;
+		double accelerationX = 0;
+		double accelerationY = 0;
+		double potential = 0;
+		int top = 0;
+		stack[top++] = tree.getRoot();
+		while (top > 0){
+			int node = stack[--top];
+			if (tree.isLeaf(node)){
+				// Sum the bodies of the leaf directly
+				for (int j = tree.getStart(node); 
+						j < tree.getEnd(node); j++){
+					double dx = store.getX(j) - x;
+					double dy = store.getY(j) - y;
+					double distance = Math.sqrt(dx * dx + dy * dy);
+					if (j == i || store.getRadius(j)/2 + radius/2 
+							>= distance){
+						continue;
+					}
+					double pull = Simulator.GRAVITATIONAL_CONSTANT
+							* store.getMass(j) / distance;
+					double magnitude = pull / (distance * distance);
+					accelerationX += magnitude * dx;
+					accelerationY += magnitude * dy;
+					potential -= pull;
+				}
+				continue;
+			}
+			double dx = tree.getComX(node) - x;
+			double dy = tree.getComY(node) - y;
+			double distanceSquared = dx * dx + dy * dy;
+			double extent = tree.getExtent(node);
+			/*
+			 * Treat the node as a single mass when it is far
+			 * enough away and does not hold this body.
+			 */
+			boolean isInside = i >= tree.getStart(node) 
+					&& i < tree.getEnd(node);
+			if (!isInside && extent * extent 
+					< thetaSquared * distanceSquared){
+				double distance = Math.sqrt(distanceSquared);
+				double pull = Simulator.GRAVITATIONAL_CONSTANT
+						* tree.getMass(node) / distance;
+				double magnitude = pull / distanceSquared;
+				accelerationX += magnitude * dx;
+				accelerationY += magnitude * dy;
+				potential -= pull;
+				if (isQuadrupole){
+					// The pull of the shape of the node
+					double qx = tree.getQuadXX(node) * dx
+							+ tree.getQuadXY(node) * dy;
+					double qy = tree.getQuadXY(node) * dx
+							+ tree.getQuadYY(node) * dy;
+					double r5 = distanceSquared * distanceSquared
+							* distance;
+					double shape = Simulator.GRAVITATIONAL_CONSTANT
+							* (dx * qx + dy * qy) / (2 * r5);
+					accelerationX += 5 * shape * dx / distanceSquared
+							- Simulator.GRAVITATIONAL_CONSTANT * qx / r5;
+					accelerationY += 5 * shape * dy / distanceSquared
+							- Simulator.GRAVITATIONAL_CONSTANT * qy / r5;
+					potential -= shape;
+				}
+			} else {
+				for (int k = tree.getChildCount(node) - 1; k >= 0; 
+						k--){
+					stack[top++] = tree.getChild(node, k);
+				}
+			}
+		}
+		store.setAcceleration(i, accelerationX, accelerationY);
+		store.setPotential(i, potential);
+	}
+	
+	/**
+	 * Walk the tree once for every group of bodies, building the
+	 * list of nodes and bodies that pull on the group, and sum the
+	 * list for every body of the group.
+	 * 
+	 * @param the store holding the bodies
+	 */
+	private void computeGrouped(BodyStore store){
+		if (store.size() == 0){
+			return;
+		}
+		int[] groups = findGroups();
+		int tasks = (groups.length + GROUPS_PER_TASK - 1)
+				/ GROUPS_PER_TASK;
+		IntStream.range(0, tasks).parallel().forEach(task -> {
+			int[] stack = new int[4 * (QuadTree.MAX_DEPTH + 1)];
+			InteractionList list = new InteractionList();
+			int end = Math.min(groups.length,
+					(task + 1) * GROUPS_PER_TASK);
+			for (int k = task * GROUPS_PER_TASK; k < end; k++){
+				walkGroup(store, groups[k], stack, list);
+				list.sum(store, tree.getStart(groups[k]),
+						tree.getEnd(groups[k]));
+			}
+		});
+	}
+	
+	/**
+	 * Return the groups of the tree in Morton order: every node
+	 * holding no more than GROUP_SIZE bodies whose parent holds
+	 * more, and every leaf holding more.
+	 */
+	private int[] findGroups(){
+		int[] groups = new int[tree.getNodeCount()];
+		int count = 0;
+		int[] stack = new int[4 * (QuadTree.MAX_DEPTH + 1)];
+		int top = 0;
+		stack[top++] = tree.getRoot();
+		while (top > 0){
+			int node = stack[--top];
+			if (tree.isLeaf(node) || tree.getEnd(node)
+					- tree.getStart(node) <= GROUP_SIZE){
+				groups[count++] = node;
+			} else {
+				for (int k = tree.getChildCount(node) - 1; k >= 0;
+						k--){
+					stack[top++] = tree.getChild(node, k);
+				}
+			}
+		}
+		return Arrays.copyOf(groups, count);
+	}
+	
+	/**
+	 * Walk the tree from the root for a group, opening any node
+	 * that holds bodies of the group or is too close to the box
+	 * bounding the group to treat as a single mass, and fill a
+	 * list with the nodes that are not opened and the bodies of
+	 * the leaves that are.
+	 * 
+	 * @param the store holding the bodies
+	 * @param the node of the group
+	 * @param the stack of nodes left to visit
+	 * @param the list to fill
+	 */
+	private void walkGroup(BodyStore store, int group, int[] stack,
+			InteractionList list){
+		int start = tree.getStart(group);
+		int end = tree.getEnd(group);
+		double thetaSquared = theta * theta;
+		list.clear();
+		int top = 0;
+		stack[top++] = tree.getRoot();
+		while (top > 0){
+			int node = stack[--top];
+			if (tree.isLeaf(node)){
+				for (int j = tree.getStart(node); 
+						j < tree.getEnd(node); j++){
+					list.addBody(store.getX(j), store.getY(j),
+							store.getMass(j), store.getRadius(j)/2);
+				}
+				continue;
+			}
+			boolean isOverlapping = tree.getStart(node) < end
+					&& start < tree.getEnd(node);
+			double extent = tree.getExtent(node);
+			if (!isOverlapping && extent * extent < thetaSquared
+					* tree.distanceSquared(group, tree.getComX(node),
+							tree.getComY(node))){
+				if (isQuadrupole){
+					list.addNode(tree.getComX(node),
+							tree.getComY(node), tree.getMass(node),
+							tree.getQuadXX(node), tree.getQuadXY(node),
+							tree.getQuadYY(node));
+				} else {
+					list.addNode(tree.getComX(node),
+							tree.getComY(node), tree.getMass(node),
+							0, 0, 0);
+				}
+			} else {
+				for (int k = tree.getChildCount(node) - 1; k >= 0; 
+						k--){
+					stack[top++] = tree.getChild(node, k);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * This class holds the nodes and bodies pulling on a group of
+	 * bodies, each quantity in an array of its own, and sums their
+	 * pull on every body of the group.  Its arrays grow as needed
+	 * and are kept from one group to the next.
+	 */
+	private static class InteractionList {
+		
+		// Nodes treated as a single mass
+		private int nodeCount;
+		private double[] nodeX, nodeY, nodeMass;
+		private double[] quadXX, quadXY, quadYY;
+		
+		// Bodies summed directly, with half their radius
+		private int bodyCount;
+		private double[] bodyX, bodyY, bodyMass, bodyHalfRadius;
+		
+		// Bodies of the group and their sums
+		private double[] x, y, halfRadius;
+		private double[] ax, ay, potential;
+		
+		// Scratch rows for the pull of a single entry
+		private double[] dxs, dys, pulls;
+		
+		/** Constructor: an empty list.*/
+		InteractionList(){
+			nodeX = new double[64];
+			nodeY = new double[64];
+			nodeMass = new double[64];
+			quadXX = new double[64];
+			quadXY = new double[64];
+			quadYY = new double[64];
+			bodyX = new double[64];
+			bodyY = new double[64];
+			bodyMass = new double[64];
+			bodyHalfRadius = new double[64];
+			ensureGroupCapacity(GROUP_SIZE);
+		}
+		
+		/** Empty the list.*/
+		void clear(){
+			nodeCount = 0;
+			bodyCount = 0;
+		}
+		
+		/**
+		 * Add a node.
+		 * 
+		 * @param the x coordinate of its centre of mass
+		 * @param the y coordinate of its centre of mass
+		 * @param its mass
+		 * @param the xx, xy and yy parts of its quadrupole moment
+		 */
+		void addNode(double x, double y, double mass, double xx,
+				double xy, double yy){
+			if (nodeCount == nodeX.length){
+				int length = 2 * nodeCount;
+				nodeX = Arrays.copyOf(nodeX, length);
+				nodeY = Arrays.copyOf(nodeY, length);
+				nodeMass = Arrays.copyOf(nodeMass, length);
+				quadXX = Arrays.copyOf(quadXX, length);
+				quadXY = Arrays.copyOf(quadXY, length);
+				quadYY = Arrays.copyOf(quadYY, length);
+			}
+			nodeX[nodeCount] = x;
+			nodeY[nodeCount] = y;
+			nodeMass[nodeCount] = mass;
+			quadXX[nodeCount] = xx;
+			quadXY[nodeCount] = xy;
+			quadYY[nodeCount] = yy;
+			nodeCount++;
+		}
+		
+		/**
+		 * Add a body.
+		 * 
+		 * @param its x coordinate
+		 * @param its y coordinate
+		 * @param its mass
+		 * @param half its radius, rounded down
+		 */
+		void addBody(double x, double y, double mass, int halfRadius){
+			if (bodyCount == bodyX.length){
+				int length = 2 * bodyCount;
+				bodyX = Arrays.copyOf(bodyX, length);
+				bodyY = Arrays.copyOf(bodyY, length);
+				bodyMass = Arrays.copyOf(bodyMass, length);
+				bodyHalfRadius = Arrays.copyOf(bodyHalfRadius, length);
+			}
+			bodyX[bodyCount] = x;
+			bodyY[bodyCount] = y;
+			bodyMass[bodyCount] = mass;
+			bodyHalfRadius[bodyCount] = halfRadius;
+			bodyCount++;
+		}
+		
+		/** Grow the rows of the group to hold a number of bodies.*/
+		private void ensureGroupCapacity(int capacity){
+			if (x != null && x.length >= capacity){
+				return;
+			}
+			x = new double[capacity];
+			y = new double[capacity];
+			halfRadius = new double[capacity];
+			ax = new double[capacity];
+			ay = new double[capacity];
+			potential = new double[capacity];
+			dxs = new double[capacity];
+			dys = new double[capacity];
+			pulls = new double[capacity];
+		}
+		
+		/**
+		 * Sum the pull of every node and body of the list on every
+		 * body of a group, and set their accelerations and
+		 * potentials.  The loops over the bodies of the group are
+		 * kept short and free of branches, like those of
+		 * BatchedSystems, and a body pulls on no body it overlaps,
+		 * itself included, by the same mask.
+		 * 
+		 * @param the store holding the bodies
+		 * @param the index of the first body of the group
+		 * @param the index after the last body of the group
+		 */
+		void sum(BodyStore store, int start, int end){
+			int width = end - start;
+			ensureGroupCapacity(width);
+			for (int s = 0; s < width; s++){
+				x[s] = store.getX(start + s);
+				y[s] = store.getY(start + s);
+				halfRadius[s] = store.getRadius(start + s)/2;
+			}
+			Arrays.fill(ax, 0, width, 0);
+			Arrays.fill(ay, 0, width, 0);
+			Arrays.fill(potential, 0, width, 0);
+			double g = Simulator.GRAVITATIONAL_CONSTANT;
+			for (int k = 0; k < nodeCount; k++){
+				double nx = nodeX[k], ny = nodeY[k];
+				double m = g * nodeMass[k];
+				double xx = g * quadXX[k], xy = g * quadXY[k];
+				double yy = g * quadYY[k];
+				for (int s = 0; s < width; s++){
+					double dx = nx - x[s];
+					double dy = ny - y[s];
+					dxs[s] = dx;
+					dys[s] = dy;
+					pulls[s] = 1 / Math.sqrt(dx * dx + dy * dy);
+				}
+				for (int s = 0; s < width; s++){
+					double dx = dxs[s];
+					double dy = dys[s];
+					double inverse = pulls[s];
+					double inverse2 = inverse * inverse;
+					double inverse5 = inverse2 * inverse2 * inverse;
+					double pull = m * inverse;
+					// The pull of the shape of the node
+					double qx = xx * dx + xy * dy;
+					double qy = xy * dx + yy * dy;
+					double shape = (dx * qx + dy * qy) * inverse5 / 2;
+					double magnitude = (pull + 5 * shape) * inverse2;
+					dxs[s] = magnitude * dx - qx * inverse5;
+					dys[s] = magnitude * dy - qy * inverse5;
+					pulls[s] = pull + shape;
+				}
+				for (int s = 0; s < width; s++){
+					ax[s] += dxs[s];
+					ay[s] += dys[s];
+					potential[s] -= pulls[s];
+				}
+			}
+			for (int k = 0; k < bodyCount; k++){
+				double bx = bodyX[k], by = bodyY[k];
+				double m = g * bodyMass[k];
+				double h = bodyHalfRadius[k];
+				for (int s = 0; s < width; s++){
+					double dx = bx - x[s];
+					double dy = by - y[s];
+					dxs[s] = dx;
+					dys[s] = dy;
+					pulls[s] = Math.sqrt(dx * dx + dy * dy);
+				}
+				for (int s = 0; s < width; s++){
+					double distance = pulls[s];
+					double gap = distance - (h + halfRadius[s]);
+					double size = Math.abs(gap);
+					double mask = (gap + size) / (size + size + 1e-300);
+					double safe = distance + (1 - mask);
+					double pull = m * mask / safe;
+					double magnitude = pull / (safe * safe);
+					pulls[s] = pull;
+					dxs[s] *= magnitude;
+					dys[s] *= magnitude;
+				}
+				for (int s = 0; s < width; s++){
+					ax[s] += dxs[s];
+					ay[s] += dys[s];
+					potential[s] -= pulls[s];
+				}
+			}
+			for (int s = 0; s < width; s++){
+				store.setAcceleration(start + s, ax[s], ay[s]);
+				store.setPotential(start + s, potential[s]);
+			}
+		}
+	}
+}